@@ -0,0 +1,85 @@
+package com.github.couchversion.benchmarks;
+
+import com.github.couchversion.changeset.MigrationPlan;
+import com.github.couchversion.exception.CouchVersionChangeSetVersionException;
+import com.github.couchversion.utils.ChangeService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Changelog lookup and changeset discovery, with the classpath scan and with the compile time changelog index
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeServiceBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  public int changeSets;
+
+  @Param({"false", "true"})
+  public boolean indexed;
+
+  private SyntheticChangeLogs changeLogs;
+  private ChangeService service;
+
+  @Setup
+  public void setUp() throws Exception {
+    changeLogs = new SyntheticChangeLogs(changeSets, indexed);
+    service = new ChangeService(changeLogs.getPackageName());
+  }
+
+  @Benchmark
+  public List<Class<?>> fetchChangeLogs() {
+    ClassLoader previous = useChangeLogsClassLoader();
+    try {
+      return service.fetchChangeLogs();
+    } finally {
+      Thread.currentThread().setContextClassLoader(previous);
+    }
+  }
+
+  @Benchmark
+  public void fetchChangeSets(Blackhole blackhole) throws CouchVersionChangeSetVersionException {
+    for (Class<?> changeLog : changeLogs.getChangeLogClasses()) {
+      List<Method> methods = service.fetchChangeSets(changeLog);
+      blackhole.consume(methods);
+    }
+  }
+
+  @Benchmark
+  public MigrationPlan createMigrationPlan() throws CouchVersionChangeSetVersionException {
+    ClassLoader previous = useChangeLogsClassLoader();
+    try {
+      return service.createMigrationPlan();
+    } finally {
+      Thread.currentThread().setContextClassLoader(previous);
+    }
+  }
+
+  /**
+   * The scan and the index lookup both go through the context class loader
+   */
+  private ClassLoader useChangeLogsClassLoader() {
+    ClassLoader previous = Thread.currentThread().getContextClassLoader();
+    Thread.currentThread().setContextClassLoader(changeLogs.getClassLoader());
+    return previous;
+  }
+}
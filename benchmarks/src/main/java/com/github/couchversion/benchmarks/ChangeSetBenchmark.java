@@ -0,0 +1,86 @@
+package com.github.couchversion.benchmarks;
+
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.changeset.ChangeEntry;
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+import com.github.couchversion.changeset.PlannedChangeSet;
+import com.github.couchversion.invoke.ChangeSetContext;
+import com.github.couchversion.invoke.ChangeSetInvoker;
+import com.github.couchversion.invoke.ParameterResolver;
+import com.github.couchversion.invoke.ParameterResolverRegistry;
+import com.github.couchversion.utils.ChangeService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per changeset costs of an execution: creation of the ChangeEntry and invocation of the changeset method.
+ * The reflective invocation is the baseline of the {@link ChangeSetInvoker}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeSetBenchmark {
+
+  @ChangeLog(order = "1")
+  public static class BenchmarkChangeLog {
+    @ChangeSet(id = "benchmark1", author = "benchmark", order = "01")
+    public int changeSet(String name, Integer value) {
+      return name.length() + value;
+    }
+  }
+
+  private final BenchmarkChangeLog changeLog = new BenchmarkChangeLog();
+  private Method method;
+  private ChangeService service;
+  private PlannedChangeSet plannedChangeSet;
+  private ChangeSetInvoker invoker;
+  private ChangeSetContext context;
+
+  @Setup
+  public void setUp() throws Exception {
+    method = BenchmarkChangeLog.class.getMethod("changeSet", String.class, Integer.class);
+    service = new ChangeService(BenchmarkChangeLog.class.getPackage().getName());
+    plannedChangeSet = new PlannedChangeSet(BenchmarkChangeLog.class, method);
+
+    ParameterResolverRegistry registry = new ParameterResolverRegistry()
+        .add(ParameterResolver.forType(String.class, ChangeSetContext::getChangeId))
+        .add(ParameterResolver.forType(Integer.class, context -> 42));
+    invoker = new ChangeSetInvoker(method, registry);
+    context = new ChangeSetContext("benchmark1", null, null, new ChangeSetStatistics());
+  }
+
+  @Benchmark
+  public ChangeEntry createChangeEntryFromAnnotation() {
+    return service.createChangeEntry(method);
+  }
+
+  @Benchmark
+  public ChangeEntry createChangeEntryFromPlan() {
+    return plannedChangeSet.createChangeEntry();
+  }
+
+  @Benchmark
+  public Object invokeReflectively() throws Exception {
+    return method.invoke(changeLog, context.getChangeId(), 42);
+  }
+
+  @Benchmark
+  public Object invokeWithInvoker() throws Throwable {
+    return invoker.invoke(changeLog, context);
+  }
+}
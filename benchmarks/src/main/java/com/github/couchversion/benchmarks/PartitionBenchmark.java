@@ -0,0 +1,68 @@
+package com.github.couchversion.benchmarks;
+
+import com.github.couchversion.ChangeSetPartition;
+import com.github.couchversion.utils.Partition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunking of the entry ids used by the state check, and key to partition mapping of the partitioned changesets
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartitionBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  public int size;
+
+  @Param({"100"})
+  public int chunkSize;
+
+  private List<String> ids;
+  private ChangeSetPartition partition;
+
+  @Setup
+  public void setUp() {
+    ids = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      ids.add("ChangeEntry::change" + i);
+    }
+    partition = new ChangeSetPartition("benchmark", 3, 8);
+  }
+
+  @Benchmark
+  public void chunkIds(Blackhole blackhole) {
+    for (List<String> chunk : Partition.ofSize(ids, chunkSize)) {
+      blackhole.consume(chunk);
+    }
+  }
+
+  @Benchmark
+  public int partitionKeys() {
+    int contained = 0;
+    for (String id : ids) {
+      if (partition.contains(id)) {
+        contained++;
+      }
+    }
+    return contained;
+  }
+}
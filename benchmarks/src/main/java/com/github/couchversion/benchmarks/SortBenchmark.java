@@ -0,0 +1,72 @@
+package com.github.couchversion.benchmarks;
+
+import com.github.couchversion.changeset.ChangeSet;
+import com.github.couchversion.utils.ChangeService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting of the changelogs and changesets done by {@link ChangeService#createMigrationPlan()}, which reads the sort
+ * key of each element once
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SortBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  public int changeSets;
+
+  private ChangeService service;
+  private List<Class<?>> changeLogs;
+  private List<Method> methods;
+
+  @Setup
+  public void setUp() throws Exception {
+    SyntheticChangeLogs synthetic = new SyntheticChangeLogs(changeSets, false);
+    service = new ChangeService(synthetic.getPackageName());
+    Random random = new Random(42);
+
+    changeLogs = new ArrayList<>(synthetic.getChangeLogClasses());
+    Collections.shuffle(changeLogs, random);
+
+    methods = new ArrayList<>();
+    for (Class<?> changeLog : synthetic.getChangeLogClasses()) {
+      for (Method method : changeLog.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(ChangeSet.class)) {
+          methods.add(method);
+        }
+      }
+    }
+    Collections.shuffle(methods, random);
+  }
+
+  @Benchmark
+  public List<Class<?>> sortChangeLogs() {
+    return service.sortChangeLogs(changeLogs);
+  }
+
+  @Benchmark
+  public List<Method> sortChangeSets() {
+    return service.sortChangeSets(methods);
+  }
+}
@@ -0,0 +1,252 @@
+package com.github.couchversion.benchmarks;
+
+import com.github.couchversion.CouchVersion;
+import com.github.couchversion.MigrationResult;
+import com.github.couchversion.dao.InMemoryCouchVersionDAO;
+import com.github.couchversion.listener.MigrationListener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts N CouchVersion runners at the same time against an {@link InMemoryCouchVersionDAO} with a simulated latency,
+ * like N pods of a deployment, and reports how long each of them takes to be ready:
+ * <ul>
+ * <li>cold: no changeset has been applied, one instance applies them while the others wait for the lock</li>
+ * <li>warm: the same instances restarted, everything is already applied</li>
+ * </ul>
+ * Usage:
+ * <pre>
+ * java -cp target/benchmarks.jar com.github.couchversion.benchmarks.StartupBenchmark \
+ *   --instances 1,4,16 --changeSets 10,100,1000 --latency 2 --jitter 1 --output target/startup.json
+ * </pre>
+ */
+public class StartupBenchmark {
+
+  private final List<Integer> instanceCounts;
+  private final List<Integer> changeSetCounts;
+  private final Duration latency;
+  private final Duration jitter;
+  private final long changeSetMillis;
+  private final Duration lockPollInterval;
+
+  public StartupBenchmark(Map<String, String> options) {
+    this.instanceCounts = integers(options.getOrDefault("instances", "1,4,16"));
+    this.changeSetCounts = integers(options.getOrDefault("changeSets", "10,100,1000"));
+    this.latency = Duration.ofMillis(Long.parseLong(options.getOrDefault("latency", "2")));
+    this.jitter = Duration.ofMillis(Long.parseLong(options.getOrDefault("jitter", "1")));
+    this.changeSetMillis = Long.parseLong(options.getOrDefault("changeSetMillis", "0"));
+    this.lockPollInterval = Duration.ofMillis(Long.parseLong(options.getOrDefault("lockPollInterval", "500")));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+    }
+
+    List<Scenario> scenarios = new StartupBenchmark(options).run();
+
+    System.out.println(String.format(Locale.ROOT, "%-6s %10s %10s %12s %12s %14s %14s %12s",
+        "phase", "instances", "changeSets", "p50 ready ms", "max ready ms", "lock wait ms", "state queries", "store ops"));
+    for (Scenario scenario : scenarios) {
+      System.out.println(scenario.summary());
+    }
+    if (options.containsKey("output")) {
+      Path output = Paths.get(options.get("output"));
+      writeJson(scenarios, output);
+      System.out.println("Results written to " + output.toAbsolutePath());
+    }
+  }
+
+  public List<Scenario> run() throws Exception {
+    List<Scenario> scenarios = new ArrayList<>();
+    for (int changeSets : changeSetCounts) {
+      SyntheticChangeLogs changeLogs = new SyntheticChangeLogs(changeSets, true, changeSetMillis);
+      for (int instances : instanceCounts) {
+        InMemoryCouchVersionDAO store = new InMemoryCouchVersionDAO().setLatency(latency).setLatencyJitter(jitter);
+        scenarios.add(start("cold", instances, changeSets, changeLogs, store));
+        scenarios.add(start("warm", instances, changeSets, changeLogs, store));
+      }
+    }
+    return scenarios;
+  }
+
+  private Scenario start(String phase, int instances, int changeSets, SyntheticChangeLogs changeLogs,
+      InMemoryCouchVersionDAO store) throws Exception {
+    long operationsBefore = store.getOperationCount();
+    ExecutorService executor = Executors.newFixedThreadPool(instances);
+    CountDownLatch ready = new CountDownLatch(instances);
+    CountDownLatch start = new CountDownLatch(1);
+    long[] startedAt = new long[1];
+
+    try {
+      List<Future<Instance>> results = new ArrayList<>();
+      for (int i = 0; i < instances; i++) {
+        String instanceId = "instance-" + i;
+        results.add(executor.submit(() -> {
+          Thread.currentThread().setContextClassLoader(changeLogs.getClassLoader());
+          Instance instance = new Instance(instanceId);
+          CouchVersion runner = new CouchVersion(null, null)
+              .setChangeLogsScanPackage(changeLogs.getPackageName())
+              .setLockPollInterval(lockPollInterval)
+              .addListener(instance);
+          runner.setDAO(store.forInstance(instanceId));
+
+          ready.countDown();
+          start.await();
+          runner.execute();
+          instance.readyMillis = System.currentTimeMillis() - startedAt[0];
+          return instance;
+        }));
+      }
+
+      ready.await();
+      startedAt[0] = System.currentTimeMillis();
+      start.countDown();
+
+      Scenario scenario = new Scenario(phase, instances, changeSets);
+      for (Future<Instance> result : results) {
+        scenario.instances.add(result.get());
+      }
+      scenario.storeOperations = store.getOperationCount() - operationsBefore;
+      return scenario;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Measures of a single runner, collected through its listener
+   */
+  public static class Instance implements MigrationListener {
+    private final String id;
+    private final AtomicInteger stateQueries = new AtomicInteger();
+    private final AtomicLong lockWaitMillis = new AtomicLong();
+    private volatile boolean acquiredLock;
+    private volatile int applied;
+    private volatile long readyMillis;
+
+    Instance(String id) {
+      this.id = id;
+    }
+
+    @Override
+    public void onStateQuery(int lookups, long durationMillis, boolean newChanges) {
+      stateQueries.incrementAndGet();
+    }
+
+    @Override
+    public void onLockWait(long waitMillis, boolean acquired) {
+      lockWaitMillis.addAndGet(waitMillis);
+      acquiredLock = acquired;
+    }
+
+    @Override
+    public void onMigrationEnd(MigrationResult result, Throwable failure) {
+      applied = result.getAppliedChangeSets().size();
+    }
+
+    private String toJson() {
+      return String.format(Locale.ROOT,
+          "{\"id\": \"%s\", \"readyMillis\": %d, \"lockWaitMillis\": %d, \"acquiredLock\": %b, \"stateQueries\": %d, \"applied\": %d}",
+          id, readyMillis, lockWaitMillis.get(), acquiredLock, stateQueries.get(), applied);
+    }
+  }
+
+  /**
+   * Simultaneous startup of a number of instances
+   */
+  public static class Scenario {
+    private final String phase;
+    private final int instanceCount;
+    private final int changeSets;
+    private final List<Instance> instances = new ArrayList<>();
+    private long storeOperations;
+
+    Scenario(String phase, int instanceCount, int changeSets) {
+      this.phase = phase;
+      this.instanceCount = instanceCount;
+      this.changeSets = changeSets;
+    }
+
+    private long readyPercentile(double percentile) {
+      List<Long> ready = new ArrayList<>();
+      for (Instance instance : instances) {
+        ready.add(instance.readyMillis);
+      }
+      Collections.sort(ready);
+      return ready.get((int) Math.ceil(percentile * ready.size()) - 1);
+    }
+
+    private long totalLockWaitMillis() {
+      long total = 0;
+      for (Instance instance : instances) {
+        total += instance.lockWaitMillis.get();
+      }
+      return total;
+    }
+
+    private int totalStateQueries() {
+      int total = 0;
+      for (Instance instance : instances) {
+        total += instance.stateQueries.get();
+      }
+      return total;
+    }
+
+    String summary() {
+      return String.format(Locale.ROOT, "%-6s %10d %10d %12d %12d %14d %14d %12d",
+          phase, instanceCount, changeSets, readyPercentile(0.5), readyPercentile(1),
+          totalLockWaitMillis(), totalStateQueries(), storeOperations);
+    }
+
+    private String toJson() {
+      StringBuilder json = new StringBuilder(String.format(Locale.ROOT,
+          "{\"phase\": \"%s\", \"instances\": %d, \"changeSets\": %d, \"p50ReadyMillis\": %d, \"maxReadyMillis\": %d, " +
+              "\"totalLockWaitMillis\": %d, \"stateQueries\": %d, \"storeOperations\": %d, \"perInstance\": [",
+          phase, instanceCount, changeSets, readyPercentile(0.5), readyPercentile(1),
+          totalLockWaitMillis(), totalStateQueries(), storeOperations));
+      for (int i = 0; i < instances.size(); i++) {
+        json.append(i == 0 ? "\n    " : ",\n    ").append(instances.get(i).toJson());
+      }
+      return json.append("]}").toString();
+    }
+  }
+
+  private static void writeJson(List<Scenario> scenarios, Path output) throws IOException {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < scenarios.size(); i++) {
+      json.append(i == 0 ? "\n  " : ",\n  ").append(scenarios.get(i).toJson());
+    }
+    json.append("\n]\n");
+    if (output.getParent() != null) {
+      Files.createDirectories(output.getParent());
+    }
+    Files.write(output, json.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static List<Integer> integers(String values) {
+    List<Integer> integers = new ArrayList<>();
+    for (String value : values.split(",")) {
+      integers.add(Integer.parseInt(value.trim()));
+    }
+    return integers;
+  }
+}
@@ -0,0 +1,120 @@
+package com.github.couchversion.benchmarks;
+
+import com.github.couchversion.processor.ChangeLogIndexProcessor;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Generates, compiles and loads a package of changelogs, so the benchmarks can scan packages of any size.
+ * Changelogs and changesets are declared in reverse order, the sort always has work to do.
+ */
+public final class SyntheticChangeLogs {
+
+  public static final int CHANGESETS_PER_CHANGELOG = 20;
+
+  private final String packageName;
+  private final long changeSetMillis;
+  private final URLClassLoader classLoader;
+  private final List<Class<?>> changeLogClasses = new ArrayList<>();
+
+  /**
+   * @param changeSets total number of changesets
+   * @param indexed true to run the changelog index processor on the generated sources
+   */
+  public SyntheticChangeLogs(int changeSets, boolean indexed) throws IOException, ClassNotFoundException {
+    this(changeSets, indexed, 0);
+  }
+
+  /**
+   * @param changeSets total number of changesets
+   * @param indexed true to run the changelog index processor on the generated sources
+   * @param changeSetMillis time spent by each changeset, to simulate its work
+   */
+  public SyntheticChangeLogs(int changeSets, boolean indexed, long changeSetMillis) throws IOException, ClassNotFoundException {
+    this.changeSetMillis = changeSetMillis;
+    this.packageName = "couchversion.synthetic.n" + changeSets + (indexed ? ".indexed" : ".scanned");
+    Path root = Files.createTempDirectory("couchversion-benchmarks");
+    Path sources = Files.createDirectories(root.resolve("src").resolve(packageName.replace('.', '/')));
+    Path classes = Files.createDirectories(root.resolve("classes"));
+
+    List<String> arguments = new ArrayList<>(Arrays.asList(
+        "-d", classes.toString(),
+        "-classpath", System.getProperty("java.class.path")));
+    if (indexed) {
+      arguments.addAll(Arrays.asList("-processor", ChangeLogIndexProcessor.class.getName()));
+    } else {
+      arguments.add("-proc:none");
+    }
+
+    List<String> classNames = new ArrayList<>();
+    int changeLogs = (changeSets + CHANGESETS_PER_CHANGELOG - 1) / CHANGESETS_PER_CHANGELOG;
+    for (int changeLog = 0; changeLog < changeLogs; changeLog++) {
+      String simpleName = String.format(Locale.ROOT, "ChangeLog%05d", changeLog);
+      int first = changeLog * CHANGESETS_PER_CHANGELOG;
+      int count = Math.min(CHANGESETS_PER_CHANGELOG, changeSets - first);
+      Path source = sources.resolve(simpleName + ".java");
+      Files.write(source, changeLogSource(simpleName, changeLogs - changeLog, first, count).getBytes(StandardCharsets.UTF_8));
+      arguments.add(source.toString());
+      classNames.add(packageName + "." + simpleName);
+    }
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new IllegalStateException("The benchmarks must be executed with a JDK, no Java compiler available");
+    }
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    if (compiler.run(null, null, errors, arguments.toArray(new String[0])) != 0) {
+      throw new IllegalStateException("Couldn't compile the synthetic changelogs:\n" + errors.toString("UTF-8"));
+    }
+
+    this.classLoader = new URLClassLoader(new URL[]{classes.toUri().toURL()}, SyntheticChangeLogs.class.getClassLoader());
+    for (String className : classNames) {
+      changeLogClasses.add(Class.forName(className, true, classLoader));
+    }
+  }
+
+  private String changeLogSource(String simpleName, int order, int first, int count) {
+    StringBuilder source = new StringBuilder()
+        .append("package ").append(packageName).append(";\n\n")
+        .append("import com.github.couchversion.changeset.ChangeLog;\n")
+        .append("import com.github.couchversion.changeset.ChangeSet;\n\n")
+        .append("@ChangeLog(order = \"").append(String.format(Locale.ROOT, "%05d", order)).append("\")\n")
+        .append("public class ").append(simpleName).append(" {\n");
+    for (int i = count - 1; i >= 0; i--) {
+      int id = first + i;
+      source.append("  @ChangeSet(id = \"change").append(id).append("\", author = \"benchmark\", order = \"")
+          .append(String.format(Locale.ROOT, "%03d", i)).append("\")\n")
+          .append("  public void change").append(id).append("() throws InterruptedException {")
+          .append(changeSetMillis > 0 ? " Thread.sleep(" + changeSetMillis + "L); " : "")
+          .append("}\n\n");
+    }
+    return source.append("}\n").toString();
+  }
+
+  public String getPackageName() {
+    return packageName;
+  }
+
+  /**
+   * @return class loader of the generated changelogs, to be used as context class loader while scanning
+   */
+  public ClassLoader getClassLoader() {
+    return classLoader;
+  }
+
+  public List<Class<?>> getChangeLogClasses() {
+    return changeLogClasses;
+  }
+}
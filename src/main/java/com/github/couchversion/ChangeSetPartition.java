@@ -0,0 +1,87 @@
+package com.github.couchversion;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Partition of the keyspace handled by one execution of a partitioned changeset
+ * (see {@link com.github.couchversion.changeset.ChangeSet#partitions()}). Keys are assigned to partitions by vBucket,
+ * so each partition is a group of vBuckets. Declare it as a changeset parameter and only process the keys it contains:
+ * <pre>
+ * &#64;ChangeSet(order = "001", id = "backfill", author = "testAuthor", partitions = 16)
+ * public void backfill(DocumentMigrator migrator, ChangeSetPartition partition) {
+ *   migrator.setPartition(partition).migrate("type = 'user'", user -&gt; user.put("status", "active"));
+ * }
+ * </pre>
+ * A partition might be applied again by another instance if the one applying it dies, so the work done for a key
+ * must be idempotent.
+ */
+public class ChangeSetPartition {
+
+  private static final int VBUCKETS = 1024;
+
+  private final String changeId;
+  private final int index;
+  private final int count;
+
+  public ChangeSetPartition(String changeId, int index, int count) {
+    this.changeId = changeId;
+    this.index = index;
+    this.count = count;
+  }
+
+  /**
+   * @return vBucket of the key on a cluster with the default 1024 vBuckets
+   */
+  public static int vBucket(String key) {
+    CRC32 crc = new CRC32();
+    crc.update(key.getBytes(StandardCharsets.UTF_8));
+    return (int) ((crc.getValue() >> 16) & 0x7fff) % VBUCKETS;
+  }
+
+  /**
+   * @return true if the key belongs to this partition
+   */
+  public boolean contains(String key) {
+    return count <= 1 || vBucket(key) % count == index;
+  }
+
+  /**
+   * N1QL condition selecting the keys of this partition, so the key scans only return them. It computes
+   * {@link #vBucket(String)} on the server with {@code HASHBYTES}, which needs Couchbase Server 7.1 or later.
+   *
+   * @param alias alias of the keyspace in the query, null if there is none
+   * @return condition on the document key, null if the keyspace isn't partitioned
+   */
+  public String keyCondition(String alias) {
+    if (count <= 1) {
+      return null;
+    }
+    String key = alias == null ? "META().id" : "META(" + alias + ").id";
+    return "FLOOR(HASHBYTES(" + key + ", {\"algorithm\": \"crc32\"}) / 65536) % 32768 % " + VBUCKETS +
+        " % " + count + " = " + index;
+  }
+
+  public String getChangeId() {
+    return changeId;
+  }
+
+  /**
+   * @return index of this partition, from 0 to count - 1
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * @return number of partitions of the changeset
+   */
+  public int getCount() {
+    return count;
+  }
+
+  @Override
+  public String toString() {
+    return "[Partition: changeId=" + changeId + ", " + (index + 1) + "/" + count + "]";
+  }
+}
@@ -0,0 +1,99 @@
+package com.github.couchversion;
+
+import com.couchbase.client.java.query.QueryMetaData;
+import com.couchbase.client.java.query.QueryMetrics;
+import com.couchbase.client.java.query.QueryResult;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mutation and result counts of the statements issued by a changeset, stored in its ChangeEntry once it is applied.
+ * Declare it as a changeset parameter and record the query results:
+ * <pre>
+ * &#64;ChangeSet(order = "001", id = "backfill", author = "testAuthor")
+ * public void backfill(Cluster cluster, ChangeSetStatistics statistics) {
+ *   statistics.record(cluster.query("UPDATE ...", queryOptions().metrics(true)));
+ * }
+ * </pre>
+ * A {@link QueryResult} returned by the changeset and the documents updated by a
+ * {@link com.github.couchversion.bulk.DocumentMigrator} parameter are recorded automatically.
+ * The server only returns the counts when the query is executed with the metrics option.
+ * The KV operations and the queries issued through these helpers are counted too, and published to the listeners.
+ */
+public class ChangeSetStatistics {
+
+  private final AtomicLong mutationCount = new AtomicLong();
+  private final AtomicLong resultCount = new AtomicLong();
+  private final AtomicLong kvOperations = new AtomicLong();
+  private final AtomicLong queryOperations = new AtomicLong();
+  private volatile boolean recorded;
+
+  public void record(QueryResult result) {
+    record(result.metaData());
+  }
+
+  /**
+   * Counts the query, and its mutation and result counts if the query has metrics
+   *
+   * @param metaData metadata of a blocking or reactive query result
+   */
+  public void record(QueryMetaData metaData) {
+    queryOperations.incrementAndGet();
+    metaData.metrics().ifPresent(this::record);
+  }
+
+  public void record(QueryMetrics metrics) {
+    add(metrics.mutationCount(), metrics.resultCount());
+  }
+
+  public void add(long mutations, long results) {
+    mutationCount.addAndGet(mutations);
+    resultCount.addAndGet(results);
+    recorded = true;
+  }
+
+  public void addKvOperations(long operations) {
+    kvOperations.addAndGet(operations);
+  }
+
+  public void addQueryOperations(long operations) {
+    queryOperations.addAndGet(operations);
+  }
+
+  /**
+   * @return true if at least one mutation or result count has been recorded
+   */
+  public boolean isRecorded() {
+    return recorded;
+  }
+
+  public long getMutationCount() {
+    return mutationCount.get();
+  }
+
+  public long getResultCount() {
+    return resultCount.get();
+  }
+
+  /**
+   * @return KV reads and writes issued by the changeset
+   */
+  public long getKvOperations() {
+    return kvOperations.get();
+  }
+
+  /**
+   * @return N1QL queries issued by the changeset
+   */
+  public long getQueryOperations() {
+    return queryOperations.get();
+  }
+
+  @Override
+  public String toString() {
+    return "[ChangeSetStatistics: mutationCount=" + mutationCount +
+        ", resultCount=" + resultCount +
+        ", kvOperations=" + kvOperations +
+        ", queryOperations=" + queryOperations + "]";
+  }
+}
@@ -0,0 +1,136 @@
+package com.github.couchversion;
+
+import com.github.couchversion.dao.ChangeCheckpoint;
+import com.github.couchversion.dao.CouchVersionDAO;
+
+import java.time.Duration;
+
+/**
+ * Progress of a long-running changeset. Declare it as a changeset parameter, record the progress while the work is
+ * done and, after a crash or a redeploy, the changeset is resumed from the last saved state instead of from the
+ * beginning:
+ * <pre>
+ * &#64;ChangeSet(order = "001", id = "backfill", author = "testAuthor")
+ * public void backfill(Cluster cluster, Checkpoint checkpoint) {
+ *   String lastKey = checkpoint.getLastKey(); // null on the first run
+ *   ...
+ *   checkpoint.update(key, processedInThisBatch);
+ * }
+ * </pre>
+ * The progress is saved at most once per checkpoint interval (see {@link CouchVersion#setCheckpointInterval(Duration)}),
+ * and whenever the changeset fails. It is removed when the changeset is applied.
+ */
+public class Checkpoint {
+
+  private final CouchVersionDAO dao;
+  private final String changeId;
+  private final long intervalMillis;
+  private final boolean resumed;
+
+  private String cursor;
+  private String lastKey;
+  private long processed;
+  private long savedAt = System.currentTimeMillis();
+  private boolean dirty;
+
+  Checkpoint(CouchVersionDAO dao, String changeId, Duration interval) {
+    this.dao = dao;
+    this.changeId = changeId;
+    this.intervalMillis = interval.toMillis();
+
+    ChangeCheckpoint saved = dao.getCheckpoint(changeId);
+    this.resumed = saved != null;
+    if (saved != null) {
+      this.cursor = saved.getCursor();
+      this.lastKey = saved.getLastKey();
+      this.processed = saved.getProcessed() == null ? 0 : saved.getProcessed();
+    }
+  }
+
+  /**
+   * @return true if a previous run of the changeset saved some progress
+   */
+  public boolean isResumed() {
+    return resumed;
+  }
+
+  public String getChangeId() {
+    return changeId;
+  }
+
+  /**
+   * @return opaque position stored by the changeset, null if none
+   */
+  public synchronized String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * @return last key completely processed, null if none
+   */
+  public synchronized String getLastKey() {
+    return lastKey;
+  }
+
+  /**
+   * @return number of items processed by all the runs of the changeset
+   */
+  public synchronized long getProcessed() {
+    return processed;
+  }
+
+  /**
+   * Records the progress, everything up to lastKey must have been processed
+   *
+   * @param lastKey last key completely processed
+   * @param processedDelta number of items processed since the previous update
+   */
+  public synchronized void update(String lastKey, long processedDelta) {
+    this.lastKey = lastKey;
+    this.processed += processedDelta;
+    changed();
+  }
+
+  /**
+   * @param cursor opaque position, e.g. a date or a page number
+   */
+  public synchronized void setCursor(String cursor) {
+    this.cursor = cursor;
+    changed();
+  }
+
+  private void changed() {
+    dirty = true;
+    if (System.currentTimeMillis() - savedAt >= intervalMillis) {
+      save();
+    }
+  }
+
+  /**
+   * Saves the progress now, regardless of the checkpoint interval
+   */
+  public synchronized void save() {
+    if (!dirty) {
+      return;
+    }
+    dao.saveCheckpoint(new ChangeCheckpoint(changeId, cursor, lastKey, processed, null, null));
+    savedAt = System.currentTimeMillis();
+    dirty = false;
+  }
+
+  /**
+   * Called once the changeset is applied
+   */
+  synchronized void clear() {
+    dao.removeCheckpoint(changeId);
+    dirty = false;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "[Checkpoint: changeId=" + changeId +
+        ", processed=" + processed +
+        ", lastKey=" + lastKey +
+        ", resumed=" + resumed + "]";
+  }
+}
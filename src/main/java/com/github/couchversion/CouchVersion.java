@@ -2,23 +2,67 @@ package com.github.couchversion;
 
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveBucket;
+import com.couchbase.client.java.ReactiveCluster;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.ReactiveScope;
+import com.couchbase.client.java.Scope;
+import com.couchbase.client.java.query.QueryResult;
+import com.github.couchversion.bulk.BatchedQueryExecutor;
+import com.github.couchversion.bulk.DeferredIndexes;
+import com.github.couchversion.bulk.DocumentMigrator;
+import com.github.couchversion.bulk.MigrationThrottle;
+import com.github.couchversion.changeset.BatchedQuery;
 import com.github.couchversion.changeset.ChangeEntry;
+import com.github.couchversion.changeset.ChangeSet;
+import com.github.couchversion.changeset.MigrationPlan;
+import com.github.couchversion.changeset.PlannedChangeSet;
+import com.github.couchversion.dao.ChangeCheckpoint;
+import com.github.couchversion.dao.CouchbaseCouchVersionDAO;
 import com.github.couchversion.dao.CouchVersionDAO;
+import com.github.couchversion.dao.InMemoryCouchVersionDAO;
+import com.github.couchversion.dao.LockHeartbeat;
+import com.github.couchversion.dao.PartitionedJob;
 import com.github.couchversion.exception.CouchVersionChangeSetVersionException;
 import com.github.couchversion.exception.CouchVersionConfigurationVersionException;
 import com.github.couchversion.exception.CouchVersionException;
+import com.github.couchversion.invoke.ChangeSetContext;
+import com.github.couchversion.invoke.ChangeSetInvoker;
+import com.github.couchversion.invoke.ParameterResolver;
+import com.github.couchversion.invoke.ParameterResolverRegistry;
+import com.github.couchversion.invoke.SpringBeanParameterResolver;
+import com.github.couchversion.listener.MigrationListener;
+import com.github.couchversion.retry.RetryPolicy;
 import com.github.couchversion.utils.ChangeService;
+import com.github.couchversion.utils.ChangeSetGraph;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.core.env.Environment;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static org.springframework.util.StringUtils.hasText;
 
@@ -38,6 +82,28 @@ public class CouchVersion implements InitializingBean {
   private Cluster cluster;
   private ApplicationContext context;
   private Environment springEnvironment;
+  private Duration lockLeaseTime = Duration.ofSeconds(30);
+
+  /**
+   * Settings of the state store, null when not set, see {@link #configureDAO()}
+   */
+  private Integer stateFetchConcurrency;
+  private String metadataScope;
+  private String metadataCollection;
+  private Boolean legacyMetadataCleanup;
+  private Boolean manifestStorage;
+  private Duration lockWaitTimeout = Duration.ofMinutes(5);
+  private Duration lockPollInterval = Duration.ofMillis(500);
+  private boolean async = false;
+  private int parallelism = 1;
+  private final List<ParameterResolver> parameterResolvers = new ArrayList<>();
+  private final List<MigrationListener> listeners = new CopyOnWriteArrayList<>();
+  private int reactiveConcurrency = 16;
+  private Duration reactiveTimeout = Duration.ofMinutes(30);
+  private Duration checkpointInterval = Duration.ofSeconds(10);
+  private MigrationThrottle migrationThrottle = MigrationThrottle.unlimited();
+  private Duration indexBuildTimeout = Duration.ofHours(1);
+  private volatile CompletableFuture<MigrationResult> migrationFuture;
 
 
   public CouchVersion(ApplicationContext context) {
@@ -48,27 +114,27 @@ public class CouchVersion implements InitializingBean {
             springEnvironment.getProperty("spring.couchbase.password"));
 
     this.bucket = this.cluster.bucket(springEnvironment.getProperty("spring.couchbase.bucket"));
-    this.dao = new CouchVersionDAO(cluster, bucket);
+    this.dao = new CouchbaseCouchVersionDAO(cluster, bucket);
   }
 
 
   public CouchVersion(Cluster cluster, Bucket bucket) {
     this.cluster = cluster;
     this.bucket = bucket;
-    this.dao = new CouchVersionDAO(cluster, bucket);
+    this.dao = new CouchbaseCouchVersionDAO(cluster, bucket);
   }
 
   public CouchVersion(String connectionString, String bucketName, String user, String password) {
     this.cluster = Cluster.connect(connectionString, user, password);
     this.bucket = this.cluster.bucket(bucketName);
-    this.dao = new CouchVersionDAO(cluster, bucket);
+    this.dao = new CouchbaseCouchVersionDAO(cluster, bucket);
   }
 
   public CouchVersion(ApplicationContext context, String connectionString, String bucketName, String user, String password) {
     setApplicationContext(context);
     this.cluster = Cluster.connect(connectionString, user, password);
     this.bucket = this.cluster.bucket(bucketName);
-    this.dao = new CouchVersionDAO(cluster, bucket);
+    this.dao = new CouchbaseCouchVersionDAO(cluster, bucket);
   }
 
   public void setApplicationContext(ApplicationContext context) {
@@ -83,7 +149,11 @@ public class CouchVersion implements InitializingBean {
    */
   @Override
   public void afterPropertiesSet() throws Exception {
+    if (async) {
+      executeAsync();
+    } else {
       execute();
+    }
   }
 
   /**
@@ -92,71 +162,231 @@ public class CouchVersion implements InitializingBean {
    * @throws InterruptedException Thrown when the application failed to sleep while waiting for the lock
    */
   public void execute() throws CouchVersionException, InterruptedException {
+    CompletableFuture<MigrationResult> future = new CompletableFuture<>();
+    migrationFuture = future;
+    try {
+      future.complete(run());
+    } catch (CouchVersionException | InterruptedException | RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Executes the migration in background, the Spring context (or your application) can keep starting up meanwhile.
+   * Use {@link CouchVersionReadiness} or the returned future to wait for the migration to be completed.
+   *
+   * @return future completed with the result of the migration, or with the exception which made it fail
+   */
+  public CompletableFuture<MigrationResult> executeAsync() {
+    CompletableFuture<MigrationResult> future = new CompletableFuture<>();
+    migrationFuture = future;
+
+    Thread thread = new Thread(() -> {
+      try {
+        future.complete(run());
+      } catch (Throwable e) {
+        logger.error("CouchVersion - the migration has failed", e);
+        future.completeExceptionally(e);
+      }
+    }, "couchversion-migration");
+    thread.setDaemon(true);
+    thread.start();
+    return future;
+  }
+
+  /**
+   * @return future of the current (or last) execution, null if CouchVersion has not been executed yet
+   */
+  public CompletableFuture<MigrationResult> getMigrationFuture() {
+    return migrationFuture;
+  }
+
+  private synchronized MigrationResult run() throws CouchVersionException, InterruptedException {
+    long start = System.currentTimeMillis();
+    result = new MigrationResult();
+
     if (!isEnabled()) {
       logger.info("CouchVersion is disabled. Exiting.");
-      return;
+      return result;
     }
 
-    validateConfig();
-
-    if(hasNewChanges()) {
-      logger.info("CouchVersion is starting the data migration sequence..");
-      executeMigrationWithLock();
-    } else {
-      logger.info("CouchVersion - running Changesets with 'always'");
-      executeRunAlways();
+    try {
+      migrate();
+    } catch (CouchVersionException | InterruptedException | RuntimeException e) {
+      result.setDurationMillis(System.currentTimeMillis() - start);
+      MigrationResult failed = result;
+      fire(listener -> listener.onMigrationEnd(failed, e));
+      throw e;
     }
-    logger.info("CouchVersion has finished its job.");
+    result.setDurationMillis(System.currentTimeMillis() - start);
+    logger.info("CouchVersion has finished its job. " + result);
+    MigrationResult completed = result;
+    fire(listener -> listener.onMigrationEnd(completed, null));
+    return result;
   }
 
-  private void executeMigrationWithLock() throws CouchVersionException, InterruptedException  {
-    //up to ~5 minutes waiting for the lock
-    int timeout = 120000;
-    int waitingTime = 10000;
-    int tries = 0;
-
-    while (waitingTime < timeout) {
+  private void migrate() throws CouchVersionException, InterruptedException {
+    validateConfig();
 
-      if(hasNewChanges()) {
+    //the stored fingerprint is fetched while the changelogs are scanned
+    CompletableFuture<String> storedFingerprint = CompletableFuture.supplyAsync(dao::getFingerprint);
+    long scanStart = System.currentTimeMillis();
+    MigrationPlan plan = new ChangeService(changeLogsScanPackage, springEnvironment).createMigrationPlan();
+    long scanMillis = System.currentTimeMillis() - scanStart;
+    fire(listener -> listener.onScanComplete(plan, scanMillis));
+    changeLogInstances = new HashMap<>();
+    invokers = new ConcurrentHashMap<>();
+    parameterResolverRegistry = createParameterResolverRegistry();
+    deferredIndexes = new DeferredIndexes(cluster, bucket).setBuildTimeout(indexBuildTimeout).setDAO(dao);
+
+    try {
+      if (plan.getFingerprint().equals(join(storedFingerprint))) {
+        logger.info("CouchVersion - no new changes found, the changesets match the last migration");
+        logger.info("CouchVersion - running Changesets with 'always'");
+        executeRunAlways(plan);
+      } else if (hasNewChanges(plan)) {
+        logger.info("CouchVersion is starting the data migration sequence..");
+        executeMigrationWithLock(plan);
+      } else if (dao.getDeferredIndexBuild() != null) {
+        logger.info("CouchVersion - building the indexes left deferred by a previous migration");
+        executeMigrationWithLock(plan);
+      } else {
+        dao.saveFingerprint(plan.getFingerprint());
+        logger.info("CouchVersion - running Changesets with 'always'");
+        executeRunAlways(plan);
+      }
+      // indexes registered by runAlways changesets
+      deferredIndexes.build();
+    } finally {
+      changeLogInstances = null;
+      invokers = null;
+      deferredIndexes = null;
+    }
+  }
 
-        long timestamp = new Date().getTime();
-        if(!dao.isLocked() && dao.getLock(timestamp)) {
-          logger.info("CouchVersion - Lock acquired.");
+  private void fire(Consumer<MigrationListener> event) {
+    for (MigrationListener listener : listeners) {
+      try {
+        event.accept(listener);
+      } catch (RuntimeException e) {
+        logger.warn("CouchVersion - listener " + listener.getClass().getName() + " has failed", e);
+      }
+    }
+  }
 
-          try{
-            executeMigration();
-            break;
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
 
-          } finally {
-            dao.releaseLock(timestamp);
-            logger.info("CouchVersion - Lock released.");
+  private void executeMigrationWithLock(MigrationPlan plan) throws CouchVersionException, InterruptedException  {
+    long waitStart = System.currentTimeMillis();
+    long deadline = waitStart + lockWaitTimeout.toMillis();
+
+    while (true) {
+
+      long timestamp = new Date().getTime();
+      if(!dao.isLocked() && dao.getLock(timestamp)) {
+        logger.info("CouchVersion - Lock acquired after " + (timestamp - waitStart) + "ms.");
+        result.setLockWaitMillis(timestamp - waitStart);
+        fire(listener -> listener.onLockWait(timestamp - waitStart, true));
+
+        try (LockHeartbeat heartbeat = new LockHeartbeat(dao, lockLeaseTime).start()) {
+          dao.migrateMetadata(plan.getChangeEntryIds());
+          // indexes left deferred by a migration which stopped before their build
+          deferredIndexes.restorePending();
+          //another instance might have finished the migration before we got the lock
+          if (hasNewChanges(plan)) {
+            boolean complete;
+            try {
+              complete = executeMigration(plan, heartbeat);
+              deferredIndexes.build();
+            } catch (CouchVersionException | RuntimeException e) {
+              buildIndexesAfterFailure(e);
+              throw e;
+            }
+            if (complete) {
+              dao.saveFingerprint(plan.getFingerprint());
+            }
+          } else {
+            executeRunAlways(plan);
+            deferredIndexes.build();
+            dao.saveFingerprint(plan.getFingerprint());
           }
+          return;
 
-        } else {
-          logger.info("CouchVersion - Waiting "+waitingTime+"ms to get CouchVersion Lock.'");
-          Thread.sleep(waitingTime);
-          waitingTime =  (int) (1.5 * waitingTime) ;
+        } finally {
+          dao.releaseLock(timestamp);
+          logger.info("CouchVersion - Lock released.");
         }
+      }
 
-      } else {
-        logger.info("CouchVersion - Looks like the migration ran in another instance.'");
+      logger.info("CouchVersion - Waiting for the CouchVersion Lock to be released.");
+      deadline = awaitLockRelease(deadline, plan);
+
+      //the fingerprint is written by the instance which completed the migration
+      if (plan.getFingerprint().equals(dao.getFingerprint()) || !hasNewChanges(plan)) {
+        result.setLockWaitMillis(System.currentTimeMillis() - waitStart);
+        fire(listener -> listener.onLockWait(result.getLockWaitMillis(), false));
+        logger.info("CouchVersion - Looks like the migration ran in another instance, waited "
+            + result.getLockWaitMillis() + "ms.");
         logger.info("CouchVersion - running Changesets with 'always'");
-        executeRunAlways();
-        break;
+        executeRunAlways(plan);
+        return;
       }
     }
+  }
 
-    if(waitingTime > timeout) {
-      throw new CouchVersionException("Couldn't get the lock. Are there any other migrations running? " +
-              "If not, delete document with id 'couchversion_lock' ");
+  /**
+   * The changesets applied before the failure won't run again, so the indexes they registered are built anyway
+   */
+  private void buildIndexesAfterFailure(Exception failure) {
+    try {
+      deferredIndexes.build();
+    } catch (CouchVersionException | RuntimeException e) {
+      failure.addSuppressed(e);
     }
+  }
 
+  /**
+   * Polls the lock document with a jittered interval, so waiting instances resume shortly after the lock
+   * is released (or its lease expires) without all hitting the cluster at the same time.
+   * In the meantime they apply the partitions of the partitioned changeset run by the lock holder.
+   *
+   * @return deadline, extended if this instance helped the lock holder
+   */
+  private long awaitLockRelease(long deadline, MigrationPlan plan) throws CouchVersionException, InterruptedException {
+    long interval = lockPollInterval.toMillis();
+    while (dao.isLocked()) {
+      if (plan.hasPartitionedChangeSets() && joinPartitionedChangeSet(plan)) {
+        //the lock holder is making progress with our help, keep waiting
+        deadline = Math.max(deadline, System.currentTimeMillis() + lockWaitTimeout.toMillis());
+      }
+      if (System.currentTimeMillis() >= deadline) {
+        throw new CouchVersionException("Couldn't get the lock. Are there any other migrations running? " +
+            "If not, delete document with id 'couchversion_lock' ");
+      }
+      long jitter = ThreadLocalRandom.current().nextLong(interval / 2 + 1);
+      Thread.sleep(interval - interval / 4 + jitter);
+    }
+    return deadline;
   }
 
 
-  private boolean hasNewChanges() throws CouchVersionException {
+  private boolean hasNewChanges(MigrationPlan plan) throws CouchVersionException {
     logger.info("CouchVersion - checking for new schema changes");
-    if( dao.hasNewChanges(getChangeEntryIds()) ) {
+    long start = System.currentTimeMillis();
+    boolean newChanges = dao.hasNewChanges(plan.getChangeEntryIds());
+    long duration = System.currentTimeMillis() - start;
+    fire(listener -> listener.onStateQuery(plan.getChangeEntryIds().size(), duration, newChanges));
+    if( newChanges ) {
       logger.info("CouchVersion - new schema changes found");
       return true;
     } else {
@@ -165,205 +395,416 @@ public class CouchVersion implements InitializingBean {
     }
   }
 
-  private List<String> changeEntryIdsCache;
-
-  private List<String> getChangeEntryIds() throws CouchVersionException {
-
-
-    if(changeEntryIdsCache == null ) {
+  /**
+   * Result of the current execution
+   */
+  private MigrationResult result;
 
-      changeEntryIdsCache = new ArrayList<>();
-      ChangeService service = new ChangeService(changeLogsScanPackage, springEnvironment);
+  /**
+   * Changelogs are instantiated (and autowired) at most once per execution, the instance is shared by all passes.
+   * The plan only reads annotations, so a changelog whose changesets are all applied is never instantiated.
+   */
+  private Map<Class<?>, Object> changeLogInstances;
 
-      for (Class<?> changelogClass : service.fetchChangeLogs()) {
+  /**
+   * Guards the changelog instances, the runner monitor is held by the calling thread for the whole execution
+   */
+  private final Object changeLogInstancesLock = new Object();
 
-        Object changelogInstance = null;
-        try {
-          changelogInstance = changelogClass.getConstructor().newInstance();
+  private Object getChangeLogInstance(Class<?> changelogClass) throws CouchVersionException {
+    synchronized (changeLogInstancesLock) {
+      return instantiateChangeLog(changelogClass);
+    }
+  }
 
-          if (context != null) {
-            context.getAutowireCapableBeanFactory().autowireBean(changelogInstance);
-          }
-          List<Method> changesetMethods = service.fetchChangeSets(changelogInstance.getClass());
-          for (Method changesetMethod : changesetMethods) {
-            ChangeEntry changeEntry = service.createChangeEntry(changesetMethod);
-            if (!service.isRunAlwaysChangeSet(changesetMethod)) {
-              changeEntryIdsCache.add(changeEntry._getId());
-            }
-          }
+  private Object instantiateChangeLog(Class<?> changelogClass) throws CouchVersionException {
+    Object changelogInstance = changeLogInstances.get(changelogClass);
+    if (changelogInstance != null) {
+      return changelogInstance;
+    }
 
-        } catch (NoSuchMethodException e) {
-          throw new CouchVersionException(e.getMessage(), e);
-        } catch (IllegalAccessException e) {
-          throw new CouchVersionException(e.getMessage(), e);
-        } catch (InvocationTargetException e) {
-          Throwable targetException = e.getTargetException();
-          throw new CouchVersionException(targetException.getMessage(), e);
-        } catch (InstantiationException e) {
-          throw new CouchVersionException(e.getMessage(), e);
-        }
+    try {
+      changelogInstance = changelogClass.getConstructor().newInstance();
 
+      if (context != null) {
+        context.getAutowireCapableBeanFactory().autowireBean(changelogInstance);
       }
+    } catch (NoSuchMethodException e) {
+      throw new CouchVersionException(e.getMessage(), e);
+    } catch (IllegalAccessException e) {
+      throw new CouchVersionException(e.getMessage(), e);
+    } catch (InvocationTargetException e) {
+      Throwable targetException = e.getTargetException();
+      throw new CouchVersionException(targetException.getMessage(), e);
+    } catch (InstantiationException e) {
+      throw new CouchVersionException(e.getMessage(), e);
     }
 
-    return changeEntryIdsCache;
+    changeLogInstances.put(changelogClass, changelogInstance);
+    result.instantiated(changelogClass);
+    logger.debug("CouchVersion - instantiated changelog " + changelogClass.getName());
+    return changelogInstance;
   }
 
 
+  private void executeRunAlways(MigrationPlan plan) throws CouchVersionException {
 
-  private void executeRunAlways() throws CouchVersionException {
-
-    ChangeService service = new ChangeService(changeLogsScanPackage, springEnvironment);
+    if (!plan.hasRunAlwaysChangeSets()) {
+      return;
+    }
 
-    for (Class<?> changelogClass : service.fetchChangeLogs()) {
+    for (PlannedChangeSet changeSet : plan.getChangeSets()) {
+      if (!changeSet.isRunAlways()) {
+        continue;
+      }
+      ChangeEntry changeEntry = changeSet.createChangeEntry();
 
-      Object changelogInstance = null;
       try {
-        changelogInstance = changelogClass.getConstructor().newInstance();
+        executeMethod(changeSet.getMethod(), getChangeLogInstance(changeSet.getChangeLogClass()), changeEntry);
+        result.reapplied(changeSet.getChangeId());
+        logger.info(changeEntry + " reapplied");
+      } catch (CouchVersionChangeSetVersionException e) {
+        result.failed(changeSet.getChangeId());
+        logger.error(e.getMessage());
+      }
+    }
+  }
 
-        if (context != null) {
-          context.getAutowireCapableBeanFactory().autowireBean(changelogInstance);
-        }
 
-        List<Method> changesetMethods = service.fetchChangeSets(changelogInstance.getClass());
+  /**
+   * @return true if all changesets have been applied
+   */
+  private boolean executeMigration(MigrationPlan plan, LockHeartbeat heartbeat) throws CouchVersionException {
+    ChangeSetGraph graph = new ChangeSetGraph(plan.getChangeSets());
+    return graph.execute(parallelism, changeSet -> applyChangeSet(changeSet, heartbeat));
+  }
 
-        for (Method changesetMethod : changesetMethods) {
-          ChangeEntry changeEntry = service.createChangeEntry(changesetMethod);
+  /**
+   * @return false if the changeset has been skipped because of a wrong definition
+   */
+  private boolean applyChangeSet(PlannedChangeSet changeSet, LockHeartbeat heartbeat) throws CouchVersionException {
+    if (heartbeat.isLeaseLost()) {
+      throw new CouchVersionException("CouchVersion lock lease was lost, another instance might be running the migration. " +
+          "Stopping before changeSet " + changeSet.getChangeId());
+    }
+    ChangeEntry changeEntry = changeSet.createChangeEntry();
+
+    try {
+      boolean newChange = dao.isNewChange(changeEntry);
+      if (newChange && changeSet.isPartitioned()) {
+        applyPartitioned(changeSet, getChangeLogInstance(changeSet.getChangeLogClass()), changeEntry);
+        dao.save(changeEntry);
+        dao.removePartitions(changeSet.getChangeId(), changeSet.getPartitions());
+        result.applied(changeSet.getChangeId());
+        logger.info(changeEntry + " applied");
+
+      } else if (newChange) {
+        Object changelogInstance = getChangeLogInstance(changeSet.getChangeLogClass());
+        if(!changeSet.isRestartInterrupted()){
+          dao.save(changeEntry);
+        }
+        executeMethod(changeSet.getMethod(), changelogInstance, changeEntry);
+        if(changeSet.isRestartInterrupted()){
+          dao.save(changeEntry);
+        } else {
+          dao.update(changeEntry);
+        }
+        result.applied(changeSet.getChangeId());
+        logger.info(changeEntry + " applied");
 
-          try {
-            if (service.isRunAlwaysChangeSet(changesetMethod)) {
-              executeMethod(changesetMethod, changelogInstance, changeEntry);
-              logger.info(changeEntry + " reapplied");
+      } else if (changeSet.isRunAlways()) {
+        executeMethod(changeSet.getMethod(), getChangeLogInstance(changeSet.getChangeLogClass()), changeEntry);
+        result.reapplied(changeSet.getChangeId());
+        logger.info(changeEntry + " reapplied");
 
-            }
-          } catch (CouchVersionChangeSetVersionException e) {
-            logger.error(e.getMessage());
-          }
-        }
-      } catch (NoSuchMethodException e) {
-        throw new CouchVersionException(e.getMessage(), e);
-      } catch (IllegalAccessException e) {
-        throw new CouchVersionException(e.getMessage(), e);
-      } catch (InvocationTargetException e) {
-        Throwable targetException = e.getTargetException();
-        throw new CouchVersionException(targetException.getMessage(), e);
-      } catch (InstantiationException e) {
-        throw new CouchVersionException(e.getMessage(), e);
+      } else {
+        logger.info(changeEntry + " passed over");
       }
+      return true;
+    } catch (CouchVersionChangeSetVersionException e) {
+      logger.error(e.getMessage());
+      result.failed(changeSet.getChangeId());
+      return false;
     }
   }
 
+  /**
+   * Applies the partitions of the changeset together with the instances waiting for the lock, and returns once
+   * all of them are done
+   */
+  private void applyPartitioned(PlannedChangeSet changeSet, Object changelogInstance, ChangeEntry changeEntry)
+      throws CouchVersionException {
+    dao.publishPartitionedJob(changeSet.getChangeId(), changeSet.getPartitions());
+    fire(listener -> listener.onChangeSetStart(changeSet.getChangeId()));
+    long start = System.currentTimeMillis();
+    ChangeSetStatistics statistics = new ChangeSetStatistics();
+    AtomicInteger attempts = new AtomicInteger();
+    Throwable failure = null;
+    try {
+      int applied = new PartitionCoordinator(dao, lockLeaseTime, lockPollInterval).applyAll(
+          changeSet.getChangeId(), changeSet.getPartitions(),
+          partition -> attempts.addAndGet(executeMethod(changeSet.getMethod(), changelogInstance, changeEntry, partition, statistics)));
+      logger.info(changeEntry + " " + applied + " of " + changeSet.getPartitions() + " partitions applied by this instance");
+      // only the partitions applied by this instance are counted
+      recordExecution(changeEntry, start, attempts.get(), statistics);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = e;
+      throw new CouchVersionException("Interrupted while applying the partitions of changeSet " + changeSet.getChangeId(), e);
+    } catch (CouchVersionException | RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      dao.removePartitionedJob();
+      changeSetEnd(changeSet.getChangeId(), start, statistics, failure);
+    }
+  }
 
-  private void executeMigration() throws CouchVersionException {
+  /**
+   * Applies the available partitions of the partitioned changeset announced by the lock holder, if any
+   *
+   * @return true if this instance applied at least one partition
+   */
+  private boolean joinPartitionedChangeSet(MigrationPlan plan) {
+    PartitionedJob job = dao.getPartitionedJob();
+    PlannedChangeSet changeSet = job == null ? null : plan.getChangeSet(job.getChangeId());
+    if (changeSet == null || !changeSet.isPartitioned()) {
+      return false;
+    }
 
-    ChangeService service = new ChangeService(changeLogsScanPackage, springEnvironment);
+    try {
+      ChangeEntry changeEntry = changeSet.createChangeEntry();
+      Object changelogInstance = getChangeLogInstance(changeSet.getChangeLogClass());
+      int applied = new PartitionCoordinator(dao, lockLeaseTime, lockPollInterval).applyAvailable(
+          changeSet.getChangeId(), changeSet.getPartitions(),
+          partition -> executeMethod(changeSet.getMethod(), changelogInstance, changeEntry, partition, new ChangeSetStatistics()));
+      if (applied > 0) {
+        logger.info(changeEntry + " " + applied + " partitions applied while waiting for the lock");
+      }
+      return applied > 0;
+    } catch (CouchVersionException | RuntimeException e) {
+      // the partition has been released, the lock holder or another instance applies it again
+      logger.error("CouchVersion - couldn't apply a partition of " + changeSet.getChangeId() + ", waiting for the lock", e);
+      return false;
+    }
+  }
 
-    for (Class<?> changelogClass : service.fetchChangeLogs()) {
+  private void executeMethod(Method changesetMethod, Object changelogInstance, ChangeEntry entry) throws CouchVersionException {
+    fire(listener -> listener.onChangeSetStart(entry.getChangeId()));
+    long start = System.currentTimeMillis();
+    ChangeSetStatistics statistics = new ChangeSetStatistics();
+    int attempts;
+    try {
+      attempts = executeMethod(changesetMethod, changelogInstance, entry, null, statistics);
+    } catch (CouchVersionException | RuntimeException e) {
+      changeSetEnd(entry.getChangeId(), start, statistics, e);
+      throw e;
+    }
+    recordExecution(entry, start, attempts, statistics);
+    changeSetEnd(entry.getChangeId(), start, statistics, null);
+  }
 
-      Object changelogInstance = null;
-      try {
-        changelogInstance = changelogClass.getConstructor().newInstance();
+  private void recordExecution(ChangeEntry entry, long start, int attempts, ChangeSetStatistics statistics) {
+    entry.setExecution(start, System.currentTimeMillis(), attempts, dao.getInstanceId());
+    if (statistics.isRecorded()) {
+      entry.setQueryStatistics(statistics.getMutationCount(), statistics.getResultCount());
+    }
+  }
 
-        if (context != null) {
-          context.getAutowireCapableBeanFactory().autowireBean(changelogInstance);
-        }
+  private void changeSetEnd(String changeId, long start, ChangeSetStatistics statistics, Throwable failure) {
+    long duration = System.currentTimeMillis() - start;
+    fire(listener -> listener.onChangeSetOperations(changeId, statistics));
+    fire(listener -> listener.onChangeSetEnd(changeId, duration, failure));
+  }
 
-        List<Method> changesetMethods = service.fetchChangeSets(changelogInstance.getClass());
+  /**
+   * @return number of invocations of the changeset method
+   */
+  private int executeMethod(Method changesetMethod, Object changelogInstance, ChangeEntry entry, ChangeSetPartition partition,
+      ChangeSetStatistics statistics) throws CouchVersionException {
+    ChangeSetInvoker invoker = getInvoker(changesetMethod);
+    String checkpointId = partition == null ? entry.getChangeId() : entry.getChangeId() + "::" + partition.getIndex();
+    Checkpoint checkpoint = invoker.hasParameter(Checkpoint.class) ?
+        new Checkpoint(dao, checkpointId, checkpointInterval) : null;
+    if (partition == null && invoker.hasParameter(ChangeSetPartition.class)) {
+      partition = new ChangeSetPartition(entry.getChangeId(), 0, 1);
+    }
+    ChangeSetContext context = new ChangeSetContext(entry.getChangeId(), checkpoint, partition, statistics);
+
+    int attempts;
+    try {
+      attempts = invokeWithRetries(invoker, changelogInstance, entry, context);
+    } catch (CouchVersionException | RuntimeException e) {
+      if (checkpoint != null) {
+        checkpoint.save();
+      }
+      throw e;
+    }
 
-        for (Method changesetMethod : changesetMethods) {
-          ChangeEntry changeEntry = service.createChangeEntry(changesetMethod);
+    if (checkpoint != null) {
+      checkpoint.clear();
+    }
+    return attempts;
+  }
 
-          try {
-            if (dao.isNewChange(changeEntry)) {
-              if(!service.isRestartInterrupted(changesetMethod)){
-                dao.save(changeEntry);
-              }
-              executeMethod(changesetMethod, changelogInstance, changeEntry);
-              if(service.isRestartInterrupted(changesetMethod)){
-                dao.save(changeEntry);
-              }
-              logger.info(changeEntry + " applied");
+  /**
+   * Executes the changeset again after a retryable failure, waiting for the backoff of its {@link RetryPolicy}
+   *
+   * @return number of invocations, including the failed ones
+   */
+  private int invokeWithRetries(ChangeSetInvoker invoker, Object changelogInstance, ChangeEntry entry,
+      ChangeSetContext context) throws CouchVersionException {
+    RetryPolicy policy = RetryPolicy.of(invoker.getMethod().getAnnotation(ChangeSet.class));
+    long start = System.currentTimeMillis();
 
-            } else if (service.isRunAlwaysChangeSet(changesetMethod)) {
-              executeMethod(changesetMethod, changelogInstance, changeEntry);
-              logger.info(changeEntry + " reapplied");
+    for (int attempt = 1; ; attempt++) {
+      try {
+        Object returned = invoke(invoker, changelogInstance, context);
+        BatchedQuery batchedQuery = invoker.getMethod().getAnnotation(BatchedQuery.class);
+        if (batchedQuery != null) {
+          executeBatchedQuery(batchedQuery, returned, entry, context);
+        } else {
+          awaitChangeSetResult(returned, entry, context);
+        }
+        return attempt;
+      } catch (CouchVersionException | RuntimeException e) {
+        if (policy.getMaxAttempts() == 1 || !policy.isRetryable(e)) {
+          throw e;
+        }
+        long backoff = policy.backoffMillis(attempt);
+        if (!policy.canRetry(attempt, System.currentTimeMillis() - start, backoff)) {
+          throw new CouchVersionException("All retries have failed for changeSet " + entry.getChangeId() +
+              " after " + attempt + " attempts", e);
+        }
 
-            } else {
-              logger.info(changeEntry + " passed over");
-            }
-          } catch (CouchVersionChangeSetVersionException e) {
-            logger.error(e.getMessage());
-          }
+        logger.warn("ChangeSet " + entry.getChangeId() + " has failed (attempt " + attempt + " of " +
+            policy.getMaxAttempts() + "), retrying in " + backoff + "ms: " + e.getMessage());
+        int failedAttempt = attempt;
+        fire(listener -> listener.onRetry(entry.getChangeId(), failedAttempt, e, backoff));
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new CouchVersionException("Interrupted while waiting to retry changeSet " + entry.getChangeId(), e);
         }
-      } catch (NoSuchMethodException e) {
-        throw new CouchVersionException(e.getMessage(), e);
-      } catch (IllegalAccessException e) {
-        throw new CouchVersionException(e.getMessage(), e);
-      } catch (InvocationTargetException e) {
-        Throwable targetException = e.getTargetException();
-        throw new CouchVersionException(targetException.getMessage(), e);
-      } catch (InstantiationException e) {
-        throw new CouchVersionException(e.getMessage(), e);
       }
     }
   }
 
-  private void executeMethod(Method changesetMethod, Object changelogInstance, ChangeEntry entry) throws CouchVersionException {
-    if(entry.getRetries() == 0) {
+  private static Object invoke(ChangeSetInvoker invoker, Object changelogInstance, ChangeSetContext context)
+      throws CouchVersionException {
+    try {
+      return invoker.invoke(changelogInstance, context);
+    } catch (Throwable e) {
+      throw new CouchVersionException(e.getMessage(), e);
+    }
+  }
 
-      try {
-        executeChangeSetMethod(changesetMethod, changelogInstance);
+  /**
+   * Invokers of the changeset methods, created once per execution
+   */
+  private Map<Method, ChangeSetInvoker> invokers;
+  private ParameterResolverRegistry parameterResolverRegistry;
+  private DeferredIndexes deferredIndexes;
+
+  private ChangeSetInvoker getInvoker(Method changesetMethod) throws CouchVersionChangeSetVersionException {
+    ChangeSetInvoker invoker = invokers.get(changesetMethod);
+    if (invoker == null) {
+      invoker = new ChangeSetInvoker(changesetMethod, parameterResolverRegistry);
+      invokers.put(changesetMethod, invoker);
+    }
+    return invoker;
+  }
 
-      } catch (IllegalAccessException e) {
-        throw new CouchVersionException(e.getMessage(), e);
-      } catch (InvocationTargetException e) {
-        Throwable targetException = e.getTargetException();
-        throw new CouchVersionException(targetException.getMessage(), e);
-      }
-    } else {
-      for (int i = 0; i < entry.getRetries(); i++) {
-        try {
-          executeChangeSetMethod(changesetMethod, changelogInstance);
-          break;
-        } catch (Exception e) {
-          //if is the last retry throw the exception
-          if (i+1 == entry.getRetries()) {
-            throw new CouchVersionException("All retries have failed for changeSet " + entry.getChangeId(), e);
-          } else {
-            e.printStackTrace();
-            logger.warn("Retrying to execute changeSet " + entry.getChangeId());
-          }
-        }
-      }
+  /**
+   * Custom resolvers first, then Couchbase objects, the per-execution state and finally Spring beans
+   */
+  private ParameterResolverRegistry createParameterResolverRegistry() {
+    ParameterResolverRegistry registry = new ParameterResolverRegistry();
+    for (ParameterResolver resolver : parameterResolvers) {
+      registry.add(resolver);
     }
+    registry
+        .add(ParameterResolver.forType(Cluster.class, context -> cluster))
+        .add(ParameterResolver.forType(Bucket.class, context -> bucket))
+        .add(ParameterResolver.forType(Scope.class, context -> bucket.defaultScope()))
+        .add(ParameterResolver.forType(Collection.class, context -> bucket.defaultCollection()))
+        .add(ParameterResolver.forType(ReactiveCluster.class, context -> cluster.reactive()))
+        .add(ParameterResolver.forType(ReactiveBucket.class, context -> bucket.reactive()))
+        .add(ParameterResolver.forType(ReactiveScope.class, context -> bucket.reactive().defaultScope()))
+        .add(ParameterResolver.forType(ReactiveCollection.class, context -> bucket.defaultCollection().reactive()))
+        .add(ParameterResolver.forType(DocumentMigrator.class, context -> new DocumentMigrator(cluster, bucket.defaultCollection())
+            .setStatistics(context.getStatistics())
+            .setThrottle(migrationThrottle)))
+        .add(ParameterResolver.forType(MigrationThrottle.class, context -> migrationThrottle))
+        .add(ParameterResolver.forType(DeferredIndexes.class, context -> deferredIndexes))
+        .add(ParameterResolver.forType(Checkpoint.class, ChangeSetContext::getCheckpoint))
+        .add(ParameterResolver.forType(ChangeSetStatistics.class, ChangeSetContext::getStatistics))
+        .add(ParameterResolver.forType(ChangeSetPartition.class, ChangeSetContext::getPartition));
+    if (context != null) {
+      registry.add(new SpringBeanParameterResolver(context));
+    }
+    return registry;
   }
 
-  private Object executeChangeSetMethod(Method changeSetMethod, Object changeLogInstance)
-      throws IllegalAccessException, InvocationTargetException, CouchVersionChangeSetVersionException {
-    if (changeSetMethod.getParameterTypes().length == 1 ){
-      logger.debug("method with single argument");
-      if(changeSetMethod.getParameterTypes()[0].equals(Bucket.class)) {
-        return changeSetMethod.invoke(changeLogInstance, bucket);
+  /**
+   * Executes the statement of a {@link BatchedQuery} changeset in batches, with the throttle of the migrations
+   */
+  private void executeBatchedQuery(BatchedQuery batchedQuery, Object returned, ChangeEntry entry,
+      ChangeSetContext context) throws CouchVersionException {
+    long mutations = new BatchedQueryExecutor(cluster, batchedQueryCollection(batchedQuery, entry))
+        .setThrottle(migrationThrottle)
+        .setStatistics(context.getStatistics())
+        .execute(batchedQuery, returned instanceof String ? (String) returned : null);
+    logger.debug("ChangeSet " + entry.getChangeId() + " mutated " + mutations + " documents");
+  }
 
-      } else {
-        return changeSetMethod.invoke(changeLogInstance, cluster);
-      }
-    } else if (changeSetMethod.getParameterTypes().length == 2) {
-      logger.debug("method with 2 params");
-      if(changeSetMethod.getParameterTypes()[0].equals(Bucket.class)) {
-        return changeSetMethod.invoke(changeLogInstance, bucket, cluster);
-      } else {
-        return changeSetMethod.invoke(changeLogInstance, cluster, bucket);
+  private Collection batchedQueryCollection(BatchedQuery batchedQuery, ChangeEntry entry)
+      throws CouchVersionConfigurationVersionException {
+    if (batchedQuery.collection().isEmpty()) {
+      if (!batchedQuery.scope().isEmpty()) {
+        throw new CouchVersionConfigurationVersionException("@BatchedQuery of changeSet " + entry.getChangeId() +
+            " has a scope but no collection");
       }
+      return bucket.defaultCollection();
+    }
+    String scope = batchedQuery.scope().isEmpty() ? "_default" : batchedQuery.scope();
+    return bucket.scope(scope).collection(batchedQuery.collection());
+  }
 
-    } else if (changeSetMethod.getParameterTypes().length == 0) {
-      logger.debug("method with no params");
-      return changeSetMethod.invoke(changeLogInstance);
+  /**
+   * Waits for the publisher or the CompletionStage returned by a changeset, so its ChangeEntry is only stored
+   * once the work is completed. The metrics of a returned QueryResult are recorded, other return values are ignored.
+   */
+  private void awaitChangeSetResult(Object returned, ChangeEntry entry, ChangeSetContext context)
+      throws CouchVersionException {
+    Mono<Long> completion;
+    if (returned instanceof QueryResult) {
+      context.getStatistics().record((QueryResult) returned);
+      return;
+    } else if (returned instanceof Mono) {
+      completion = ((Mono<?>) returned).then(Mono.just(1L));
+    } else if (returned instanceof Publisher) {
+      // a Flux of publishers (e.g. one Mono per document) is subscribed with the configured concurrency
+      completion = Flux.from((Publisher<?>) returned)
+          .flatMap(element -> element instanceof Publisher ? (Publisher<?>) element : Mono.just(element), reactiveConcurrency)
+          .count();
+    } else if (returned instanceof CompletionStage) {
+      completion = Mono.fromCompletionStage((CompletionStage<?>) returned).then(Mono.just(1L));
     } else {
-      throw new CouchVersionChangeSetVersionException("ChangeSet method " + changeSetMethod.getName() +
-          " has wrong arguments list. Please see docs for more info!");
+      return;
     }
 
+    try {
+      Long count = completion.timeout(reactiveTimeout).block();
+      logger.debug("ChangeSet " + entry.getChangeId() + " completed with " + count + " results");
+    } catch (RuntimeException e) {
+      Throwable cause = Exceptions.unwrap(e);
+      if (cause instanceof TimeoutException) {
+        throw new CouchVersionException("ChangeSet " + entry.getChangeId() + " has not completed in " + reactiveTimeout, cause);
+      }
+      throw new CouchVersionException(cause.getMessage(), cause);
+    }
   }
 
   private void validateConfig() throws CouchVersionConfigurationVersionException {
@@ -414,11 +855,252 @@ public class CouchVersion implements InitializingBean {
   }
 
   /**
-   * Should only be used for testing purposes
+   * Max number of concurrent KV operations used to check which changesets have already been applied
+   *
+   * @param stateFetchConcurrency max in-flight requests, default is 64
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setStateFetchConcurrency(int stateFetchConcurrency) {
+    this.stateFetchConcurrency = stateFetchConcurrency;
+    configureDAO();
+    return this;
+  }
+
+  /**
+   * Stores the entries, the lock, the checkpoints and the other CouchVersion documents in a dedicated collection instead
+   * of the default collection of the bucket. The scope and the collection are created if they don't exist, and the
+   * documents written in the default collection by previous executions are copied there by the lock holder.
+   * Until they are removed (see {@link #setLegacyMetadataCleanup(boolean)}), the lock of the default collection is
+   * held too, so instances of previous versions can keep running during a rolling deployment.
+   *
+   * @param scope metadata scope, e.g. "couchversion"
+   * @param collection metadata collection, e.g. "metadata"
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setMetadataCollection(String scope, String collection) {
+    this.metadataScope = scope;
+    this.metadataCollection = collection;
+    configureDAO();
+    return this;
+  }
+
+  /**
+   * Removes the CouchVersion documents of the default collection once they are copied to the metadata collection.
+   * Enable it in a later deployment, once no instance writes to the default collection anymore.
+   *
+   * @param legacyMetadataCleanup default is false
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setLegacyMetadataCleanup(boolean legacyMetadataCleanup) {
+    this.legacyMetadataCleanup = legacyMetadataCleanup;
+    configureDAO();
+    return this;
+  }
+
+  /**
+   * Stores the applied changesets in a single manifest document (couchversion_manifest) instead of one
+   * ChangeEntry document per changeset, so the whole state is loaded with a single KV get.
+   * The existing ChangeEntry documents are copied to the manifest on the first execution.
+   *
+   * @param manifestStorage default is false
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setManifestStorage(boolean manifestStorage) {
+    this.manifestStorage = manifestStorage;
+    configureDAO();
+    return this;
+  }
+
+  /**
+   * Lease of the couchversion_lock document. The lease is renewed in background while the migration runs,
+   * if the instance holding the lock dies, the lock expires after this time and another instance can take it.
+   *
+   * @param lockLeaseTime default is 30 seconds
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setLockLeaseTime(Duration lockLeaseTime) {
+    this.lockLeaseTime = lockLeaseTime;
+    configureDAO();
+    return this;
+  }
+
+  /**
+   * Max time an instance waits for another one to finish the migration before failing to start
+   *
+   * @param lockWaitTimeout default is 5 minutes
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setLockWaitTimeout(Duration lockWaitTimeout) {
+    this.lockWaitTimeout = lockWaitTimeout;
+    return this;
+  }
+
+  /**
+   * How often a waiting instance checks whether the lock has been released, a random jitter of +/-25% is applied
+   *
+   * @param lockPollInterval default is 500 milliseconds
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setLockPollInterval(Duration lockPollInterval) {
+    this.lockPollInterval = lockPollInterval;
+    return this;
+  }
+
+  /**
+   * For Spring users: the migration is executed in background when the bean is created, so it doesn't block the
+   * rest of the context. Declare a {@link CouchVersionReadiness} bean to hold the application until it is completed.
+   *
+   * @param async default is false
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setAsync(boolean async) {
+    this.async = async;
+    return this;
+  }
+
+  /**
+   * Max number of changesets applied at the same time. Changesets run concurrently only if they are independent,
+   * see {@link ChangeSet#dependsOn()} and {@link ChangeSet#parallelGroup()}; runAlways changesets are always
+   * re-executed one by one.
+   *
+   * @param parallelism default is 1, changesets are applied one by one in their order
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Max number of inner publishers subscribed at the same time when a changeset returns a Flux of publishers,
+   * e.g. {@code Flux<Mono<MutationResult>>}
+   *
+   * @param reactiveConcurrency default is 16
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setReactiveConcurrency(int reactiveConcurrency) {
+    this.reactiveConcurrency = reactiveConcurrency;
+    return this;
+  }
+
+  /**
+   * Max time to wait for the Mono, Flux or CompletionStage returned by a changeset
+   *
+   * @param reactiveTimeout default is 30 minutes
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setReactiveTimeout(Duration reactiveTimeout) {
+    this.reactiveTimeout = reactiveTimeout;
+    return this;
+  }
+
+  /**
+   * How often the progress recorded in a {@link Checkpoint} is saved
+   *
+   * @param checkpointInterval default is 10 seconds
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setCheckpointInterval(Duration checkpointInterval) {
+    this.checkpointInterval = checkpointInterval;
+    return this;
+  }
+
+  /**
+   * Throttle shared by all the changesets, available as a changeset parameter and used by the {@link DocumentMigrator}
+   * parameter, so the migrations don't take the cluster capacity away from the application
+   *
+   * @param migrationThrottle default is unlimited
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setMigrationThrottle(MigrationThrottle migrationThrottle) {
+    this.migrationThrottle = migrationThrottle;
+    return this;
+  }
+
+  /**
+   * Max time to wait for the indexes registered with {@link DeferredIndexes} to be online
+   *
+   * @param indexBuildTimeout default is 1 hour
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion setIndexBuildTimeout(Duration indexBuildTimeout) {
+    this.indexBuildTimeout = indexBuildTimeout;
+    return this;
+  }
+
+  /**
+   * Progress of a changeset in flight, which can be applied by any instance
+   *
+   * @param changeId id of the changeset
+   * @return last saved progress, or null if the changeset isn't running or doesn't use a {@link Checkpoint}
+   */
+  public ChangeCheckpoint getCheckpoint(String changeId) {
+    return dao.getCheckpoint(changeId);
+  }
+
+  /**
+   * Makes a custom type available as a changeset parameter. Custom resolvers take precedence over the built-in ones.
+   *
+   * @param resolver resolver of the parameter type
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion addParameterResolver(ParameterResolver resolver) {
+    this.parameterResolvers.add(resolver);
+    return this;
+  }
+
+  /**
+   * Registers a listener notified of the steps of the migration, e.g. {@link com.github.couchversion.listener.MicrometerMigrationListener}
+   *
+   * @param listener listener
+   * @return CouchVersion object for fluent interface
+   */
+  public CouchVersion addListener(MigrationListener listener) {
+    this.listeners.add(listener);
+    return this;
+  }
+
+  /**
+   * Replaces the state store, e.g. with an {@link com.github.couchversion.dao.InMemoryCouchVersionDAO} in tests
+   * and benchmarks. The settings of the runner are applied to the provided implementations, another one is
+   * configured by the application.
    * @param couchVersionDAO DAO responsible for storing the changesets and locks
    */
   public void setDAO(CouchVersionDAO couchVersionDAO){
     this.dao = couchVersionDAO;
+    configureDAO();
+  }
+
+  /**
+   * Applies the settings which were set on the runner to its state store. The metadata collection and the legacy
+   * metadata only exist in Couchbase.
+   */
+  private void configureDAO() {
+    if (dao instanceof CouchbaseCouchVersionDAO) {
+      CouchbaseCouchVersionDAO couchbaseDAO = (CouchbaseCouchVersionDAO) dao;
+      couchbaseDAO.setLockLeaseTime(lockLeaseTime);
+      if (stateFetchConcurrency != null) {
+        couchbaseDAO.setStateFetchConcurrency(stateFetchConcurrency);
+      }
+      if (manifestStorage != null) {
+        couchbaseDAO.setManifestStorage(manifestStorage);
+      }
+      if (metadataCollection != null) {
+        couchbaseDAO.setMetadataCollection(metadataScope, metadataCollection);
+      }
+      if (legacyMetadataCleanup != null) {
+        couchbaseDAO.setLegacyMetadataCleanup(legacyMetadataCleanup);
+      }
+    } else if (dao instanceof InMemoryCouchVersionDAO) {
+      InMemoryCouchVersionDAO inMemoryDAO = (InMemoryCouchVersionDAO) dao;
+      inMemoryDAO.setLockLeaseTime(lockLeaseTime);
+      if (stateFetchConcurrency != null) {
+        inMemoryDAO.setStateFetchConcurrency(stateFetchConcurrency);
+      }
+      if (manifestStorage != null) {
+        inMemoryDAO.setManifestStorage(manifestStorage);
+      }
+    }
   }
 
 }
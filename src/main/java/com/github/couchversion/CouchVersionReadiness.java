@@ -0,0 +1,111 @@
+package com.github.couchversion;
+
+import com.github.couchversion.exception.CouchVersionStartupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Spring integration for {@link CouchVersion#setAsync(boolean) asynchronous} migrations.
+ * <p>
+ * The rest of the context is created while the migration runs, and this lifecycle bean blocks the context start
+ * until the migration is completed. Lifecycle beans with a higher phase, such as the embedded web server, are
+ * started only after that, so no traffic is admitted before the data is ready. Beans and health checks can
+ * also inject it and call {@link #isReady()} or {@link #awaitReady(Duration)}.
+ * <pre>
+ * &#64;Bean
+ * public CouchVersionReadiness couchVersionReadiness(CouchVersion couchVersion) {
+ *   return new CouchVersionReadiness(couchVersion);
+ * }
+ * </pre>
+ */
+public class CouchVersionReadiness implements SmartLifecycle {
+  private static final Logger logger = LoggerFactory.getLogger(CouchVersionReadiness.class);
+
+  private final CouchVersion couchVersion;
+  private int phase = 0;
+  private volatile boolean running = false;
+
+  public CouchVersionReadiness(CouchVersion couchVersion) {
+    this.couchVersion = couchVersion;
+  }
+
+  /**
+   * @return true if the migration has been completed successfully
+   */
+  public boolean isReady() {
+    CompletableFuture<MigrationResult> future = couchVersion.getMigrationFuture();
+    return future != null && future.isDone() && !future.isCompletedExceptionally();
+  }
+
+  /**
+   * Waits for the migration to be completed
+   *
+   * @param timeout max waiting time
+   * @return result of the migration
+   * @throws CouchVersionStartupException if the migration failed, hasn't been started or didn't finish in time
+   */
+  public MigrationResult awaitReady(Duration timeout) {
+    CompletableFuture<MigrationResult> future = couchVersion.getMigrationFuture();
+    if (future == null) {
+      throw new CouchVersionStartupException("CouchVersion has not been executed");
+    }
+    try {
+      return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CouchVersionStartupException("Interrupted while waiting for the CouchVersion migration", e);
+    } catch (ExecutionException e) {
+      throw new CouchVersionStartupException("CouchVersion migration has failed", e.getCause());
+    } catch (TimeoutException e) {
+      throw new CouchVersionStartupException("CouchVersion migration didn't finish in " + timeout, e);
+    }
+  }
+
+  @Override
+  public void start() {
+    logger.info("CouchVersion - waiting for the migration to be completed");
+    MigrationResult result = awaitReady(Duration.ofMillis(Long.MAX_VALUE));
+    logger.info("CouchVersion - the application is ready: " + result);
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    return phase;
+  }
+
+  /**
+   * @param phase lifecycle phase, it must be lower than the phase of the beans which need the migration, default is 0
+   */
+  public void setPhase(int phase) {
+    this.phase = phase;
+  }
+}
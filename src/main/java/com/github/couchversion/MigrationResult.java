@@ -0,0 +1,96 @@
+package com.github.couchversion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a single CouchVersion execution
+ *
+ * @see CouchVersion#executeAsync()
+ */
+public class MigrationResult {
+
+  private final List<String> appliedChangeSets = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> reappliedChangeSets = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> failedChangeSets = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> instantiatedChangeLogs = Collections.synchronizedList(new ArrayList<>());
+  private volatile long lockWaitMillis;
+  private volatile long durationMillis;
+
+  void applied(String changeId) {
+    appliedChangeSets.add(changeId);
+  }
+
+  void reapplied(String changeId) {
+    reappliedChangeSets.add(changeId);
+  }
+
+  void failed(String changeId) {
+    failedChangeSets.add(changeId);
+  }
+
+  void instantiated(Class<?> changeLogClass) {
+    instantiatedChangeLogs.add(changeLogClass.getName());
+  }
+
+  void setLockWaitMillis(long lockWaitMillis) {
+    this.lockWaitMillis = lockWaitMillis;
+  }
+
+  void setDurationMillis(long durationMillis) {
+    this.durationMillis = durationMillis;
+  }
+
+  /**
+   * @return ids of the changesets applied for the first time by this instance
+   */
+  public List<String> getAppliedChangeSets() {
+    return Collections.unmodifiableList(appliedChangeSets);
+  }
+
+  /**
+   * @return ids of the runAlways changesets executed by this instance
+   */
+  public List<String> getReappliedChangeSets() {
+    return Collections.unmodifiableList(reappliedChangeSets);
+  }
+
+  /**
+   * @return ids of the changesets which were skipped because of a wrong definition
+   */
+  public List<String> getFailedChangeSets() {
+    return Collections.unmodifiableList(failedChangeSets);
+  }
+
+  /**
+   * @return class names of the changelogs instantiated by this instance, only the ones with a changeset to execute
+   */
+  public List<String> getInstantiatedChangeLogs() {
+    return Collections.unmodifiableList(instantiatedChangeLogs);
+  }
+
+  /**
+   * @return time spent waiting for another instance holding the lock
+   */
+  public long getLockWaitMillis() {
+    return lockWaitMillis;
+  }
+
+  /**
+   * @return total time of the execution
+   */
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "[MigrationResult: applied=" + appliedChangeSets.size() +
+        ", reapplied=" + reappliedChangeSets.size() +
+        ", failed=" + failedChangeSets.size() +
+        ", changeLogs=" + instantiatedChangeLogs.size() +
+        ", lockWait=" + lockWaitMillis + "ms" +
+        ", duration=" + durationMillis + "ms]";
+  }
+}
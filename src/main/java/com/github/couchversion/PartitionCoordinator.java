@@ -0,0 +1,142 @@
+package com.github.couchversion;
+
+import com.github.couchversion.dao.CouchVersionDAO;
+import com.github.couchversion.exception.CouchVersionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Claims the partitions of a partitioned changeset one by one and applies them, renewing the lease of the claimed
+ * partition while it runs. Every instance running the migration (the lock holder and the waiting ones) claims
+ * partitions, so they are applied in parallel.
+ */
+class PartitionCoordinator {
+  private static final Logger logger = LoggerFactory.getLogger(PartitionCoordinator.class);
+
+  interface PartitionTask {
+    void apply(ChangeSetPartition partition) throws CouchVersionException;
+  }
+
+  private final CouchVersionDAO dao;
+  private final Duration leaseTime;
+  private final Duration pollInterval;
+
+  PartitionCoordinator(CouchVersionDAO dao, Duration leaseTime, Duration pollInterval) {
+    this.dao = dao;
+    this.leaseTime = leaseTime;
+    this.pollInterval = pollInterval;
+  }
+
+  /**
+   * Applies partitions until all of them are done, waiting for the ones claimed by other instances
+   *
+   * @return number of partitions applied by this instance
+   */
+  int applyAll(String changeId, int partitions, PartitionTask task) throws CouchVersionException, InterruptedException {
+    int applied = 0;
+    while (true) {
+      applied += applyAvailable(changeId, partitions, task);
+
+      boolean done = true;
+      for (int partition = 0; partition < partitions && done; partition++) {
+        done = dao.isPartitionDone(changeId, partition);
+      }
+      if (done) {
+        return applied;
+      }
+      // the remaining partitions are applied by other instances, or will be claimed again when their lease expires
+      Thread.sleep(pollInterval.toMillis());
+    }
+  }
+
+  /**
+   * Applies the partitions which can be claimed right now
+   *
+   * @return number of partitions applied by this instance
+   */
+  int applyAvailable(String changeId, int partitions, PartitionTask task) throws CouchVersionException {
+    int applied = 0;
+    // instances start from different partitions to avoid claiming the same ones
+    int offset = ThreadLocalRandom.current().nextInt(partitions);
+    for (int i = 0; i < partitions; i++) {
+      int partition = (offset + i) % partitions;
+      Long cas = dao.claimPartition(changeId, partition);
+      if (cas != null && apply(new ChangeSetPartition(changeId, partition, partitions), cas, task)) {
+        applied++;
+      }
+    }
+    return applied;
+  }
+
+  private boolean apply(ChangeSetPartition partition, long claimCas, PartitionTask task) throws CouchVersionException {
+    Lease lease = new Lease(partition, claimCas);
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "couchversion-partition-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(1, leaseTime.toMillis() / 3);
+    ScheduledFuture<?> renewal = scheduler.scheduleAtFixedRate(lease::renew, period, period, TimeUnit.MILLISECONDS);
+
+    try {
+      logger.info("CouchVersion - applying " + partition);
+      task.apply(partition);
+    } catch (CouchVersionException | RuntimeException e) {
+      renewal.cancel(false);
+      lease.release();
+      throw e;
+    } finally {
+      scheduler.shutdownNow();
+    }
+
+    renewal.cancel(false);
+    if (!lease.complete()) {
+      logger.warn("CouchVersion - the lease of " + partition + " was lost, it might be applied again by another instance");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Lease of a claimed partition, the CAS of the last write is the fencing token
+   */
+  private class Lease {
+    private final ChangeSetPartition partition;
+    private Long cas;
+
+    Lease(ChangeSetPartition partition, long cas) {
+      this.partition = partition;
+      this.cas = cas;
+    }
+
+    synchronized void renew() {
+      if (cas == null) {
+        return;
+      }
+      try {
+        cas = dao.renewPartition(partition.getChangeId(), partition.getIndex(), cas);
+      } catch (RuntimeException e) {
+        //a transient failure, the claim is still valid until its lease expires
+        logger.warn("CouchVersion - failed to renew the lease of " + partition, e);
+      }
+    }
+
+    synchronized boolean complete() {
+      return cas != null && dao.completePartition(partition.getChangeId(), partition.getIndex(), cas);
+    }
+
+    synchronized void release() {
+      if (cas != null) {
+        dao.releasePartition(partition.getChangeId(), partition.getIndex(), cas);
+        cas = null;
+      }
+    }
+  }
+}
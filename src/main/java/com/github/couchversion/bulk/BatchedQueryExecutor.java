@@ -0,0 +1,187 @@
+package com.github.couchversion.bulk;
+
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCluster;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.query.QueryMetrics;
+import com.couchbase.client.java.query.QueryOptions;
+import com.couchbase.client.java.query.QueryScanConsistency;
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.changeset.BatchedQuery;
+import com.github.couchversion.exception.CouchVersionConfigurationVersionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static com.couchbase.client.java.query.QueryOptions.queryOptions;
+
+/**
+ * Executes a N1QL mutation as repeated {@code LIMIT} batches until a batch doesn't mutate any document, so no single
+ * statement runs long enough to time out or builds a huge mutation queue. The WHERE clause of the statement must
+ * exclude the documents already mutated, a lane still mutating documents after {@link #setMaxBatches(long) maxBatches}
+ * batches fails. Used for the changesets annotated with
+ * {@link BatchedQuery}, it can also be created directly:
+ * <pre>
+ * long mutations = new BatchedQueryExecutor(cluster, collection)
+ *     .execute("UPDATE ${keyspace} SET status = 'active' WHERE status IS MISSING", 5000, Duration.ofMinutes(1), 1,
+ *         QueryScanConsistency.REQUEST_PLUS);
+ * </pre>
+ */
+public class BatchedQueryExecutor {
+  private static final Logger logger = LoggerFactory.getLogger(BatchedQueryExecutor.class);
+  private static final Pattern LIMIT_OR_RETURNING = Pattern.compile("\\b(RETURNING|LIMIT)\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern TRAILING_SEMICOLON = Pattern.compile("\\s*;\\s*$");
+
+  private final ReactiveCluster cluster;
+  private final String keyspace;
+
+  private MigrationThrottle throttle = MigrationThrottle.unlimited();
+  private ChangeSetStatistics statistics;
+  private long maxBatches = 100000;
+
+  public BatchedQueryExecutor(Cluster cluster, Collection collection) {
+    this(cluster.reactive(), collection.reactive());
+  }
+
+  public BatchedQueryExecutor(ReactiveCluster cluster, ReactiveCollection collection) {
+    this.cluster = cluster;
+    this.keyspace = DocumentMigrator.keyspace(collection);
+  }
+
+  /**
+   * @param query annotation of the changeset
+   * @param statement statement to execute, the one of the annotation is used if it isn't empty
+   * @return total number of mutated documents
+   */
+  public long execute(BatchedQuery query, String statement) throws CouchVersionConfigurationVersionException {
+    String batchedStatement = query.statement().isEmpty() ? statement : query.statement();
+    if (batchedStatement == null || batchedStatement.trim().isEmpty()) {
+      throw new CouchVersionConfigurationVersionException(
+          "@BatchedQuery needs a statement, or a changeset method returning the statement");
+    }
+    Duration timeout = query.timeoutMillis() > 0 ? Duration.ofMillis(query.timeoutMillis()) : null;
+    return execute(batchedStatement, query.batchSize(), timeout, query.lanes(), query.scanConsistency(),
+        query.maxBatches());
+  }
+
+  /**
+   * Executes the statement in batches and waits for all the lanes to complete.
+   *
+   * @param statement N1QL mutation, see {@link BatchedQuery} for the placeholders
+   * @param batchSize documents mutated by each execution of the statement
+   * @param timeout timeout of each execution, null for the timeout of the cluster environment
+   * @param lanes number of batch loops running at the same time
+   * @param scanConsistency scan consistency of each execution
+   * @return total number of mutated documents
+   */
+  public long execute(String statement, int batchSize, Duration timeout, int lanes,
+      QueryScanConsistency scanConsistency) throws CouchVersionConfigurationVersionException {
+    return execute(statement, batchSize, timeout, lanes, scanConsistency, maxBatches);
+  }
+
+  private long execute(String statement, int batchSize, Duration timeout, int lanes,
+      QueryScanConsistency scanConsistency, long maxBatches) throws CouchVersionConfigurationVersionException {
+    if (batchSize <= 0 || lanes <= 0) {
+      throw new CouchVersionConfigurationVersionException("Batch size and lanes of a batched query must be positive");
+    }
+    if (lanes > 1 && !statement.contains("${lane}")) {
+      throw new CouchVersionConfigurationVersionException(
+          "A batched query with " + lanes + " lanes must split the documents between the lanes with ${lane}: " + statement);
+    }
+
+    String template = statement.replace("${keyspace}", keyspace).replace("${lanes}", String.valueOf(lanes));
+    if (template.contains("${batchSize}")) {
+      template = template.replace("${batchSize}", String.valueOf(batchSize));
+    } else if (LIMIT_OR_RETURNING.matcher(template).find()) {
+      // the LIMIT would be appended after them, where N1QL doesn't accept it
+      throw new CouchVersionConfigurationVersionException("A batched query with a RETURNING or LIMIT clause must place " +
+          "LIMIT ${batchSize} itself: " + statement);
+    } else {
+      template = TRAILING_SEMICOLON.matcher(template).replaceFirst("") + " LIMIT " + batchSize;
+    }
+
+    AtomicLong batches = new AtomicLong();
+    String batched = template;
+    long mutations = Flux.range(0, lanes)
+        .flatMap(lane -> {
+          String laneStatement = batched.replace("${lane}", String.valueOf(lane));
+          QueryOptions options = queryOptions().metrics(true).scanConsistency(scanConsistency);
+          if (timeout != null) {
+            options.timeout(timeout);
+          }
+          AtomicLong laneBatches = new AtomicLong();
+          return executeBatch(laneStatement, options)
+              .expand(count -> {
+                if (count == 0) {
+                  return Mono.empty();
+                }
+                if (maxBatches > 0 && laneBatches.incrementAndGet() >= maxBatches) {
+                  return Mono.error(new IllegalStateException("Batched query still mutating documents after " +
+                      maxBatches + " batches, its WHERE clause must exclude the documents already mutated: " +
+                      laneStatement));
+                }
+                return executeBatch(laneStatement, options);
+              })
+              .doOnNext(count -> batches.incrementAndGet());
+        }, lanes)
+        .reduce(0L, Long::sum)
+        .block();
+
+    logger.info("Batched query on " + keyspace + " mutated " + mutations + " documents in " + batches + " batches");
+    return mutations;
+  }
+
+  /**
+   * @return number of documents mutated by the batch
+   */
+  private Mono<Long> executeBatch(String statement, QueryOptions options) {
+    return throttle.acquireReactive(1, 0)
+        .then(Mono.defer(() -> {
+          long start = System.nanoTime();
+          return cluster.query(statement, options)
+              .flatMap(result -> result.rowsAsObject().then(result.metaData()))
+              .map(metaData -> {
+                throttle.recordQueryLatency(System.nanoTime() - start);
+                if (statistics != null) {
+                  statistics.record(metaData);
+                }
+                // without the count, the end of the loop can't be detected
+                return metaData.metrics().map(QueryMetrics::mutationCount).orElseThrow(() -> new IllegalStateException(
+                    "The query service didn't return the mutation count of the batched query: " + statement));
+              });
+        }));
+  }
+
+  /**
+   * @param throttle paces the batches and receives their latency
+   * @return BatchedQueryExecutor object for fluent interface
+   */
+  public BatchedQueryExecutor setThrottle(MigrationThrottle throttle) {
+    this.throttle = throttle;
+    return this;
+  }
+
+  /**
+   * @param maxBatches max executions of the statement by each lane, 0 for no limit, default is 100000
+   * @return BatchedQueryExecutor object for fluent interface
+   */
+  public BatchedQueryExecutor setMaxBatches(long maxBatches) {
+    this.maxBatches = maxBatches;
+    return this;
+  }
+
+  /**
+   * @param statistics statistics of the changeset, the counts of each batch are added to it
+   * @return BatchedQueryExecutor object for fluent interface
+   */
+  public BatchedQueryExecutor setStatistics(ChangeSetStatistics statistics) {
+    this.statistics = statistics;
+    return this;
+  }
+}
@@ -0,0 +1,96 @@
+package com.github.couchversion.bulk;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a {@link DocumentMigrator} run, updated while the run is in progress
+ */
+public class BulkMigrationStats {
+
+  private final long startedAt = System.currentTimeMillis();
+  private final AtomicLong processed = new AtomicLong();
+  private final AtomicLong updated = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong missing = new AtomicLong();
+  private final AtomicLong casRetries = new AtomicLong();
+  private volatile long finishedAt;
+
+  void processed() {
+    processed.incrementAndGet();
+  }
+
+  void updated() {
+    updated.incrementAndGet();
+  }
+
+  void skipped() {
+    skipped.incrementAndGet();
+  }
+
+  void missing() {
+    missing.incrementAndGet();
+  }
+
+  void casRetry() {
+    casRetries.incrementAndGet();
+  }
+
+  void finished() {
+    finishedAt = System.currentTimeMillis();
+  }
+
+  /**
+   * @return documents read and passed to the transformation
+   */
+  public long getProcessed() {
+    return processed.get();
+  }
+
+  /**
+   * @return documents replaced with the transformed content
+   */
+  public long getUpdated() {
+    return updated.get();
+  }
+
+  /**
+   * @return documents for which the transformation returned null
+   */
+  public long getSkipped() {
+    return skipped.get();
+  }
+
+  /**
+   * @return keys returned by the query whose document was removed before it could be read or replaced
+   */
+  public long getMissing() {
+    return missing.get();
+  }
+
+  /**
+   * @return documents read again because they were modified concurrently
+   */
+  public long getCasRetries() {
+    return casRetries.get();
+  }
+
+  public long getElapsedMillis() {
+    return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+  }
+
+  public double getDocumentsPerSecond() {
+    long elapsed = getElapsedMillis();
+    return elapsed == 0 ? 0 : getProcessed() * 1000.0 / elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return "[BulkMigrationStats: processed=" + getProcessed() +
+        ", updated=" + getUpdated() +
+        ", skipped=" + getSkipped() +
+        ", missing=" + getMissing() +
+        ", casRetries=" + getCasRetries() +
+        ", elapsed=" + getElapsedMillis() + "ms" +
+        ", docs/s=" + String.format("%.1f", getDocumentsPerSecond()) + "]";
+  }
+}
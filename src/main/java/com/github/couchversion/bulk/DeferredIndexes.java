@@ -0,0 +1,302 @@
+package com.github.couchversion.bulk;
+
+import com.couchbase.client.core.error.IndexExistsException;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.query.QueryResult;
+import com.github.couchversion.dao.CouchVersionDAO;
+import com.github.couchversion.dao.DeferredIndexBuild;
+import com.github.couchversion.exception.CouchVersionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static com.couchbase.client.java.query.QueryOptions.queryOptions;
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * Creates indexes with {@code defer_build} and builds them together: a single {@code BUILD INDEX} per keyspace scans the
+ * documents once for all its indexes, instead of once per index. Declare it as a changeset parameter:
+ * <pre>
+ * &#64;ChangeSet(order = "001", id = "userIndexes", author = "testAuthor")
+ * public void userIndexes(DeferredIndexes indexes) {
+ *   indexes.createIndex("user_email", Arrays.asList("email"), "type = 'user'")
+ *       .createIndex("user_name", Arrays.asList("lastName", "firstName"), "type = 'user'");
+ * }
+ * </pre>
+ * The runner builds the registered indexes once the changesets are applied, also after a failure, and waits until they
+ * are online. A changeset which needs its indexes right away calls {@link #build()}.
+ * With a DAO the indexes are recorded until they are online, so the ones left deferred by a crash are built by the next
+ * migration, see {@link #restorePending()}.
+ */
+public class DeferredIndexes {
+  private static final Logger logger = LoggerFactory.getLogger(DeferredIndexes.class);
+
+  private final Cluster cluster;
+  private final Bucket bucket;
+  private final Map<String, PendingIndexes> pending = new LinkedHashMap<>();
+  private CouchVersionDAO dao;
+
+  private Duration buildTimeout = Duration.ofHours(1);
+  private Duration pollInterval = Duration.ofSeconds(5);
+
+  public DeferredIndexes(Cluster cluster, Bucket bucket) {
+    this.cluster = cluster;
+    this.bucket = bucket;
+  }
+
+  /**
+   * Indexes of a keyspace waiting for their build
+   */
+  private static class PendingIndexes {
+    private final Collection collection;
+    private final String keyspace;
+    private final Set<String> names = new LinkedHashSet<>();
+
+    private PendingIndexes(Collection collection) {
+      this.collection = collection;
+      this.keyspace = DocumentMigrator.keyspace(collection.reactive());
+    }
+
+    private boolean isDefaultCollection() {
+      return "_default".equals(collection.scopeName()) && "_default".equals(collection.name());
+    }
+  }
+
+  /**
+   * Creates a deferred index on the default collection
+   *
+   * @param name name of the index
+   * @param fields indexed expressions, e.g. {@code email} or {@code LOWER(name)}
+   * @param where condition of a partial index, null for all documents
+   * @return DeferredIndexes object for fluent interface
+   */
+  public DeferredIndexes createIndex(String name, List<String> fields, String where) {
+    return createIndex(bucket.defaultCollection(), name, fields, where);
+  }
+
+  public DeferredIndexes createIndex(String name, List<String> fields) {
+    return createIndex(bucket.defaultCollection(), name, fields, null);
+  }
+
+  /**
+   * Creates a deferred index on a collection, an index which already exists is only built if it is still deferred
+   *
+   * @param collection indexed collection
+   * @param name name of the index
+   * @param fields indexed expressions, e.g. {@code email} or {@code LOWER(name)}
+   * @param where condition of a partial index, null for all documents
+   * @return DeferredIndexes object for fluent interface
+   */
+  public DeferredIndexes createIndex(Collection collection, String name, List<String> fields, String where) {
+    PendingIndexes indexes = pendingIndexes(collection);
+    create("CREATE INDEX `" + name + "` ON " + indexes.keyspace + "(" + String.join(", ", fields) + ")" +
+        (hasText(where) ? " WHERE " + where : "") + " WITH {\"defer_build\": true}", indexes, name);
+    return this;
+  }
+
+  /**
+   * Creates a deferred primary index named {@code #primary} on the default collection
+   *
+   * @return DeferredIndexes object for fluent interface
+   */
+  public DeferredIndexes createPrimaryIndex() {
+    return createPrimaryIndex(bucket.defaultCollection());
+  }
+
+  public DeferredIndexes createPrimaryIndex(Collection collection) {
+    PendingIndexes indexes = pendingIndexes(collection);
+    create("CREATE PRIMARY INDEX ON " + indexes.keyspace + " WITH {\"defer_build\": true}", indexes, "#primary");
+    return this;
+  }
+
+  private synchronized PendingIndexes pendingIndexes(Collection collection) {
+    return pending.computeIfAbsent(DocumentMigrator.keyspace(collection.reactive()), keyspace -> new PendingIndexes(collection));
+  }
+
+  private void create(String statement, PendingIndexes indexes, String name) {
+    try {
+      cluster.query(statement);
+      logger.info("Created deferred index " + name + " on " + indexes.keyspace);
+    } catch (IndexExistsException e) {
+      logger.info("Index " + name + " already exists on " + indexes.keyspace);
+    }
+    synchronized (this) {
+      indexes.names.add(name);
+    }
+    if (dao != null) {
+      dao.addDeferredIndexes(recorded(indexes.collection, Collections.singletonList(name)));
+    }
+  }
+
+  /**
+   * Registers the indexes recorded by a previous migration which stopped before they were online, they are built with
+   * the indexes of this migration. Only called while holding the CouchVersion lock, so a single instance builds them.
+   *
+   * @return DeferredIndexes object for fluent interface
+   */
+  public DeferredIndexes restorePending() {
+    DeferredIndexBuild leftovers = dao == null ? null : dao.getDeferredIndexBuild();
+    if (leftovers == null) {
+      return this;
+    }
+    for (DeferredIndexBuild.Keyspace keyspace : leftovers.getKeyspaces()) {
+      Collection collection = "_default".equals(keyspace.getScope()) && "_default".equals(keyspace.getCollection())
+          ? bucket.defaultCollection()
+          : bucket.scope(keyspace.getScope()).collection(keyspace.getCollection());
+      PendingIndexes indexes = pendingIndexes(collection);
+      synchronized (this) {
+        indexes.names.addAll(keyspace.getNames());
+      }
+      logger.info("Indexes " + keyspace.getNames() + " on " + indexes.keyspace + " were not built by a previous migration");
+    }
+    return this;
+  }
+
+  private static DeferredIndexBuild.Keyspace recorded(Collection collection, List<String> names) {
+    return new DeferredIndexBuild.Keyspace(collection.scopeName(), collection.name(), names);
+  }
+
+  /**
+   * @return number of indexes registered and not built yet
+   */
+  public synchronized int getPendingCount() {
+    return pending.values().stream().mapToInt(indexes -> indexes.names.size()).sum();
+  }
+
+  /**
+   * Builds the registered indexes with one {@code BUILD INDEX} per keyspace and waits until they are all online.
+   * Indexes which are already built or building are only awaited.
+   *
+   * @throws CouchVersionException if the indexes are not online before the build timeout
+   */
+  public void build() throws CouchVersionException {
+    List<PendingIndexes> keyspaces;
+    synchronized (this) {
+      keyspaces = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+    keyspaces.removeIf(indexes -> indexes.names.isEmpty());
+    if (keyspaces.isEmpty()) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    for (PendingIndexes indexes : keyspaces) {
+      List<String> deferred = states(indexes).entrySet().stream()
+          .filter(state -> "deferred".equals(state.getValue()) || "created".equals(state.getValue()))
+          .map(Map.Entry::getKey)
+          .collect(Collectors.toList());
+      if (!deferred.isEmpty()) {
+        cluster.query("BUILD INDEX ON " + indexes.keyspace + "(" +
+            deferred.stream().map(name -> "`" + name + "`").collect(Collectors.joining(", ")) + ")");
+        logger.info("Building indexes " + deferred + " on " + indexes.keyspace);
+      }
+    }
+    awaitOnline(keyspaces, start);
+    //the indexes which are not online stay recorded for the next migration
+    if (dao != null) {
+      for (PendingIndexes indexes : keyspaces) {
+        dao.removeDeferredIndexes(recorded(indexes.collection, new ArrayList<>(indexes.names)));
+      }
+    }
+  }
+
+  private void awaitOnline(List<PendingIndexes> keyspaces, long start) throws CouchVersionException {
+    int total = keyspaces.stream().mapToInt(indexes -> indexes.names.size()).sum();
+    long deadline = start + buildTimeout.toMillis();
+    while (true) {
+      Map<String, String> notOnline = new TreeMap<>();
+      for (PendingIndexes indexes : keyspaces) {
+        states(indexes).forEach((name, state) -> {
+          if (!"online".equals(state)) {
+            notOnline.put(indexes.keyspace + "." + name, state);
+          }
+        });
+      }
+      if (notOnline.isEmpty()) {
+        logger.info(total + " indexes online after " + (System.currentTimeMillis() - start) + "ms");
+        return;
+      }
+      if (System.currentTimeMillis() >= deadline) {
+        throw new CouchVersionException("Indexes not online after " + buildTimeout + ": " + notOnline);
+      }
+      logger.info((total - notOnline.size()) + "/" + total + " indexes online, waiting for " + notOnline);
+      try {
+        Thread.sleep(pollInterval.toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CouchVersionException("Interrupted while waiting for the indexes " + notOnline.keySet(), e);
+      }
+    }
+  }
+
+  /**
+   * @return state of each registered index of the keyspace, "missing" if it isn't found in system:indexes
+   */
+  private Map<String, String> states(PendingIndexes indexes) {
+    JsonObject parameters = JsonObject.create()
+        .put("names", JsonArray.from(new ArrayList<>(indexes.names)))
+        .put("bucket", indexes.collection.bucketName());
+    String keyspaceFilter;
+    if (indexes.isDefaultCollection()) {
+      keyspaceFilter = "keyspace_id = $bucket AND bucket_id IS MISSING";
+    } else {
+      keyspaceFilter = "bucket_id = $bucket AND scope_id = $scope AND keyspace_id = $collection";
+      parameters.put("scope", indexes.collection.scopeName()).put("collection", indexes.collection.name());
+    }
+    QueryResult result = cluster.query("SELECT name, state FROM system:indexes WHERE name IN $names AND " + keyspaceFilter,
+        queryOptions().parameters(parameters));
+
+    Map<String, String> states = new HashMap<>();
+    for (JsonObject row : result.rowsAsObject()) {
+      states.put(row.getString("name"), row.getString("state"));
+    }
+    Map<String, String> ordered = new LinkedHashMap<>();
+    for (String name : indexes.names) {
+      ordered.put(name, states.getOrDefault(name, "missing"));
+    }
+    return ordered;
+  }
+
+  /**
+   * @param buildTimeout max time to wait for the indexes to be online, default is 1 hour
+   * @return DeferredIndexes object for fluent interface
+   */
+  public DeferredIndexes setBuildTimeout(Duration buildTimeout) {
+    this.buildTimeout = buildTimeout;
+    return this;
+  }
+
+  /**
+   * @param dao state store recording the indexes until they are online, null to only keep them in memory
+   * @return DeferredIndexes object for fluent interface
+   */
+  public DeferredIndexes setDAO(CouchVersionDAO dao) {
+    this.dao = dao;
+    return this;
+  }
+
+  /**
+   * @param pollInterval how often the state of the indexes is read while they are built, default is 5 seconds
+   * @return DeferredIndexes object for fluent interface
+   */
+  public DeferredIndexes setPollInterval(Duration pollInterval) {
+    this.pollInterval = pollInterval;
+    return this;
+  }
+}
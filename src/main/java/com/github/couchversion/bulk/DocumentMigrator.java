@@ -0,0 +1,279 @@
+package com.github.couchversion.bulk;
+
+import com.couchbase.client.core.error.CasMismatchException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCluster;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.json.JsonObject;
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.Checkpoint;
+import com.github.couchversion.ChangeSetPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static com.couchbase.client.java.kv.ReplaceOptions.replaceOptions;
+import static com.couchbase.client.java.query.QueryOptions.queryOptions;
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * Rewrites all the documents of a collection matching a filter, without a single huge N1QL UPDATE:
+ * <ul>
+ * <li>keys are streamed page by page with keyset pagination on META().id, so each query is short and cheap</li>
+ * <li>documents are read and replaced with pipelined KV operations, at most {@code concurrency} at a time</li>
+ * <li>replaces use the CAS of the read, a document modified in the meantime is read and transformed again</li>
+ * </ul>
+ * It can be declared as a changeset parameter, it then works on the default collection of the bucket:
+ * <pre>
+ * &#64;ChangeSet(order = "001", id = "addStatus", author = "testAuthor")
+ * public void addStatus(DocumentMigrator migrator) {
+ *   migrator.migrate("type = 'user'", user -&gt; user.put("status", "active"));
+ * }
+ * </pre>
+ * With a {@link Checkpoint} the progress is recorded page by page and a restarted migration resumes after the last
+ * completed page. With a {@link MigrationThrottle} the KV operations and the key queries are paced by its budget,
+ * which adapts to their latency.
+ */
+public class DocumentMigrator {
+  private static final Logger logger = LoggerFactory.getLogger(DocumentMigrator.class);
+
+  private static final int MAX_CAS_RETRIES = 10;
+
+  private final ReactiveCluster cluster;
+  private final ReactiveCollection collection;
+  private final String keyspace;
+
+  private int concurrency = 32;
+  private int pageSize = 1000;
+  private Duration reportInterval = Duration.ofSeconds(10);
+  private Checkpoint checkpoint;
+  private ChangeSetPartition partition;
+  private ChangeSetStatistics statistics;
+  private MigrationThrottle throttle = MigrationThrottle.unlimited();
+
+  public DocumentMigrator(Cluster cluster, Collection collection) {
+    this(cluster.reactive(), collection.reactive());
+  }
+
+  public DocumentMigrator(ReactiveCluster cluster, ReactiveCollection collection) {
+    this.cluster = cluster;
+    this.collection = collection;
+    this.keyspace = keyspace(collection);
+  }
+
+  static String keyspace(ReactiveCollection collection) {
+    boolean defaultCollection = "_default".equals(collection.scopeName()) && "_default".equals(collection.name());
+    if (defaultCollection) {
+      return "`" + collection.bucketName() + "`";
+    }
+    return "`" + collection.bucketName() + "`.`" + collection.scopeName() + "`.`" + collection.name() + "`";
+  }
+
+  /**
+   * Applies the transformation to all the documents matching the filter and waits for the end of the run.
+   *
+   * @param filter N1QL condition on the documents, e.g. {@code type = 'user'}; null or empty for all documents
+   * @param transformation returns the new content of the document, or null to leave it unchanged
+   * @return counters of the run
+   */
+  public BulkMigrationStats migrate(String filter, Function<JsonObject, JsonObject> transformation) {
+    BulkMigrationStats stats = new BulkMigrationStats();
+    migrate(filter, transformation, stats).block();
+    return stats;
+  }
+
+  /**
+   * Reactive variant of {@link #migrate(String, Function)}, nothing is done until the returned Mono is subscribed.
+   * It can be returned by a changeset.
+   */
+  public Mono<BulkMigrationStats> migrateReactive(String filter, Function<JsonObject, JsonObject> transformation) {
+    return Mono.defer(() -> {
+      BulkMigrationStats stats = new BulkMigrationStats();
+      return migrate(filter, transformation, stats).thenReturn(stats);
+    });
+  }
+
+  private Mono<Void> migrate(String filter, Function<JsonObject, JsonObject> transformation, BulkMigrationStats stats) {
+    String partitionCondition = partition != null ? partition.keyCondition(null) : null;
+    String statement = "SELECT RAW META().id FROM " + keyspace + " WHERE META().id > $lastKey" +
+        (partitionCondition != null ? " AND " + partitionCondition : "") +
+        (hasText(filter) ? " AND (" + filter + ")" : "") +
+        " ORDER BY META().id LIMIT " + pageSize;
+    String startKey = checkpoint != null && checkpoint.getLastKey() != null ? checkpoint.getLastKey() : "";
+    if (!startKey.isEmpty()) {
+      logger.info("Resuming the migration of " + keyspace + " after key " + startKey + ", " + checkpoint.getProcessed() +
+          " documents were already processed");
+    }
+    AtomicLong nextReport = new AtomicLong(System.currentTimeMillis() + reportInterval.toMillis());
+
+    // the next page is fetched while the current one is migrated, pages complete in key order for the checkpoint
+    return fetchPage(statement, startKey)
+        .expand(page -> page.size() < pageSize ? Mono.empty() : fetchPage(statement, page.get(page.size() - 1)))
+        .concatMap(page -> Flux.fromIterable(page)
+            .flatMap(key -> migrateDocument(key, transformation, stats), concurrency)
+            .doOnNext(updated -> {
+              long now = System.currentTimeMillis();
+              long report = nextReport.get();
+              if (now >= report && nextReport.compareAndSet(report, now + reportInterval.toMillis())) {
+                logger.info("Migrating " + keyspace + " " + stats);
+              }
+            })
+            .count()
+            .doOnNext(processed -> pageCompleted(page, processed)), 1)
+        .doFinally(signal -> {
+          stats.finished();
+          logger.info("Migration of " + keyspace + " " + signal + " " + stats);
+        })
+        .then();
+  }
+
+  /**
+   * @param processed documents read and transformed, the documents deleted since the key query are not counted
+   */
+  private void pageCompleted(List<String> page, long processed) {
+    if (checkpoint != null && !page.isEmpty()) {
+      checkpoint.update(page.get(page.size() - 1), processed);
+    }
+  }
+
+  private Mono<List<String>> fetchPage(String statement, String lastKey) {
+    return throttle.acquireReactive(1, 0)
+        .then(Mono.defer(() -> {
+          long start = System.nanoTime();
+          if (statistics != null) {
+            statistics.addQueryOperations(1);
+          }
+          return cluster.query(statement, queryOptions().parameters(JsonObject.create().put("lastKey", lastKey)))
+              .flatMap(result -> result.rowsAs(String.class).collectList())
+              .doOnSuccess(page -> throttle.recordQueryLatency(System.nanoTime() - start));
+        }));
+  }
+
+  /**
+   * @return true if the document has been replaced, false if the transformation returned null
+   */
+  private Mono<Boolean> migrateDocument(String key, Function<JsonObject, JsonObject> transformation, BulkMigrationStats stats) {
+    return throttle.acquireReactive(1, 0)
+        .then(timed(Mono.defer(() -> collection.get(key))))
+        .flatMap(document -> {
+          JsonObject transformed = transformation.apply(document.contentAsObject());
+          if (transformed == null) {
+            return Mono.just(false);
+          }
+          byte[] content = transformed.toBytes();
+          return throttle.acquireReactive(1, content.length)
+              .then(timed(Mono.defer(() -> collection.replace(key, transformed, replaceOptions().cas(document.cas())))))
+              .thenReturn(true);
+        })
+        .retryWhen(Retry.max(MAX_CAS_RETRIES)
+            .filter(e -> e instanceof CasMismatchException)
+            .doBeforeRetry(signal -> stats.casRetry()))
+        .doOnNext(updated -> {
+          stats.processed();
+          if (updated) {
+            stats.updated();
+          } else {
+            stats.skipped();
+          }
+          if (statistics != null) {
+            statistics.add(updated ? 1 : 0, 1);
+          }
+        })
+        .onErrorResume(DocumentNotFoundException.class, e -> {
+          stats.missing();
+          return Mono.empty();
+        });
+  }
+
+  private <T> Mono<T> timed(Mono<T> operation) {
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      if (statistics != null) {
+        statistics.addKvOperations(1);
+      }
+      return operation.doOnSuccess(result -> throttle.recordKvLatency(System.nanoTime() - start));
+    });
+  }
+
+  /**
+   * @param concurrency max number of documents read or replaced at the same time, default is 32
+   * @return DocumentMigrator object for fluent interface
+   */
+  public DocumentMigrator setConcurrency(int concurrency) {
+    this.concurrency = concurrency;
+    return this;
+  }
+
+  /**
+   * @param pageSize number of keys fetched by each query, default is 1000
+   * @return DocumentMigrator object for fluent interface
+   */
+  public DocumentMigrator setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * Starts after the last key of the checkpoint and records the progress after each page, so an interrupted
+   * migration is resumed instead of started again
+   *
+   * @param checkpoint checkpoint of the changeset
+   * @return DocumentMigrator object for fluent interface
+   */
+  public DocumentMigrator setCheckpoint(Checkpoint checkpoint) {
+    this.checkpoint = checkpoint;
+    return this;
+  }
+
+  /**
+   * Only migrates the keys of the partition, they are selected by the key query (Couchbase Server 7.1 or later)
+   *
+   * @param partition partition of a partitioned changeset
+   * @return DocumentMigrator object for fluent interface
+   */
+  public DocumentMigrator setPartition(ChangeSetPartition partition) {
+    this.partition = partition;
+    return this;
+  }
+
+  /**
+   * Adds the processed documents to the result count, the replaced documents to the mutation count, and counts the
+   * KV operations and the key queries
+   *
+   * @param statistics statistics of the changeset, set automatically when the migrator is a changeset parameter
+   * @return DocumentMigrator object for fluent interface
+   */
+  public DocumentMigrator setStatistics(ChangeSetStatistics statistics) {
+    this.statistics = statistics;
+    return this;
+  }
+
+  /**
+   * Paces the reads, the replaces and the key queries, and reports their latency to the throttle
+   *
+   * @param throttle throttle shared by the migrations, set automatically when the migrator is a changeset parameter
+   * @return DocumentMigrator object for fluent interface
+   */
+  public DocumentMigrator setThrottle(MigrationThrottle throttle) {
+    this.throttle = throttle;
+    return this;
+  }
+
+  /**
+   * @param reportInterval how often the throughput is logged, default is 10 seconds
+   * @return DocumentMigrator object for fluent interface
+   */
+  public DocumentMigrator setReportInterval(Duration reportInterval) {
+    this.reportInterval = reportInterval;
+    return this;
+  }
+}
@@ -0,0 +1,254 @@
+package com.github.couchversion.bulk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the traffic of the migrations, so a bulk changeset doesn't take the cluster capacity away from the live
+ * workload. The budget is a number of operations and of bytes per second, shared by all the changesets using the
+ * throttle, and it adapts to the observed latency (additive increase, multiplicative decrease):
+ * <ul>
+ * <li>if more than 10% of the KV or query operations of an adjustment interval are slower than their threshold,
+ * the budget is divided by two, down to the min rate factor</li>
+ * <li>otherwise the budget grows back by a step of the configured rate, up to the configured rate</li>
+ * </ul>
+ * It can be declared as a changeset parameter, the {@link DocumentMigrator} parameter uses it as well:
+ * <pre>
+ * &#64;ChangeSet(order = "001", id = "backfill", author = "testAuthor")
+ * public void backfill(Collection collection, MigrationThrottle throttle) {
+ *   for (String key : keys) {
+ *     throttle.acquire(1, 0);
+ *     long start = System.nanoTime();
+ *     collection.upsert(key, ...);
+ *     throttle.recordKvLatency(System.nanoTime() - start);
+ *   }
+ * }
+ * </pre>
+ */
+public class MigrationThrottle {
+  private static final Logger logger = LoggerFactory.getLogger(MigrationThrottle.class);
+
+  private static final double SLOW_FRACTION = 0.1;
+  private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final double maxOpsPerSecond;
+  private final double maxBytesPerSecond;
+  private final LongSupplier clock;
+
+  private long kvLatencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(20);
+  private long queryLatencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(500);
+  private long adjustIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+  private double minRateFactor = 0.05;
+  private double increaseStep = 0.1;
+  private double decreaseFactor = 0.5;
+
+  private double rateFactor = 1;
+  private long nextFreeNanos;
+  private long nextAdjustNanos;
+  private long kvSamples;
+  private long slowKvSamples;
+  private long querySamples;
+  private long slowQuerySamples;
+
+  /**
+   * @param maxOpsPerSecond max operations per second, 0 for no limit
+   * @param maxBytesPerSecond max bytes written per second, 0 for no limit
+   */
+  public MigrationThrottle(double maxOpsPerSecond, double maxBytesPerSecond) {
+    this(maxOpsPerSecond, maxBytesPerSecond, System::nanoTime);
+  }
+
+  MigrationThrottle(double maxOpsPerSecond, double maxBytesPerSecond, LongSupplier clock) {
+    this.maxOpsPerSecond = maxOpsPerSecond;
+    this.maxBytesPerSecond = maxBytesPerSecond;
+    this.clock = clock;
+    this.nextFreeNanos = clock.getAsLong();
+    this.nextAdjustNanos = nextFreeNanos + adjustIntervalNanos;
+  }
+
+  /**
+   * @return a throttle which never waits
+   */
+  public static MigrationThrottle unlimited() {
+    return new MigrationThrottle(0, 0);
+  }
+
+  /**
+   * Reserves the budget of the operations and waits until they can be sent. If the thread is interrupted, it
+   * returns right away with the interrupt flag set.
+   *
+   * @param ops number of operations
+   * @param bytes number of bytes sent by the operations
+   */
+  public void acquire(int ops, long bytes) {
+    long waitNanos = reserve(ops, bytes);
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Reserves the budget of the operations when subscribed, and completes when they can be sent
+   */
+  public Mono<Void> acquireReactive(int ops, long bytes) {
+    return Mono.defer(() -> {
+      long waitNanos = reserve(ops, bytes);
+      return waitNanos > 0 ? Mono.delay(Duration.ofNanos(waitNanos)).then() : Mono.empty();
+    });
+  }
+
+  /**
+   * @return time to wait before sending the operations, in nanoseconds
+   */
+  synchronized long reserve(int ops, long bytes) {
+    double opsPerSecond = maxOpsPerSecond * rateFactor;
+    double bytesPerSecond = maxBytesPerSecond * rateFactor;
+    double seconds = Math.max(
+        opsPerSecond > 0 ? ops / opsPerSecond : 0,
+        bytesPerSecond > 0 ? bytes / bytesPerSecond : 0);
+    if (seconds == 0) {
+      return 0;
+    }
+
+    long now = clock.getAsLong();
+    // an idle throttle allows a short burst, not the whole budget it didn't use
+    long start = Math.max(nextFreeNanos, now - BURST_NANOS);
+    nextFreeNanos = start + (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+    return Math.max(0, start - now);
+  }
+
+  /**
+   * @param latencyNanos latency of a KV operation sent by a migration
+   */
+  public synchronized void recordKvLatency(long latencyNanos) {
+    kvSamples++;
+    if (latencyNanos > kvLatencyThresholdNanos) {
+      slowKvSamples++;
+    }
+    adjust();
+  }
+
+  /**
+   * @param latencyNanos latency of a query sent by a migration
+   */
+  public synchronized void recordQueryLatency(long latencyNanos) {
+    querySamples++;
+    if (latencyNanos > queryLatencyThresholdNanos) {
+      slowQuerySamples++;
+    }
+    adjust();
+  }
+
+  private void adjust() {
+    long now = clock.getAsLong();
+    if (now < nextAdjustNanos) {
+      return;
+    }
+    boolean slow = slowKvSamples > kvSamples * SLOW_FRACTION || slowQuerySamples > querySamples * SLOW_FRACTION;
+    double previous = rateFactor;
+    if (slow) {
+      rateFactor = Math.max(minRateFactor, rateFactor * decreaseFactor);
+    } else {
+      rateFactor = Math.min(1, rateFactor + increaseStep);
+    }
+    if (rateFactor != previous) {
+      logger.debug("Migration throttle {} to {}% of the budget, {}/{} slow KV and {}/{} slow query operations",
+          slow ? "backing off" : "ramping up", Math.round(rateFactor * 100), slowKvSamples, kvSamples,
+          slowQuerySamples, querySamples);
+    }
+    kvSamples = slowKvSamples = querySamples = slowQuerySamples = 0;
+    nextAdjustNanos = now + adjustIntervalNanos;
+  }
+
+  /**
+   * @return current fraction of the configured budget, between the min rate factor and 1
+   */
+  public synchronized double getRateFactor() {
+    return rateFactor;
+  }
+
+  /**
+   * @return current operations per second, 0 if there is no limit
+   */
+  public synchronized double getOpsPerSecond() {
+    return maxOpsPerSecond * rateFactor;
+  }
+
+  /**
+   * @return current bytes per second, 0 if there is no limit
+   */
+  public synchronized double getBytesPerSecond() {
+    return maxBytesPerSecond * rateFactor;
+  }
+
+  /**
+   * @param kvLatencyThreshold KV latency above which the budget is reduced, default is 20ms
+   * @return MigrationThrottle object for fluent interface
+   */
+  public synchronized MigrationThrottle setKvLatencyThreshold(Duration kvLatencyThreshold) {
+    this.kvLatencyThresholdNanos = kvLatencyThreshold.toNanos();
+    return this;
+  }
+
+  /**
+   * @param queryLatencyThreshold query latency above which the budget is reduced, default is 500ms
+   * @return MigrationThrottle object for fluent interface
+   */
+  public synchronized MigrationThrottle setQueryLatencyThreshold(Duration queryLatencyThreshold) {
+    this.queryLatencyThresholdNanos = queryLatencyThreshold.toNanos();
+    return this;
+  }
+
+  /**
+   * @param adjustInterval how often the budget is adapted to the observed latency, default is 1 second
+   * @return MigrationThrottle object for fluent interface
+   */
+  public synchronized MigrationThrottle setAdjustInterval(Duration adjustInterval) {
+    this.adjustIntervalNanos = adjustInterval.toNanos();
+    this.nextAdjustNanos = clock.getAsLong() + adjustIntervalNanos;
+    return this;
+  }
+
+  /**
+   * @param minRateFactor lowest fraction of the budget the throttle backs off to, default is 0.05
+   * @return MigrationThrottle object for fluent interface
+   */
+  public synchronized MigrationThrottle setMinRateFactor(double minRateFactor) {
+    this.minRateFactor = minRateFactor;
+    return this;
+  }
+
+  /**
+   * @param increaseStep fraction of the budget added after an interval with a good latency, default is 0.1
+   * @return MigrationThrottle object for fluent interface
+   */
+  public synchronized MigrationThrottle setIncreaseStep(double increaseStep) {
+    this.increaseStep = increaseStep;
+    return this;
+  }
+
+  /**
+   * @param decreaseFactor factor applied to the budget after an interval with a bad latency, default is 0.5
+   * @return MigrationThrottle object for fluent interface
+   */
+  public synchronized MigrationThrottle setDecreaseFactor(double decreaseFactor) {
+    this.decreaseFactor = decreaseFactor;
+    return this;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "[MigrationThrottle: opsPerSecond=" + Math.round(getOpsPerSecond()) +
+        ", bytesPerSecond=" + Math.round(getBytesPerSecond()) +
+        ", rateFactor=" + rateFactor + "]";
+  }
+}
@@ -0,0 +1,91 @@
+package com.github.couchversion.changeset;
+
+import com.couchbase.client.java.query.QueryScanConsistency;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * N1QL mutation executed by a changeset as repeated {@code LIMIT} batches, until a batch doesn't mutate any document.
+ * Put it next to @{@link ChangeSet}, the method is invoked first and may be empty:
+ * <pre>
+ * &#64;ChangeSet(order = "001", id = "activateUsers", author = "testAuthor")
+ * &#64;BatchedQuery(statement = "UPDATE ${keyspace} SET status = 'active' WHERE type = 'user' AND status IS MISSING",
+ *     batchSize = 5000)
+ * public void activateUsers() {}
+ * </pre>
+ * The WHERE clause must exclude the documents already mutated, otherwise every batch mutates the same documents
+ * again: the changeset fails after {@link #maxBatches()} batches.
+ * The placeholders {@code ${keyspace}}, {@code ${batchSize}}, {@code ${lane}} and {@code ${lanes}} are replaced,
+ * and {@code LIMIT ${batchSize}} is appended when the statement doesn't use {@code ${batchSize}}; a statement with a
+ * {@code RETURNING} or {@code LIMIT} clause must place {@code LIMIT ${batchSize}} itself.
+ * The total mutation count is stored in the ChangeEntry.
+ * @see com.github.couchversion.bulk.BatchedQueryExecutor
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface BatchedQuery {
+
+  /**
+   * Scope of the {@code ${keyspace}} collection.
+   * Optional (default is "_default")
+   * @return scope name
+   */
+  String scope() default "";
+
+  /**
+   * Collection replacing {@code ${keyspace}}.
+   * Optional (default is the default collection of the bucket)
+   * @return collection name
+   */
+  String collection() default "";
+
+  /**
+   * Mutation executed in batches.
+   * Optional (default is the String returned by the changeset method)
+   * @return N1QL statement
+   */
+  String statement() default "";
+
+  /**
+   * Documents mutated by each execution of the statement.
+   * Optional (default is 1000)
+   * @return batch size
+   */
+  int batchSize() default 1000;
+
+  /**
+   * Timeout of each execution of the statement.
+   * Optional (default is 0, the timeout of the cluster environment)
+   * @return timeout in milliseconds
+   */
+  long timeoutMillis() default 0;
+
+  /**
+   * Number of batch loops running at the same time, each one with its own {@code ${lane}} between 0 and
+   * {@code ${lanes} - 1}. The statement must use {@code ${lane}} to split the documents between the lanes,
+   * e.g. {@code AND MOD(orderNumber, ${lanes}) = ${lane}}.
+   * Optional (default is 1)
+   * @return number of lanes
+   */
+  int lanes() default 1;
+
+  /**
+   * Max executions of the statement by each lane. A lane whose batches still mutate documents after them most likely
+   * mutates the same documents again, because the WHERE clause doesn't exclude the ones already mutated: the changeset
+   * fails instead of looping forever. Raise it for keyspaces of more than {@code maxBatches * batchSize} documents.
+   * Optional (default is 100000, 0 for no limit)
+   * @return max number of batches per lane
+   */
+  long maxBatches() default 100000;
+
+  /**
+   * Scan consistency of each execution of the statement. With NOT_BOUNDED a batch can miss the documents the index
+   * hasn't caught up with, and the loop stops early.
+   * Optional (default is REQUEST_PLUS)
+   * @return scan consistency
+   */
+  QueryScanConsistency scanConsistency() default QueryScanConsistency.REQUEST_PLUS;
+}
@@ -14,7 +14,14 @@ public class ChangeEntry {
   private Integer retries;
   private String changeLogClass;
   private String changeSetMethodName;
-  
+  private Long startedAt;
+  private Long finishedAt;
+  private Long durationMillis;
+  private Integer attempts;
+  private String executedBy;
+  private Long mutationCount;
+  private Long resultCount;
+
   public ChangeEntry(String changeId, String author, Date timestamp, Integer retries,
                      String changeLogClass, String changeSetMethodName) {
 
@@ -67,6 +74,65 @@ public class ChangeEntry {
 
   public int getRetries(){return this.retries;}
 
+  /**
+   * Records how the changeset has been executed, called once the changeset method has completed
+   *
+   * @param startedAt start of the execution, in milliseconds
+   * @param finishedAt end of the execution, in milliseconds
+   * @param attempts number of invocations, including the failed ones
+   * @param executedBy id of the instance which executed the changeset
+   */
+  public void setExecution(long startedAt, long finishedAt, int attempts, String executedBy) {
+    this.startedAt = startedAt;
+    this.finishedAt = finishedAt;
+    this.durationMillis = finishedAt - startedAt;
+    this.attempts = attempts;
+    this.executedBy = executedBy;
+  }
+
+  /**
+   * @param mutationCount documents mutated by the statements of the changeset
+   * @param resultCount results returned by the statements of the changeset
+   */
+  public void setQueryStatistics(long mutationCount, long resultCount) {
+    this.mutationCount = mutationCount;
+    this.resultCount = resultCount;
+  }
+
+  public Long getStartedAt() {
+    return this.startedAt;
+  }
+
+  public Long getFinishedAt() {
+    return this.finishedAt;
+  }
+
+  public Long getDurationMillis() {
+    return this.durationMillis;
+  }
+
+  public Integer getAttempts() {
+    return this.attempts;
+  }
+
+  public String getExecutedBy() {
+    return this.executedBy;
+  }
+
+  /**
+   * @return documents mutated by the changeset, null if it didn't record any query statistics
+   */
+  public Long getMutationCount() {
+    return this.mutationCount;
+  }
+
+  /**
+   * @return results returned to the changeset, null if it didn't record any query statistics
+   */
+  public Long getResultCount() {
+    return this.resultCount;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
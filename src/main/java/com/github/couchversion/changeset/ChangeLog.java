@@ -19,4 +19,16 @@ public @interface ChangeLog {
    * @return order
    */
   String order() default "";
+
+  /**
+   * Default dependencies of the changesets of this class, see {@link ChangeSet#dependsOn()}
+   * @return ids of the required changesets
+   */
+  String[] dependsOn() default {};
+
+  /**
+   * Default parallel group of the changesets of this class, see {@link ChangeSet#parallelGroup()}
+   * @return name of the group
+   */
+  String parallelGroup() default "";
 }
@@ -42,8 +42,41 @@ public @interface ChangeSet {
    */
   boolean runAlways() default false;
 
+  /**
+   * Max number of executions of a failed change set, see {@link #retryOn()}.
+   * Optional (default is 0, the change set isn't retried)
+   * @return max number of executions
+   */
   int retries() default 0;
 
+  /**
+   * Failures which are retried, including the ones they cause.
+   * Optional (default is the transient Couchbase errors: timeouts, temporary failures, overloaded or rebalancing cluster)
+   * @return retried exceptions
+   */
+  Class<? extends Throwable>[] retryOn() default {};
+
+  /**
+   * Delay before the first retry, doubled after each attempt, with a random jitter.
+   * Optional (default is 100)
+   * @return delay in milliseconds
+   */
+  long retryBackoffMillis() default 100;
+
+  /**
+   * Max delay between two attempts.
+   * Optional (default is 10000)
+   * @return delay in milliseconds
+   */
+  long retryMaxBackoffMillis() default 10000;
+
+  /**
+   * No more attempts are made once this time has elapsed since the first one.
+   * Optional (default is 0, no limit)
+   * @return time in milliseconds
+   */
+  long retryMaxElapsedMillis() default 0;
+
   /**
    * Executes the change set after an interruption, such as an application shutdown, or server a crash.
    * Optional (default is true)
@@ -51,4 +84,28 @@ public @interface ChangeSet {
    */
   boolean restartInterrupted() default true;
 
+  /**
+   * Ids of the changesets which must be applied before this one. A changeset with dependencies doesn't wait for
+   * the changesets preceding it in the order, it can run concurrently with them (see CouchVersion#setParallelism).
+   * Optional (default is the dependsOn of the changelog)
+   * @return ids of the required changesets
+   */
+  String[] dependsOn() default {};
+
+  /**
+   * Consecutive changesets with the same parallel group can run concurrently with each other, for instance index
+   * builds on different collections (see CouchVersion#setParallelism).
+   * Optional (default is the parallelGroup of the changelog)
+   * @return name of the group
+   */
+  String parallelGroup() default "";
+
+  /**
+   * Splits the changeset into partitions of the keyspace (groups of vBuckets) which are applied by all the running
+   * instances, see {@link com.github.couchversion.ChangeSetPartition}. The changeset is applied when all partitions are done.
+   * Optional (default is 0, the changeset isn't partitioned)
+   * @return number of partitions
+   */
+  int partitions() default 0;
+
 }
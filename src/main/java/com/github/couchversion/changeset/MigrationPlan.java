@@ -0,0 +1,124 @@
+package com.github.couchversion.changeset;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable, already sorted and profile-filtered list of changesets found in the scan package.
+ * It is built once per execution and shared by the state check, the migration and the runAlways passes.
+ *
+ * @see com.github.couchversion.utils.ChangeService#createMigrationPlan()
+ */
+public class MigrationPlan {
+
+  private final List<PlannedChangeSet> changeSets;
+  private final List<Class<?>> changeLogClasses;
+  private final List<String> changeEntryIds;
+  private final boolean hasRunAlwaysChangeSets;
+  private final boolean hasPartitionedChangeSets;
+  private final String fingerprint;
+
+  public MigrationPlan(List<PlannedChangeSet> changeSets) {
+    Set<Class<?>> classes = new LinkedHashSet<>();
+    List<String> ids = new ArrayList<>();
+    boolean runAlways = false;
+    boolean partitioned = false;
+
+    for (PlannedChangeSet changeSet : changeSets) {
+      classes.add(changeSet.getChangeLogClass());
+      partitioned |= changeSet.isPartitioned();
+      if (changeSet.isRunAlways()) {
+        runAlways = true;
+      } else {
+        ids.add(changeSet.getEntryId());
+      }
+    }
+
+    this.changeSets = Collections.unmodifiableList(new ArrayList<>(changeSets));
+    this.changeLogClasses = Collections.unmodifiableList(new ArrayList<>(classes));
+    this.changeEntryIds = Collections.unmodifiableList(ids);
+    this.hasRunAlwaysChangeSets = runAlways;
+    this.hasPartitionedChangeSets = partitioned;
+    this.fingerprint = fingerprint(ids);
+  }
+
+  /**
+   * SHA-256 of the sorted ids, it doesn't depend on the changeset order or on the classpath scan order
+   */
+  private static String fingerprint(List<String> ids) {
+    List<String> sorted = new ArrayList<>(ids);
+    Collections.sort(sorted);
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for (String id : sorted) {
+        digest.update(id.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+      }
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * @return all changesets in execution order
+   */
+  public List<PlannedChangeSet> getChangeSets() {
+    return changeSets;
+  }
+
+  /**
+   * @return changelog classes in execution order
+   */
+  public List<Class<?>> getChangeLogClasses() {
+    return changeLogClasses;
+  }
+
+  /**
+   * @return ids of the ChangeEntry documents of all changesets which are not marked as runAlways
+   */
+  public List<String> getChangeEntryIds() {
+    return changeEntryIds;
+  }
+
+  /**
+   * @return fingerprint of the ids of the changesets which must be applied once, for the active profiles
+   */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  public boolean hasRunAlwaysChangeSets() {
+    return hasRunAlwaysChangeSets;
+  }
+
+  public boolean hasPartitionedChangeSets() {
+    return hasPartitionedChangeSets;
+  }
+
+  /**
+   * @return the changeset with this id, or null if it isn't part of the plan
+   */
+  public PlannedChangeSet getChangeSet(String changeId) {
+    for (PlannedChangeSet changeSet : changeSets) {
+      if (changeSet.getChangeId().equals(changeId)) {
+        return changeSet;
+      }
+    }
+    return null;
+  }
+
+  public boolean isEmpty() {
+    return changeSets.isEmpty();
+  }
+}
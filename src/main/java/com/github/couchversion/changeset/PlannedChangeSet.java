@@ -0,0 +1,126 @@
+package com.github.couchversion.changeset;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Metadata of a single @{@link ChangeSet} method, read once from its annotation when the
+ * {@link MigrationPlan} is built.
+ *
+ * @see MigrationPlan
+ */
+public class PlannedChangeSet {
+
+  private final Class<?> changeLogClass;
+  private final Method method;
+  private final String changeId;
+  private final String author;
+  private final String order;
+  private final int retries;
+  private final boolean runAlways;
+  private final boolean restartInterrupted;
+  private final List<String> dependsOn;
+  private final String parallelGroup;
+  private final int partitions;
+
+  public PlannedChangeSet(Class<?> changeLogClass, Method method) {
+    ChangeSet annotation = method.getAnnotation(ChangeSet.class);
+    this.changeLogClass = changeLogClass;
+    this.method = method;
+    this.changeId = annotation.id();
+    this.author = annotation.author();
+    this.order = annotation.order();
+    this.retries = annotation.retries();
+    this.runAlways = annotation.runAlways();
+    this.restartInterrupted = annotation.restartInterrupted();
+    this.partitions = annotation.partitions();
+
+    ChangeLog changeLog = changeLogClass.getAnnotation(ChangeLog.class);
+    String[] dependencies = annotation.dependsOn();
+    String group = annotation.parallelGroup();
+    if (changeLog != null) {
+      dependencies = dependencies.length > 0 ? dependencies : changeLog.dependsOn();
+      group = !group.isEmpty() ? group : changeLog.parallelGroup();
+    }
+    this.dependsOn = Collections.unmodifiableList(Arrays.asList(dependencies));
+    this.parallelGroup = group;
+  }
+
+  public ChangeEntry createChangeEntry() {
+    return new ChangeEntry(changeId, author, new Date(), retries, changeLogClass.getName(), method.getName());
+  }
+
+  /**
+   * @return id of the document which stores this changeset's {@link ChangeEntry}
+   */
+  public String getEntryId() {
+    return "ChangeEntry::" + changeId;
+  }
+
+  public Class<?> getChangeLogClass() {
+    return changeLogClass;
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  public String getChangeId() {
+    return changeId;
+  }
+
+  public String getAuthor() {
+    return author;
+  }
+
+  public String getOrder() {
+    return order;
+  }
+
+  public int getRetries() {
+    return retries;
+  }
+
+  public boolean isRunAlways() {
+    return runAlways;
+  }
+
+  public boolean isRestartInterrupted() {
+    return restartInterrupted;
+  }
+
+  /**
+   * @return ids of the changesets which must be applied before this one, empty if it depends on its predecessors
+   */
+  public List<String> getDependsOn() {
+    return dependsOn;
+  }
+
+  /**
+   * @return parallel group, empty if the changeset doesn't belong to any group
+   */
+  public String getParallelGroup() {
+    return parallelGroup;
+  }
+
+  /**
+   * @return number of partitions, 0 if the changeset isn't partitioned
+   */
+  public int getPartitions() {
+    return partitions;
+  }
+
+  public boolean isPartitioned() {
+    return partitions > 0;
+  }
+
+  @Override
+  public String toString() {
+    return "[ChangeSet: changeId=" + changeId +
+        ", changeLogClass=" + changeLogClass.getName() +
+        ", changeSetMethod=" + method.getName() + "]";
+  }
+}
@@ -1,6 +1,7 @@
 package com.github.couchversion.dao;
 
 import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Collection;
 import com.github.couchversion.changeset.ChangeEntry;
 
 /**
@@ -15,7 +16,15 @@ public class BucketWrapper {
   }
 
   public void insert(ChangeEntry changeEntry){
-    bucket.defaultCollection().insert(changeEntry._getId(), changeEntry);
+    insert(bucket.defaultCollection(), changeEntry);
+  }
+
+  public void insert(Collection collection, ChangeEntry changeEntry){
+    collection.insert(changeEntry._getId(), changeEntry);
+  }
+
+  public void upsert(Collection collection, ChangeEntry changeEntry){
+    collection.upsert(changeEntry._getId(), changeEntry);
   }
 
 }
@@ -0,0 +1,89 @@
+package com.github.couchversion.dao;
+
+/**
+ * Progress of a changeset in flight, stored next to its ChangeEntry and removed once the changeset is applied
+ *
+ * @see com.github.couchversion.Checkpoint
+ */
+public class ChangeCheckpoint {
+
+  private String changeId;
+  private String cursor;
+  private String lastKey;
+  private Long processed;
+  private String owner;
+  private Long timestamp;
+
+  public ChangeCheckpoint() {}
+
+  public ChangeCheckpoint(String changeId, String cursor, String lastKey, Long processed, String owner, Long timestamp) {
+    this.changeId = changeId;
+    this.cursor = cursor;
+    this.lastKey = lastKey;
+    this.processed = processed;
+    this.owner = owner;
+    this.timestamp = timestamp;
+  }
+
+  public String getChangeId() {
+    return changeId;
+  }
+
+  public void setChangeId(String changeId) {
+    this.changeId = changeId;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public String getLastKey() {
+    return lastKey;
+  }
+
+  public void setLastKey(String lastKey) {
+    this.lastKey = lastKey;
+  }
+
+  public Long getProcessed() {
+    return processed;
+  }
+
+  public void setProcessed(Long processed) {
+    this.processed = processed;
+  }
+
+  /**
+   * @return instance which is applying the changeset
+   */
+  public String getOwner() {
+    return owner;
+  }
+
+  public void setOwner(String owner) {
+    this.owner = owner;
+  }
+
+  /**
+   * @return time of the last update
+   */
+  public Long getTimestamp() {
+    return timestamp;
+  }
+
+  public void setTimestamp(Long timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  @Override
+  public String toString() {
+    return "[ChangeCheckpoint: changeId=" + changeId +
+        ", processed=" + processed +
+        ", lastKey=" + lastKey +
+        ", owner=" + owner + "]";
+  }
+}
@@ -0,0 +1,36 @@
+package com.github.couchversion.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single document listing all applied changesets, used instead of one ChangeEntry document per changeset
+ * when the manifest storage is enabled.
+ */
+public class ChangeManifest {
+
+  private String type = "couchversionManifest";
+  private List<ManifestEntry> entries = new ArrayList<>();
+
+  public ChangeManifest() {}
+
+  public ChangeManifest(List<ManifestEntry> entries) {
+    this.entries = entries;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public void setType(String type) {
+    this.type = type;
+  }
+
+  public List<ManifestEntry> getEntries() {
+    return entries;
+  }
+
+  public void setEntries(List<ManifestEntry> entries) {
+    this.entries = entries;
+  }
+}
@@ -1,88 +1,141 @@
 package com.github.couchversion.dao;
 
-import com.couchbase.client.java.Bucket;
-import com.couchbase.client.java.Cluster;
-import com.couchbase.client.java.json.JsonObject;
-import com.couchbase.client.java.kv.ExistsResult;
-import com.couchbase.client.java.query.QueryOptions;
-import com.couchbase.client.java.query.QueryScanConsistency;
 import com.github.couchversion.changeset.ChangeEntry;
-import com.github.couchversion.utils.Partition;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
- * @author deniswsrosa
+ * State store of CouchVersion: applied changesets, lock, checkpoints and partition claims.
+ *
+ * @see CouchbaseCouchVersionDAO
+ * @see InMemoryCouchVersionDAO
  */
-public class CouchVersionDAO {
-  private static final Logger logger = LoggerFactory.getLogger("CouchVersion DAO");
-
-  private BucketWrapper bucketWrapper;
-  private Bucket bucket;
-  private Cluster cluster;
-
-  private final String lockId = "couchversion_lock";
-
-  public CouchVersionDAO(Cluster cluster, Bucket bucket) {
-    this.cluster = cluster;
-    this.bucket = bucket;
-    this.bucketWrapper = new BucketWrapper(bucket);
-  }
-
-  public boolean isNewChange(ChangeEntry changeEntry) {
-    ExistsResult entry = bucket.defaultCollection().exists(changeEntry._getId());
-    return !entry.exists();
-  }
-
-  public boolean hasNewChanges(List<String> changeEntries) {
-    List<List<String>> partitions = Partition.ofSize(changeEntries, 50);
-
-    for(List<String> partition: partitions) {
-      String query = "select count(*) as val from `"+bucket.name()+"` USE KEYS ["+
-              partition.stream()
-                      .map(e-> "'"+e+"'")
-                      .collect(Collectors.joining(","))
-              +"]";
-
-      Long val = cluster.query(query, QueryOptions.queryOptions()
-              .scanConsistency(QueryScanConsistency.REQUEST_PLUS) )
-              .rowsAs(SingleResultLongVO.class).get(0).getVal();
-
-      //has new changes, there are ids in the code that are not in the database
-      if(val < partition.size()) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  public void save(ChangeEntry changeEntry) {
-    bucketWrapper.insert(changeEntry);
-  }
-
-  public boolean isLocked() {
-    return bucket.defaultCollection().exists(lockId).exists();
-  }
-
-  public boolean getLock(Long timestamp) {
-    bucket.defaultCollection().insert(lockId, new CouchVersionLock(timestamp));
-
-    //sanity check to be sure that we got the lock
-    CouchVersionLock lock = bucket.defaultCollection().get(lockId).contentAs(CouchVersionLock.class);
-    return lock.getLockTimestamp().longValue() == timestamp.longValue();
-  }
-
-
-  public void releaseLock(Long timestamp) {
-    CouchVersionLock lock = bucket.defaultCollection().get(lockId).contentAs(CouchVersionLock.class);
-
-    if( lock.getLockTimestamp() == timestamp) {
-      throw new IllegalStateException("Lock is invalid, expectedTimestamp = "+timestamp+" lockTimestamp="+lock.getLockTimestamp());
-    }
-
-    bucket.defaultCollection().remove(lockId);
-  }
+public interface CouchVersionDAO {
+
+  /**
+   * @return true if the changeset of the entry hasn't been applied yet
+   */
+  boolean isNewChange(ChangeEntry changeEntry);
+
+  /**
+   * Fetches the applied state of the given entries, the result can be kept in memory and used by {@link #isNewChange}
+   *
+   * @param changeEntries ids of the ChangeEntry documents
+   * @return true if at least one of the entries hasn't been applied yet
+   */
+  boolean hasNewChanges(List<String> changeEntries);
+
+  /**
+   * Records an applied changeset
+   */
+  void save(ChangeEntry changeEntry);
+
+  /**
+   * Stores the execution statistics of an entry saved before its changeset was executed
+   */
+  void update(ChangeEntry changeEntry);
+
+  /**
+   * @return id of this instance, stored in the locks, claims and entries it writes
+   */
+  String getInstanceId();
+
+  /**
+   * @return fingerprint stored by the last successful migration, or null if there is none
+   */
+  String getFingerprint();
+
+  void saveFingerprint(String fingerprint);
+
+  /**
+   * @return progress saved by an interrupted or running changeset, or null if there is none
+   */
+  ChangeCheckpoint getCheckpoint(String changeId);
+
+  void saveCheckpoint(ChangeCheckpoint checkpoint);
+
+  void removeCheckpoint(String changeId);
+
+  /**
+   * @return true if the lock lease is held by an instance and hasn't expired
+   */
+  boolean isLocked();
+
+  /**
+   * Acquires the lock lease, an expired lease can be taken over
+   *
+   * @param timestamp acquisition time
+   * @return true if this instance holds the lock
+   */
+  boolean getLock(Long timestamp);
+
+  /**
+   * Extends the lease of the lock held by this instance
+   *
+   * @return false if the lease has been lost
+   */
+  boolean renewLock();
+
+  void releaseLock(Long timestamp);
+
+  /**
+   * Claims a partition which is neither done nor leased by another instance
+   *
+   * @return CAS of the claim, to renew and complete it, or null if the partition can't be claimed
+   */
+  Long claimPartition(String changeId, int partition);
+
+  /**
+   * @return new CAS of the claim, or null if the lease has been lost
+   */
+  Long renewPartition(String changeId, int partition, long cas);
+
+  /**
+   * @return false if the lease had been lost, the partition might be applied again by another instance
+   */
+  boolean completePartition(String changeId, int partition, long cas);
+
+  /**
+   * Gives up a claimed partition, so another instance can claim it right away
+   */
+  void releasePartition(String changeId, int partition, long cas);
+
+  boolean isPartitionDone(String changeId, int partition);
+
+  void removePartitions(String changeId, int partitions);
+
+  /**
+   * Announces the partitioned changeset applied by the lock holder to the waiting instances
+   */
+  void publishPartitionedJob(String changeId, int partitions);
+
+  /**
+   * @return partitioned changeset being applied, or null if there is none
+   */
+  PartitionedJob getPartitionedJob();
+
+  void removePartitionedJob();
+
+  /**
+   * Records deferred indexes not online yet, before the changesets which registered them are saved as applied.
+   * The indexes recorded by the other instances are kept.
+   */
+  void addDeferredIndexes(DeferredIndexBuild.Keyspace indexes);
+
+  /**
+   * @return deferred indexes left unbuilt by a previous migration, or null if there are none
+   */
+  DeferredIndexBuild getDeferredIndexBuild();
+
+  /**
+   * Removes indexes now online from the recorded ones, the document is removed with the last of them
+   */
+  void removeDeferredIndexes(DeferredIndexBuild.Keyspace indexes);
+
+  /**
+   * Copies the state written by previous versions outside of the metadata collection, called by the lock holder
+   *
+   * @param changeEntries ids of the ChangeEntry documents of the running application
+   */
+  void migrateMetadata(List<String> changeEntries);
 }
@@ -8,7 +8,24 @@ public class CouchVersionLock {
         this.lockTimestamp = lockTimestamp;
     }
 
+    public CouchVersionLock(Long lockTimestamp, String owner, Long expiresAt) {
+        this.lockTimestamp = lockTimestamp;
+        this.owner = owner;
+        this.expiresAt = expiresAt;
+    }
+
     private Long lockTimestamp;
+
+    /**
+     * Instance holding the lock
+     */
+    private String owner;
+
+    /**
+     * End of the lease, it is moved forward by every renewal
+     */
+    private Long expiresAt;
+
     public Long getLockTimestamp() {
         return lockTimestamp;
     }
@@ -16,4 +33,20 @@ public class CouchVersionLock {
     public void setLockTimestamp(Long lockTimestamp) {
         this.lockTimestamp = lockTimestamp;
     }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
 }
@@ -0,0 +1,851 @@
+package com.github.couchversion.dao;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.core.error.CasMismatchException;
+import com.couchbase.client.core.error.CouchbaseException;
+import com.couchbase.client.core.error.CollectionExistsException;
+import com.couchbase.client.core.error.DocumentExistsException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.core.error.ScopeExistsException;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.ExistsResult;
+import com.couchbase.client.java.kv.GetResult;
+import com.couchbase.client.java.kv.MutateInSpec;
+import com.couchbase.client.java.manager.collection.CollectionManager;
+import com.couchbase.client.java.manager.collection.CollectionSpec;
+import com.couchbase.client.java.query.QueryScanConsistency;
+import com.github.couchversion.changeset.ChangeEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.couchbase.client.java.kv.InsertOptions.insertOptions;
+import static com.couchbase.client.java.kv.MutateInOptions.mutateInOptions;
+import static com.couchbase.client.java.kv.RemoveOptions.removeOptions;
+import static com.couchbase.client.java.kv.ReplaceOptions.replaceOptions;
+import static com.couchbase.client.java.query.QueryOptions.queryOptions;
+
+/**
+ * Stores the CouchVersion state in documents of the bucket, or of the configured metadata collection
+ *
+ * @author deniswsrosa
+ */
+public class CouchbaseCouchVersionDAO implements CouchVersionDAO {
+  private static final Logger logger = LoggerFactory.getLogger("CouchVersion DAO");
+
+  private BucketWrapper bucketWrapper;
+  private Bucket bucket;
+  private Cluster cluster;
+
+  private final String lockId = "couchversion_lock";
+  private final String manifestId = "couchversion_manifest";
+  private final String fingerprintId = "couchversion_fingerprint";
+  private final String partitionedJobId = "couchversion_partitioned_changeset";
+  private final String metadataMigratedId = "couchversion_metadata_migrated";
+  private final String deferredIndexesId = "couchversion_deferred_indexes";
+  private static final int MAX_MANIFEST_APPEND_ATTEMPTS = 16;
+  private static final int MAX_DEFERRED_INDEXES_UPDATE_ATTEMPTS = 16;
+  private static final String DEFAULT_SCOPE = "_default";
+  private static final long LEGACY_LOCK_TIMEOUT = 5 * 60 * 1000;
+
+  /**
+   * Identifies this application instance as the owner of the lock
+   */
+  private final String instanceId = ManagementFactory.getRuntimeMXBean().getName();
+  private Duration lockLeaseTime = Duration.ofSeconds(30);
+  private volatile CouchVersionLock heldLock;
+  private volatile long lockCas;
+
+  /**
+   * Stores the applied changesets in a single manifest document instead of one document per changeset
+   */
+  private boolean manifestStorage = false;
+  private volatile long manifestCas;
+
+  /**
+   * Collection holding the entries, the lock and the other CouchVersion documents, the default collection if no
+   * metadata scope is configured
+   */
+  private String metadataScope;
+  private String metadataCollectionName;
+  private volatile Collection metadataCollection;
+
+  /**
+   * While the documents of the default collection haven't been removed, instances of previous versions might still
+   * run: the lock of the default collection is held too, and the documents they write are copied under the lock
+   */
+  private volatile Boolean legacyMetadataRemoved;
+  private boolean legacyMetadataCleanup = false;
+  private volatile Long legacyLockCas;
+
+  /**
+   * Max number of concurrent KV lookups while fetching the applied state
+   */
+  private int stateFetchConcurrency = 64;
+
+  /**
+   * Ids checked by the last state fetch, and the ones among them which were already applied
+   */
+  private final Set<String> fetchedEntryIds = ConcurrentHashMap.newKeySet();
+  private final Set<String> appliedEntryIds = ConcurrentHashMap.newKeySet();
+
+  public CouchbaseCouchVersionDAO(Cluster cluster, Bucket bucket) {
+    this.cluster = cluster;
+    this.bucket = bucket;
+    this.bucketWrapper = new BucketWrapper(bucket);
+  }
+
+  /**
+   * Answers from the last state fetch, the ChangeEntry document is checked for the ids which weren't fetched
+   */
+  @Override
+  public boolean isNewChange(ChangeEntry changeEntry) {
+    if (appliedEntryIds.contains(changeEntry._getId())) {
+      return false;
+    }
+    if (fetchedEntryIds.contains(changeEntry._getId())) {
+      return true;
+    }
+    ExistsResult entry = metadataCollection().exists(changeEntry._getId());
+    return !entry.exists();
+  }
+
+  /**
+   * Fetches the applied state of the given entries, the result is kept in memory and used by {@link #isNewChange}
+   *
+   * @param changeEntries ids of the ChangeEntry documents
+   * @return true if at least one of the entries hasn't been applied yet
+   */
+  @Override
+  public boolean hasNewChanges(List<String> changeEntries) {
+    Set<String> ids = new HashSet<>(changeEntries);
+    Set<String> applied = manifestStorage ? fetchManifest(ids) : fetchAppliedEntries(ids);
+    return !applied.containsAll(ids);
+  }
+
+  /**
+   * Checks the existence of all ChangeEntry documents with pipelined KV operations, there are at most
+   * {@link #setStateFetchConcurrency(int) stateFetchConcurrency} requests in flight.
+   */
+  private Set<String> fetchAppliedEntries(Set<String> ids) {
+    long start = System.currentTimeMillis();
+    List<String> applied = existingEntries(metadataCollection(), ids);
+
+    fetchedEntryIds.clear();
+    appliedEntryIds.clear();
+    fetchedEntryIds.addAll(ids);
+    appliedEntryIds.addAll(applied);
+
+    logger.debug("Fetched the state of {} entries in {}ms, {} already applied", ids.size(),
+        System.currentTimeMillis() - start, applied.size());
+    return appliedEntryIds;
+  }
+
+  private List<String> existingEntries(Collection collection, Set<String> ids) {
+    ReactiveCollection reactive = collection.reactive();
+    return Flux.fromIterable(ids)
+        .flatMap(id -> reactive.exists(id)
+            .filter(ExistsResult::exists)
+            .map(result -> id), stateFetchConcurrency)
+        .collectList()
+        .block();
+  }
+
+  /**
+   * Loads the full applied state with a single KV get of the manifest document. The manifest is created from the
+   * existing ChangeEntry documents the first time the manifest storage is used.
+   * The ids missing from the manifest are checked against their ChangeEntry document, as they might have been
+   * applied by an instance which doesn't use the manifest storage yet.
+   */
+  private Set<String> fetchManifest(Set<String> ids) {
+    Collection collection = metadataCollection();
+    ChangeManifest manifest;
+    try {
+      GetResult result = collection.get(manifestId);
+      manifest = result.contentAs(ChangeManifest.class);
+      manifestCas = result.cas();
+    } catch (DocumentNotFoundException e) {
+      manifest = createManifestFromEntries(collection, ids);
+    }
+
+    Set<String> applied = new HashSet<>();
+    for (ManifestEntry entry : manifest.getEntries()) {
+      applied.add(new ChangeEntry(entry.getChangeId())._getId());
+    }
+    Set<String> missing = new HashSet<>(ids);
+    missing.removeAll(applied);
+    applied.addAll(existingEntries(collection, missing));
+
+    fetchedEntryIds.clear();
+    appliedEntryIds.clear();
+    fetchedEntryIds.addAll(ids);
+    appliedEntryIds.addAll(applied);
+    return appliedEntryIds;
+  }
+
+  /**
+   * Seeds the manifest with all the ChangeEntry documents of the collection, including the ones of changesets
+   * which aren't part of this application (other profiles, other changelog packages)
+   */
+  private ChangeManifest createManifestFromEntries(Collection collection, Set<String> ids) {
+    Set<String> entryIds = new HashSet<>(ids);
+    entryIds.addAll(findEntryIds(collection));
+
+    ReactiveCollection reactive = collection.reactive();
+    List<ManifestEntry> entries = Flux.fromIterable(entryIds)
+        .flatMap(id -> reactive.get(id)
+            .map(result -> toManifestEntry(result.contentAsObject()))
+            .onErrorResume(DocumentNotFoundException.class, e -> Mono.empty()), stateFetchConcurrency)
+        .collectList()
+        .block();
+    entries.sort(Comparator.comparing(ManifestEntry::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+    ChangeManifest manifest = new ChangeManifest(entries);
+    try {
+      manifestCas = collection.insert(manifestId, manifest).cas();
+      logger.info("CouchVersion - {} applied changesets moved to the manifest document", entries.size());
+      return manifest;
+    } catch (DocumentExistsException e) {
+      //another instance created it in the meantime
+      GetResult result = collection.get(manifestId);
+      manifestCas = result.cas();
+      return result.contentAs(ChangeManifest.class);
+    }
+  }
+
+  /**
+   * @return ids of all the ChangeEntry documents, only the given ids are used if the keyspace can't be queried
+   * (e.g. there is no primary index), the other entries are then checked one by one by {@link #isNewChange}
+   */
+  private List<String> findEntryIds(Collection collection) {
+    String statement = "SELECT RAW META().id FROM " + keyspace(collection) + " WHERE META().id LIKE 'ChangeEntry::%'";
+    try {
+      return cluster.query(statement, queryOptions().scanConsistency(QueryScanConsistency.REQUEST_PLUS))
+          .rowsAs(String.class);
+    } catch (CouchbaseException e) {
+      logger.warn("CouchVersion - couldn't query the existing ChangeEntry documents, the manifest is created " +
+          "from the changesets of this application only", e);
+      return Collections.emptyList();
+    }
+  }
+
+  private static String keyspace(Collection collection) {
+    if (DEFAULT_SCOPE.equals(collection.scopeName()) && DEFAULT_SCOPE.equals(collection.name())) {
+      return "`" + collection.bucketName() + "`";
+    }
+    return "`" + collection.bucketName() + "`.`" + collection.scopeName() + "`.`" + collection.name() + "`";
+  }
+
+  private static ManifestEntry toManifestEntry(JsonObject changeEntry) {
+    String changeId = changeEntry.getString("changeId");
+    return new ManifestEntry(changeId,
+        ManifestEntry.checksum(changeId, changeEntry.getString("author"), changeEntry.getString("changeLogClass"),
+            changeEntry.getString("changeSetMethodName")),
+        changeEntry.getLong("timestamp"));
+  }
+
+  @Override
+  public void save(ChangeEntry changeEntry) {
+    if (manifestStorage) {
+      appendToManifest(changeEntry);
+    } else {
+      bucketWrapper.insert(metadataCollection(), changeEntry);
+    }
+    appliedEntryIds.add(changeEntry._getId());
+  }
+
+  /**
+   * Stores the execution statistics of an entry saved before its changeset was executed. The manifest only keeps
+   * the identity of the applied changesets, so nothing is written with the manifest storage.
+   */
+  @Override
+  public void update(ChangeEntry changeEntry) {
+    if (!manifestStorage) {
+      bucketWrapper.upsert(metadataCollection(), changeEntry);
+    }
+  }
+
+  /**
+   * Appends the entry with a sub-document operation. The CAS of the last manifest read is used, so two instances
+   * can't record the same changeset twice.
+   */
+  private void appendToManifest(ChangeEntry changeEntry) {
+    Collection collection = metadataCollection();
+    ManifestEntry entry = new ManifestEntry(changeEntry);
+
+    for (int attempt = 0; attempt < MAX_MANIFEST_APPEND_ATTEMPTS; attempt++) {
+      try {
+        manifestCas = collection.mutateIn(manifestId,
+            Collections.singletonList(MutateInSpec.arrayAppend("entries", Collections.singletonList(entry))),
+            mutateInOptions().cas(manifestCas)).cas();
+        return;
+
+      } catch (CasMismatchException e) {
+        GetResult result = collection.get(manifestId);
+        manifestCas = result.cas();
+        for (ManifestEntry applied : result.contentAs(ChangeManifest.class).getEntries()) {
+          if (entry.getChangeId().equals(applied.getChangeId())) {
+            return;
+          }
+        }
+
+      } catch (DocumentNotFoundException e) {
+        try {
+          manifestCas = collection.insert(manifestId, new ChangeManifest(new ArrayList<>(Collections.singletonList(entry)))).cas();
+          return;
+        } catch (DocumentExistsException ex) {
+          manifestCas = collection.get(manifestId).cas();
+        }
+      }
+    }
+    throw new IllegalStateException("Couldn't append " + changeEntry + " to the manifest document '" + manifestId + "'");
+  }
+
+  private Collection metadataCollection() {
+    Collection collection = metadataCollection;
+    if (collection == null) {
+      synchronized (this) {
+        if (metadataCollection == null) {
+          metadataCollection = openMetadataCollection();
+        }
+        collection = metadataCollection;
+      }
+    }
+    return collection;
+  }
+
+  /**
+   * Creates the metadata scope and collection if they don't exist yet
+   */
+  private Collection openMetadataCollection() {
+    if (metadataScope == null) {
+      return bucket.defaultCollection();
+    }
+
+    CollectionManager manager = bucket.collections();
+    if (!DEFAULT_SCOPE.equals(metadataScope)) {
+      try {
+        manager.createScope(metadataScope);
+        logger.info("CouchVersion - metadata scope {} created", metadataScope);
+      } catch (ScopeExistsException e) {
+        // created by a previous execution or by another instance
+      }
+    }
+    try {
+      manager.createCollection(CollectionSpec.create(metadataCollectionName, metadataScope));
+      logger.info("CouchVersion - metadata collection {}.{} created", metadataScope, metadataCollectionName);
+    } catch (CollectionExistsException e) {
+      // created by a previous execution or by another instance
+    }
+    return bucket.scope(metadataScope).collection(metadataCollectionName);
+  }
+
+  /**
+   * Copies the CouchVersion documents written in the default collection by previous versions (entries, manifest,
+   * fingerprint, checkpoints and partition claims) to the metadata collection, the documents already there are kept.
+   * It runs under the lock on every migration until the sources are removed with
+   * {@link #setLegacyMetadataCleanup(boolean) legacyMetadataCleanup}, so the changesets applied by instances of
+   * previous versions during a rolling deployment are copied too.
+   *
+   * @param changeEntries ids of the ChangeEntry documents of the running application, copied even if the default
+   *                      collection can't be queried
+   */
+  @Override
+  public void migrateMetadata(List<String> changeEntries) {
+    if (metadataScope == null || loadLegacyMetadataRemoved()) {
+      return;
+    }
+    Collection target = metadataCollection();
+    Set<String> documentIds = new HashSet<>(changeEntries);
+    documentIds.add(manifestId);
+    documentIds.add(fingerprintId);
+    documentIds.add(partitionedJobId);
+    documentIds.addAll(findLegacyDocumentIds());
+
+    ReactiveCollection source = bucket.defaultCollection().reactive();
+    ReactiveCollection reactiveTarget = target.reactive();
+    List<String> found = Flux.fromIterable(documentIds)
+        .flatMap(id -> source.get(id)
+            .flatMap(document -> reactiveTarget.insert(id, document.contentAsObject())
+                .onErrorResume(DocumentExistsException.class, e -> Mono.empty())
+                .thenReturn(id))
+            .onErrorResume(DocumentNotFoundException.class, e -> Mono.empty()), stateFetchConcurrency)
+        .collectList()
+        .block();
+    logger.info("CouchVersion - {} documents of the default collection copied to {}.{}", found.size(), metadataScope,
+        metadataCollectionName);
+
+    if (legacyMetadataCleanup) {
+      Flux.fromIterable(found)
+          .flatMap(id -> source.remove(id)
+              .onErrorResume(DocumentNotFoundException.class, e -> Mono.empty()), stateFetchConcurrency)
+          .blockLast();
+      logger.info("CouchVersion - {} documents removed from the default collection", found.size());
+    }
+    target.upsert(metadataMigratedId, JsonObject.create()
+        .put("timestamp", System.currentTimeMillis())
+        .put("copied", found.size())
+        .put("legacyRemoved", legacyMetadataCleanup));
+    legacyMetadataRemoved = legacyMetadataCleanup;
+  }
+
+  /**
+   * @return ids of the CouchVersion documents of the default collection, found by key prefix
+   */
+  private List<String> findLegacyDocumentIds() {
+    String statement = "SELECT RAW META().id FROM " + keyspace(bucket.defaultCollection()) +
+        " WHERE META().id LIKE 'ChangeEntry::%' OR META().id LIKE 'ChangeCheckpoint::%'" +
+        " OR META().id LIKE 'ChangePartition::%'";
+    try {
+      return cluster.query(statement, queryOptions().scanConsistency(QueryScanConsistency.REQUEST_PLUS))
+          .rowsAs(String.class);
+    } catch (CouchbaseException e) {
+      if (legacyMetadataCleanup) {
+        throw e;
+      }
+      logger.warn("CouchVersion - couldn't query the CouchVersion documents of the default collection, only the " +
+          "documents of this application are copied", e);
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * @return true once the documents of the default collection have been removed, read again on each call until then
+   */
+  private boolean loadLegacyMetadataRemoved() {
+    try {
+      JsonObject marker = metadataCollection().get(metadataMigratedId).contentAsObject();
+      legacyMetadataRemoved = Boolean.TRUE.equals(marker.getBoolean("legacyRemoved"));
+    } catch (DocumentNotFoundException e) {
+      legacyMetadataRemoved = false;
+    }
+    return legacyMetadataRemoved;
+  }
+
+  /**
+   * @return true if the lock of the default collection must be held too
+   */
+  private boolean isLegacyLockHonoured() {
+    if (metadataScope == null) {
+      return false;
+    }
+    Boolean removed = legacyMetadataRemoved;
+    return !(removed != null ? removed : loadLegacyMetadataRemoved());
+  }
+
+  /**
+   * @param scope metadata scope, created if it doesn't exist
+   * @param collection metadata collection, created if it doesn't exist
+   */
+  public void setMetadataCollection(String scope, String collection) {
+    boolean defaultCollection = DEFAULT_SCOPE.equals(scope) && DEFAULT_SCOPE.equals(collection);
+    this.metadataScope = defaultCollection ? null : scope;
+    this.metadataCollectionName = collection;
+    this.metadataCollection = null;
+    this.legacyMetadataRemoved = null;
+  }
+
+  /**
+   * Removes the documents of the default collection once they are copied to the metadata collection. Enable it once
+   * no instance of a version which doesn't use the metadata collection is running anymore.
+   */
+  public void setLegacyMetadataCleanup(boolean legacyMetadataCleanup) {
+    this.legacyMetadataCleanup = legacyMetadataCleanup;
+  }
+
+  /**
+   * @return id of this instance, stored in the locks, claims and entries it writes
+   */
+  @Override
+  public String getInstanceId() {
+    return instanceId;
+  }
+
+  public void setManifestStorage(boolean manifestStorage) {
+    this.manifestStorage = manifestStorage;
+  }
+
+  public void setStateFetchConcurrency(int stateFetchConcurrency) {
+    this.stateFetchConcurrency = stateFetchConcurrency;
+  }
+
+  /**
+   * @return fingerprint stored by the last successful migration, or null if there is none
+   */
+  @Override
+  public String getFingerprint() {
+    try {
+      return metadataCollection().get(fingerprintId).contentAs(MigrationFingerprint.class).getFingerprint();
+    } catch (DocumentNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void saveFingerprint(String fingerprint) {
+    metadataCollection().upsert(fingerprintId, new MigrationFingerprint(fingerprint, System.currentTimeMillis()));
+  }
+
+  /**
+   * @return progress saved by an interrupted or running changeset, or null if there is none
+   */
+  @Override
+  public ChangeCheckpoint getCheckpoint(String changeId) {
+    try {
+      return metadataCollection().get(checkpointId(changeId)).contentAs(ChangeCheckpoint.class);
+    } catch (DocumentNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void saveCheckpoint(ChangeCheckpoint checkpoint) {
+    checkpoint.setOwner(instanceId);
+    checkpoint.setTimestamp(System.currentTimeMillis());
+    metadataCollection().upsert(checkpointId(checkpoint.getChangeId()), checkpoint);
+  }
+
+  @Override
+  public void removeCheckpoint(String changeId) {
+    try {
+      metadataCollection().remove(checkpointId(changeId));
+    } catch (DocumentNotFoundException e) {
+      // nothing was saved
+    }
+  }
+
+  private static String checkpointId(String changeId) {
+    return "ChangeCheckpoint::" + changeId;
+  }
+
+  @Override
+  public boolean isLocked() {
+    return isLocked(metadataCollection()) || (isLegacyLockHonoured() && isLocked(bucket.defaultCollection()));
+  }
+
+  private boolean isLocked(Collection collection) {
+    CouchVersionLock lock = readLock(collection);
+    return lock != null && !isExpired(lock);
+  }
+
+  /**
+   * Acquires the lock lease. The lock document expires by itself if the lease isn't renewed, and an expired lease
+   * left behind by a lock without expiry can be taken over. Until the documents of the default collection are removed,
+   * its lock is acquired too, so instances of previous versions don't run at the same time.
+   *
+   * @param timestamp acquisition time
+   * @return true if this instance holds the lock
+   */
+  @Override
+  public boolean getLock(Long timestamp) {
+    Collection collection = metadataCollection();
+    CouchVersionLock lock = new CouchVersionLock(timestamp, instanceId, timestamp + lockLeaseTime.toMillis());
+    Long cas = acquireLock(collection, lock);
+    if (cas == null) {
+      return false;
+    }
+    if (isLegacyLockHonoured()) {
+      Long legacyCas = acquireLock(bucket.defaultCollection(), lock);
+      if (legacyCas == null) {
+        removeLock(collection, cas);
+        return false;
+      }
+      legacyLockCas = legacyCas;
+    }
+    lockCas = cas;
+    heldLock = lock;
+    return true;
+  }
+
+  /**
+   * @return CAS of the lock, or null if it is held by another instance
+   */
+  private Long acquireLock(Collection collection, CouchVersionLock lock) {
+    try {
+      return collection.insert(lockId, lock, insertOptions().expiry(lockLeaseTime)).cas();
+    } catch (DocumentExistsException e) {
+      return takeOverExpiredLock(collection, lock);
+    }
+  }
+
+  private Long takeOverExpiredLock(Collection collection, CouchVersionLock lock) {
+    try {
+      GetResult current = collection.get(lockId);
+      CouchVersionLock currentLock = current.contentAs(CouchVersionLock.class);
+      if (!isExpired(currentLock)) {
+        return null;
+      }
+      long cas = collection.replace(lockId, lock, replaceOptions().cas(current.cas()).expiry(lockLeaseTime)).cas();
+      logger.warn("CouchVersion - took over the expired lock of " + currentLock.getOwner());
+      return cas;
+    } catch (CasMismatchException | DocumentNotFoundException e) {
+      //someone else took it over or released it in the meantime, try again later
+      return null;
+    }
+  }
+
+  /**
+   * Extends the lease of the lock held by this instance. The CAS of the last write acts as a fencing token:
+   * the renewal fails if another instance took the lock over.
+   *
+   * @return false if the lease has been lost
+   */
+  @Override
+  public boolean renewLock() {
+    CouchVersionLock lock = heldLock;
+    if (lock == null) {
+      return false;
+    }
+    try {
+      lock.setExpiresAt(System.currentTimeMillis() + lockLeaseTime.toMillis());
+      lockCas = metadataCollection().replace(lockId, lock, replaceOptions().cas(lockCas).expiry(lockLeaseTime)).cas();
+      Long legacyCas = legacyLockCas;
+      if (legacyCas != null) {
+        legacyLockCas = bucket.defaultCollection().replace(lockId, lock,
+            replaceOptions().cas(legacyCas).expiry(lockLeaseTime)).cas();
+      }
+      return true;
+    } catch (CasMismatchException | DocumentNotFoundException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void releaseLock(Long timestamp) {
+    try {
+      if (!removeLock(metadataCollection(), lockCas)) {
+        logger.warn("CouchVersion - the lock acquired at " + timestamp + " was no longer held by this instance");
+      }
+      Long legacyCas = legacyLockCas;
+      if (legacyCas != null) {
+        removeLock(bucket.defaultCollection(), legacyCas);
+      }
+    } finally {
+      heldLock = null;
+      legacyLockCas = null;
+    }
+  }
+
+  /**
+   * @return false if the lock was no longer held with this CAS
+   */
+  private boolean removeLock(Collection collection, long cas) {
+    try {
+      collection.remove(lockId, removeOptions().cas(cas));
+      return true;
+    } catch (CasMismatchException | DocumentNotFoundException e) {
+      return false;
+    }
+  }
+
+  private CouchVersionLock readLock(Collection collection) {
+    try {
+      return collection.get(lockId).contentAs(CouchVersionLock.class);
+    } catch (DocumentNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Locks written by older versions have no expiry, they are considered expired after the old max waiting time
+   */
+  private static boolean isExpired(CouchVersionLock lock) {
+    long expiresAt = lock.getExpiresAt() != null ? lock.getExpiresAt() : lock.getLockTimestamp() + LEGACY_LOCK_TIMEOUT;
+    return expiresAt < System.currentTimeMillis();
+  }
+
+  /**
+   * Claims a partition which is neither done nor leased by another instance
+   *
+   * @return CAS of the claim, to renew and complete it, or null if the partition can't be claimed
+   */
+  @Override
+  public Long claimPartition(String changeId, int partition) {
+    Collection collection = metadataCollection();
+    String id = partitionId(changeId, partition);
+    PartitionClaim claim = new PartitionClaim(changeId, partition, PartitionClaim.RUNNING, instanceId,
+        System.currentTimeMillis() + lockLeaseTime.toMillis());
+    try {
+      GetResult current = collection.get(id);
+      PartitionClaim currentClaim = current.contentAs(PartitionClaim.class);
+      if (PartitionClaim.DONE.equals(currentClaim.getStatus()) ||
+          (PartitionClaim.RUNNING.equals(currentClaim.getStatus()) && currentClaim.getExpiresAt() >= System.currentTimeMillis())) {
+        return null;
+      }
+      return collection.replace(id, claim, replaceOptions().cas(current.cas())).cas();
+
+    } catch (DocumentNotFoundException e) {
+      try {
+        return collection.insert(id, claim).cas();
+      } catch (DocumentExistsException ex) {
+        return null;
+      }
+    } catch (CasMismatchException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return new CAS of the claim, or null if the lease has been lost
+   */
+  @Override
+  public Long renewPartition(String changeId, int partition, long cas) {
+    PartitionClaim claim = new PartitionClaim(changeId, partition, PartitionClaim.RUNNING, instanceId,
+        System.currentTimeMillis() + lockLeaseTime.toMillis());
+    return replacePartition(claim, cas);
+  }
+
+  /**
+   * @return false if the lease had been lost, the partition might be applied again by another instance
+   */
+  @Override
+  public boolean completePartition(String changeId, int partition, long cas) {
+    return replacePartition(new PartitionClaim(changeId, partition, PartitionClaim.DONE, instanceId, null), cas) != null;
+  }
+
+  /**
+   * Gives up a claimed partition, so another instance can claim it right away
+   */
+  @Override
+  public void releasePartition(String changeId, int partition, long cas) {
+    replacePartition(new PartitionClaim(changeId, partition, PartitionClaim.RELEASED, null, null), cas);
+  }
+
+  private Long replacePartition(PartitionClaim claim, long cas) {
+    try {
+      return metadataCollection().replace(partitionId(claim.getChangeId(), claim.getPartition()), claim,
+          replaceOptions().cas(cas)).cas();
+    } catch (CasMismatchException | DocumentNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public boolean isPartitionDone(String changeId, int partition) {
+    try {
+      PartitionClaim claim = metadataCollection().get(partitionId(changeId, partition)).contentAs(PartitionClaim.class);
+      return PartitionClaim.DONE.equals(claim.getStatus());
+    } catch (DocumentNotFoundException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void removePartitions(String changeId, int partitions) {
+    for (int partition = 0; partition < partitions; partition++) {
+      try {
+        metadataCollection().remove(partitionId(changeId, partition));
+      } catch (DocumentNotFoundException e) {
+        // never claimed
+      }
+    }
+  }
+
+  private static String partitionId(String changeId, int partition) {
+    return "ChangePartition::" + changeId + "::" + partition;
+  }
+
+  /**
+   * Announces the partitioned changeset applied by the lock holder to the waiting instances
+   */
+  @Override
+  public void publishPartitionedJob(String changeId, int partitions) {
+    metadataCollection().upsert(partitionedJobId, new PartitionedJob(changeId, partitions, instanceId));
+  }
+
+  /**
+   * @return partitioned changeset being applied, or null if there is none
+   */
+  @Override
+  public PartitionedJob getPartitionedJob() {
+    try {
+      return metadataCollection().get(partitionedJobId).contentAs(PartitionedJob.class);
+    } catch (DocumentNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void removePartitionedJob() {
+    try {
+      metadataCollection().remove(partitionedJobId);
+    } catch (DocumentNotFoundException e) {
+      // already removed
+    }
+  }
+
+  @Override
+  public void addDeferredIndexes(DeferredIndexBuild.Keyspace indexes) {
+    updateDeferredIndexBuild(build -> build.add(indexes));
+  }
+
+  /**
+   * @return deferred indexes left unbuilt by a previous migration, or null if there are none
+   */
+  @Override
+  public DeferredIndexBuild getDeferredIndexBuild() {
+    try {
+      return metadataCollection().get(deferredIndexesId).contentAs(DeferredIndexBuild.class);
+    } catch (DocumentNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void removeDeferredIndexes(DeferredIndexBuild.Keyspace indexes) {
+    updateDeferredIndexBuild(build -> build.remove(indexes));
+  }
+
+  /**
+   * Read-modify-write of the deferred indexes document with CAS, so the updates of concurrent instances are merged
+   */
+  private void updateDeferredIndexBuild(Consumer<DeferredIndexBuild> update) {
+    Collection collection = metadataCollection();
+
+    for (int attempt = 0; attempt < MAX_DEFERRED_INDEXES_UPDATE_ATTEMPTS; attempt++) {
+      GetResult current;
+      try {
+        current = collection.get(deferredIndexesId);
+      } catch (DocumentNotFoundException e) {
+        current = null;
+      }
+      DeferredIndexBuild build = current == null ? new DeferredIndexBuild() : current.contentAs(DeferredIndexBuild.class);
+      update.accept(build);
+
+      try {
+        if (current == null) {
+          if (!build.getKeyspaces().isEmpty()) {
+            collection.insert(deferredIndexesId, build);
+          }
+        } else if (build.getKeyspaces().isEmpty()) {
+          collection.remove(deferredIndexesId, removeOptions().cas(current.cas()));
+        } else {
+          collection.replace(deferredIndexesId, build, replaceOptions().cas(current.cas()));
+        }
+        return;
+      } catch (CasMismatchException | DocumentExistsException | DocumentNotFoundException e) {
+        // updated by another instance meanwhile, merge again
+      }
+    }
+    throw new IllegalStateException("Couldn't update the deferred indexes document '" + deferredIndexesId + "'");
+  }
+
+  public void setLockLeaseTime(Duration lockLeaseTime) {
+    this.lockLeaseTime = lockLeaseTime;
+  }
+}
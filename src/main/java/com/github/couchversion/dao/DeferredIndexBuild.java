@@ -0,0 +1,98 @@
+package com.github.couchversion.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deferred indexes registered by the changesets and not online yet, built on the next start if the migration stopped
+ * before their build
+ */
+public class DeferredIndexBuild {
+
+  private List<Keyspace> keyspaces = new ArrayList<>();
+
+  public DeferredIndexBuild() {}
+
+  public DeferredIndexBuild(List<Keyspace> keyspaces) {
+    this.keyspaces = keyspaces;
+  }
+
+  public List<Keyspace> getKeyspaces() {
+    return keyspaces;
+  }
+
+  public void setKeyspaces(List<Keyspace> keyspaces) {
+    this.keyspaces = keyspaces;
+  }
+
+  /**
+   * Adds the indexes to the ones recorded for their keyspace
+   */
+  public void add(Keyspace added) {
+    for (Keyspace keyspace : keyspaces) {
+      if (keyspace.isSameKeyspace(added)) {
+        for (String name : added.getNames()) {
+          if (!keyspace.getNames().contains(name)) {
+            keyspace.getNames().add(name);
+          }
+        }
+        return;
+      }
+    }
+    keyspaces.add(new Keyspace(added.getScope(), added.getCollection(), new ArrayList<>(added.getNames())));
+  }
+
+  /**
+   * Removes the indexes from the ones recorded for their keyspace, and the keyspace once it has no indexes left
+   */
+  public void remove(Keyspace removed) {
+    keyspaces.removeIf(keyspace -> keyspace.isSameKeyspace(removed)
+        && keyspace.getNames().removeAll(removed.getNames()) && keyspace.getNames().isEmpty());
+  }
+
+  /**
+   * Indexes of a collection
+   */
+  public static class Keyspace {
+
+    private String scope;
+    private String collection;
+    private List<String> names;
+
+    public Keyspace() {}
+
+    public Keyspace(String scope, String collection, List<String> names) {
+      this.scope = scope;
+      this.collection = collection;
+      this.names = names;
+    }
+
+    public String getScope() {
+      return scope;
+    }
+
+    public void setScope(String scope) {
+      this.scope = scope;
+    }
+
+    public String getCollection() {
+      return collection;
+    }
+
+    public void setCollection(String collection) {
+      this.collection = collection;
+    }
+
+    public List<String> getNames() {
+      return names;
+    }
+
+    public void setNames(List<String> names) {
+      this.names = names;
+    }
+
+    private boolean isSameKeyspace(Keyspace other) {
+      return scope.equals(other.scope) && collection.equals(other.collection);
+    }
+  }
+}
@@ -0,0 +1,487 @@
+package com.github.couchversion.dao;
+
+import com.github.couchversion.changeset.ChangeEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe state store kept in memory, to run CouchVersion without a cluster in tests and benchmarks.
+ * The documents have the same ids, CAS and expiry semantics as in Couchbase, and every operation can wait
+ * for a simulated network latency. Several instances racing for the lock are simulated with {@link #forInstance(String)}:
+ * <pre>
+ * InMemoryCouchVersionDAO store = new InMemoryCouchVersionDAO().setLatency(Duration.ofMillis(2));
+ * runner1.setDAO(store.forInstance("pod-1"));
+ * runner2.setDAO(store.forInstance("pod-2"));
+ * </pre>
+ * The manifest storage and the state fetch concurrency only change the number of simulated round trips.
+ */
+public class InMemoryCouchVersionDAO implements CouchVersionDAO {
+  private static final Logger logger = LoggerFactory.getLogger(InMemoryCouchVersionDAO.class);
+
+  private static final String LOCK_ID = "couchversion_lock";
+  private static final String FINGERPRINT_ID = "couchversion_fingerprint";
+  private static final String PARTITIONED_JOB_ID = "couchversion_partitioned_changeset";
+  private static final String DEFERRED_INDEXES_ID = "couchversion_deferred_indexes";
+
+  /**
+   * Documents shared by all the instances created with {@link #forInstance(String)}
+   */
+  private static class Store {
+    private final Map<String, Document> documents = new HashMap<>();
+    private final AtomicLong operations = new AtomicLong();
+    private long cas;
+    private volatile Duration latency = Duration.ZERO;
+    private volatile Duration latencyJitter = Duration.ZERO;
+  }
+
+  private static class Document {
+    private final Object content;
+    private final long cas;
+    private final long expiresAt;
+
+    private Document(Object content, long cas, long expiresAt) {
+      this.content = content;
+      this.cas = cas;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final Store store;
+  private final String instanceId;
+
+  private volatile Duration lockLeaseTime = Duration.ofSeconds(30);
+  private volatile long lockCas;
+  private volatile boolean lockHeld;
+  private volatile boolean manifestStorage = false;
+  private volatile int stateFetchConcurrency = 64;
+
+  /**
+   * Ids checked by the last state fetch, and the ones among them which were already applied
+   */
+  private final Set<String> fetchedEntryIds = new HashSet<>();
+  private final Set<String> appliedEntryIds = new HashSet<>();
+
+  public InMemoryCouchVersionDAO() {
+    this(new Store(), UUID.randomUUID().toString());
+  }
+
+  private InMemoryCouchVersionDAO(Store store, String instanceId) {
+    this.store = store;
+    this.instanceId = instanceId;
+  }
+
+  /**
+   * @param instanceId id of the simulated instance
+   * @return a DAO of another instance, sharing the documents and the latency of this one
+   */
+  public InMemoryCouchVersionDAO forInstance(String instanceId) {
+    return new InMemoryCouchVersionDAO(store, instanceId);
+  }
+
+  /**
+   * @param latency simulated duration of each round trip to the cluster, default is zero
+   * @return InMemoryCouchVersionDAO object for fluent interface
+   */
+  public InMemoryCouchVersionDAO setLatency(Duration latency) {
+    store.latency = latency;
+    return this;
+  }
+
+  /**
+   * @param latencyJitter random duration, between zero and this value, added to each round trip
+   * @return InMemoryCouchVersionDAO object for fluent interface
+   */
+  public InMemoryCouchVersionDAO setLatencyJitter(Duration latencyJitter) {
+    store.latencyJitter = latencyJitter;
+    return this;
+  }
+
+  /**
+   * @return number of simulated round trips done by all the instances sharing the documents
+   */
+  public long getOperationCount() {
+    return store.operations.get();
+  }
+
+  /**
+   * @return entry saved for the changeset, or null if it hasn't been applied
+   */
+  public ChangeEntry getChangeEntry(String changeId) {
+    synchronized (store) {
+      Document document = live(new ChangeEntry(changeId)._getId());
+      return document == null ? null : (ChangeEntry) document.content;
+    }
+  }
+
+  @Override
+  public boolean isNewChange(ChangeEntry changeEntry) {
+    String id = changeEntry._getId();
+    synchronized (fetchedEntryIds) {
+      if (fetchedEntryIds.contains(id)) {
+        return !appliedEntryIds.contains(id);
+      }
+    }
+    return read(id) == null;
+  }
+
+  @Override
+  public boolean hasNewChanges(List<String> changeEntries) {
+    Set<String> ids = new HashSet<>(changeEntries);
+    // a single read of the manifest, or one round trip per batch of pipelined lookups
+    int roundTrips = manifestStorage ? 1 : (ids.size() + stateFetchConcurrency - 1) / stateFetchConcurrency;
+    for (int i = 0; i < roundTrips; i++) {
+      roundTrip();
+    }
+
+    Set<String> applied = new HashSet<>();
+    synchronized (store) {
+      for (String id : ids) {
+        if (live(id) != null) {
+          applied.add(id);
+        }
+      }
+    }
+    synchronized (fetchedEntryIds) {
+      fetchedEntryIds.clear();
+      appliedEntryIds.clear();
+      fetchedEntryIds.addAll(ids);
+      appliedEntryIds.addAll(applied);
+    }
+    return !applied.containsAll(ids);
+  }
+
+  @Override
+  public void save(ChangeEntry changeEntry) {
+    roundTrip();
+    synchronized (store) {
+      if (live(changeEntry._getId()) != null) {
+        throw new IllegalStateException("ChangeEntry " + changeEntry.getChangeId() + " already exists");
+      }
+      put(changeEntry._getId(), changeEntry, 0);
+    }
+    synchronized (fetchedEntryIds) {
+      appliedEntryIds.add(changeEntry._getId());
+    }
+  }
+
+  @Override
+  public void update(ChangeEntry changeEntry) {
+    write(changeEntry._getId(), changeEntry);
+  }
+
+  @Override
+  public String getInstanceId() {
+    return instanceId;
+  }
+
+  @Override
+  public String getFingerprint() {
+    MigrationFingerprint fingerprint = (MigrationFingerprint) read(FINGERPRINT_ID);
+    return fingerprint == null ? null : fingerprint.getFingerprint();
+  }
+
+  @Override
+  public void saveFingerprint(String fingerprint) {
+    write(FINGERPRINT_ID, new MigrationFingerprint(fingerprint, System.currentTimeMillis()));
+  }
+
+  @Override
+  public ChangeCheckpoint getCheckpoint(String changeId) {
+    return (ChangeCheckpoint) read(checkpointId(changeId));
+  }
+
+  @Override
+  public void saveCheckpoint(ChangeCheckpoint checkpoint) {
+    checkpoint.setOwner(instanceId);
+    checkpoint.setTimestamp(System.currentTimeMillis());
+    write(checkpointId(checkpoint.getChangeId()), checkpoint);
+  }
+
+  @Override
+  public void removeCheckpoint(String changeId) {
+    remove(checkpointId(changeId));
+  }
+
+  private static String checkpointId(String changeId) {
+    return "ChangeCheckpoint::" + changeId;
+  }
+
+  @Override
+  public boolean isLocked() {
+    return read(LOCK_ID) != null;
+  }
+
+  /**
+   * The lock document expires after the lease time, like the Couchbase lock
+   */
+  @Override
+  public boolean getLock(Long timestamp) {
+    roundTrip();
+    synchronized (store) {
+      if (live(LOCK_ID) != null) {
+        return false;
+      }
+      long expiresAt = System.currentTimeMillis() + lockLeaseTime.toMillis();
+      lockCas = put(LOCK_ID, new CouchVersionLock(timestamp, instanceId, expiresAt), expiresAt);
+      lockHeld = true;
+      return true;
+    }
+  }
+
+  @Override
+  public boolean renewLock() {
+    if (!lockHeld) {
+      return false;
+    }
+    roundTrip();
+    synchronized (store) {
+      Document lock = live(LOCK_ID);
+      if (lock == null || lock.cas != lockCas) {
+        return false;
+      }
+      CouchVersionLock content = (CouchVersionLock) lock.content;
+      long expiresAt = System.currentTimeMillis() + lockLeaseTime.toMillis();
+      lockCas = put(LOCK_ID, new CouchVersionLock(content.getLockTimestamp(), instanceId, expiresAt), expiresAt);
+      return true;
+    }
+  }
+
+  @Override
+  public void releaseLock(Long timestamp) {
+    roundTrip();
+    synchronized (store) {
+      Document lock = live(LOCK_ID);
+      if (lock != null && lock.cas == lockCas) {
+        store.documents.remove(LOCK_ID);
+      } else {
+        logger.warn("CouchVersion - the lock acquired at " + timestamp + " was no longer held by this instance");
+      }
+      lockHeld = false;
+    }
+  }
+
+  @Override
+  public Long claimPartition(String changeId, int partition) {
+    roundTrip();
+    synchronized (store) {
+      String id = partitionId(changeId, partition);
+      Document current = live(id);
+      if (current != null) {
+        PartitionClaim claim = (PartitionClaim) current.content;
+        if (PartitionClaim.DONE.equals(claim.getStatus()) ||
+            (PartitionClaim.RUNNING.equals(claim.getStatus()) && claim.getExpiresAt() >= System.currentTimeMillis())) {
+          return null;
+        }
+      }
+      return put(id, new PartitionClaim(changeId, partition, PartitionClaim.RUNNING, instanceId,
+          System.currentTimeMillis() + lockLeaseTime.toMillis()), 0);
+    }
+  }
+
+  @Override
+  public Long renewPartition(String changeId, int partition, long cas) {
+    return replacePartition(new PartitionClaim(changeId, partition, PartitionClaim.RUNNING, instanceId,
+        System.currentTimeMillis() + lockLeaseTime.toMillis()), cas);
+  }
+
+  @Override
+  public boolean completePartition(String changeId, int partition, long cas) {
+    return replacePartition(new PartitionClaim(changeId, partition, PartitionClaim.DONE, instanceId, null), cas) != null;
+  }
+
+  @Override
+  public void releasePartition(String changeId, int partition, long cas) {
+    replacePartition(new PartitionClaim(changeId, partition, PartitionClaim.RELEASED, null, null), cas);
+  }
+
+  private Long replacePartition(PartitionClaim claim, long cas) {
+    roundTrip();
+    synchronized (store) {
+      String id = partitionId(claim.getChangeId(), claim.getPartition());
+      Document current = live(id);
+      if (current == null || current.cas != cas) {
+        return null;
+      }
+      return put(id, claim, 0);
+    }
+  }
+
+  @Override
+  public boolean isPartitionDone(String changeId, int partition) {
+    PartitionClaim claim = (PartitionClaim) read(partitionId(changeId, partition));
+    return claim != null && PartitionClaim.DONE.equals(claim.getStatus());
+  }
+
+  @Override
+  public void removePartitions(String changeId, int partitions) {
+    for (int partition = 0; partition < partitions; partition++) {
+      remove(partitionId(changeId, partition));
+    }
+  }
+
+  private static String partitionId(String changeId, int partition) {
+    return "ChangePartition::" + changeId + "::" + partition;
+  }
+
+  @Override
+  public void publishPartitionedJob(String changeId, int partitions) {
+    write(PARTITIONED_JOB_ID, new PartitionedJob(changeId, partitions, instanceId));
+  }
+
+  @Override
+  public PartitionedJob getPartitionedJob() {
+    return (PartitionedJob) read(PARTITIONED_JOB_ID);
+  }
+
+  @Override
+  public void removePartitionedJob() {
+    remove(PARTITIONED_JOB_ID);
+  }
+
+  @Override
+  public void addDeferredIndexes(DeferredIndexBuild.Keyspace indexes) {
+    updateDeferredIndexBuild(build -> build.add(indexes));
+  }
+
+  @Override
+  public DeferredIndexBuild getDeferredIndexBuild() {
+    return (DeferredIndexBuild) read(DEFERRED_INDEXES_ID);
+  }
+
+  @Override
+  public void removeDeferredIndexes(DeferredIndexBuild.Keyspace indexes) {
+    updateDeferredIndexBuild(build -> build.remove(indexes));
+  }
+
+  /**
+   * Updates a copy of the recorded indexes, the document read by the other instances is never modified in place
+   */
+  private void updateDeferredIndexBuild(Consumer<DeferredIndexBuild> update) {
+    roundTrip();
+    synchronized (store) {
+      Document document = live(DEFERRED_INDEXES_ID);
+      DeferredIndexBuild build = new DeferredIndexBuild();
+      if (document != null) {
+        ((DeferredIndexBuild) document.content).getKeyspaces().forEach(build::add);
+      }
+      update.accept(build);
+      if (build.getKeyspaces().isEmpty()) {
+        store.documents.remove(DEFERRED_INDEXES_ID);
+      } else {
+        put(DEFERRED_INDEXES_ID, build, 0);
+      }
+    }
+  }
+
+  @Override
+  public void migrateMetadata(List<String> changeEntries) {
+    // nothing written by previous versions
+  }
+
+  public void setManifestStorage(boolean manifestStorage) {
+    this.manifestStorage = manifestStorage;
+  }
+
+  public void setStateFetchConcurrency(int stateFetchConcurrency) {
+    this.stateFetchConcurrency = Math.max(1, stateFetchConcurrency);
+  }
+
+  public void setLockLeaseTime(Duration lockLeaseTime) {
+    this.lockLeaseTime = lockLeaseTime;
+  }
+
+  /**
+   * @return ids of all the documents which haven't expired
+   */
+  public List<String> getDocumentIds() {
+    synchronized (store) {
+      List<String> ids = new ArrayList<>();
+      for (String id : store.documents.keySet()) {
+        if (live(id) != null) {
+          ids.add(id);
+        }
+      }
+      return ids;
+    }
+  }
+
+  private Object read(String id) {
+    roundTrip();
+    synchronized (store) {
+      Document document = live(id);
+      return document == null ? null : document.content;
+    }
+  }
+
+  private void write(String id, Object content) {
+    roundTrip();
+    synchronized (store) {
+      put(id, content, 0);
+    }
+  }
+
+  private void remove(String id) {
+    roundTrip();
+    synchronized (store) {
+      store.documents.remove(id);
+    }
+  }
+
+  /**
+   * Must be called while holding the store monitor
+   *
+   * @return the document, null if it doesn't exist or has expired
+   */
+  private Document live(String id) {
+    Document document = store.documents.get(id);
+    if (document != null && document.expiresAt > 0 && document.expiresAt <= System.currentTimeMillis()) {
+      store.documents.remove(id);
+      return null;
+    }
+    return document;
+  }
+
+  /**
+   * Must be called while holding the store monitor
+   *
+   * @param expiresAt expiry time in milliseconds, 0 if the document doesn't expire
+   * @return CAS of the new document
+   */
+  private long put(String id, Object content, long expiresAt) {
+    long cas = ++store.cas;
+    store.documents.put(id, new Document(content, cas, expiresAt));
+    return cas;
+  }
+
+  /**
+   * Waits for the simulated latency, outside of the store monitor so the instances don't queue on it
+   */
+  private void roundTrip() {
+    store.operations.incrementAndGet();
+    long millis = store.latency.toMillis();
+    long jitter = store.latencyJitter.toMillis();
+    if (jitter > 0) {
+      millis += ThreadLocalRandom.current().nextLong(jitter + 1);
+    }
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.github.couchversion.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renews the lock lease in background while the migration runs
+ */
+public class LockHeartbeat implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger("CouchVersion DAO");
+
+  private final CouchVersionDAO dao;
+  private final Duration leaseTime;
+  private final ScheduledExecutorService scheduler;
+  private volatile boolean leaseLost = false;
+
+  public LockHeartbeat(CouchVersionDAO dao, Duration leaseTime) {
+    this.dao = dao;
+    this.leaseTime = leaseTime;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "couchversion-lock-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Renews the lease three times per lease period, so a single slow renewal doesn't lose the lock
+   */
+  public LockHeartbeat start() {
+    long interval = Math.max(1, leaseTime.toMillis() / 3);
+    scheduler.scheduleAtFixedRate(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  private void renew() {
+    try {
+      if (!dao.renewLock()) {
+        leaseLost = true;
+        logger.error("CouchVersion - the lock lease has been lost");
+        scheduler.shutdown();
+      }
+    } catch (RuntimeException e) {
+      //a transient failure, the lease is still valid until it expires
+      logger.warn("CouchVersion - failed to renew the lock lease", e);
+    }
+  }
+
+  /**
+   * @return true if another instance took the lock over, the migration must not continue
+   */
+  public boolean isLeaseLost() {
+    return leaseLost;
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+}
@@ -0,0 +1,64 @@
+package com.github.couchversion.dao;
+
+import com.github.couchversion.changeset.ChangeEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Applied changeset as stored in the {@link ChangeManifest}
+ */
+public class ManifestEntry {
+
+  private String changeId;
+  private String checksum;
+  private Long timestamp;
+
+  public ManifestEntry() {}
+
+  public ManifestEntry(String changeId, String checksum, Long timestamp) {
+    this.changeId = changeId;
+    this.checksum = checksum;
+    this.timestamp = timestamp;
+  }
+
+  public ManifestEntry(ChangeEntry changeEntry) {
+    this(changeEntry.getChangeId(),
+        checksum(changeEntry.getChangeId(), changeEntry.getAuthor(), changeEntry.getChangeLogClass(),
+            changeEntry.getChangeSetMethodName()),
+        changeEntry.getTimestamp());
+  }
+
+  /**
+   * @return CRC32 of the changeset identity, it changes when a changeset is moved to another class or method
+   */
+  public static String checksum(String changeId, String author, String changeLogClass, String changeSetMethodName) {
+    CRC32 crc = new CRC32();
+    crc.update((changeId + "|" + author + "|" + changeLogClass + "|" + changeSetMethodName).getBytes(StandardCharsets.UTF_8));
+    return Long.toHexString(crc.getValue());
+  }
+
+  public String getChangeId() {
+    return changeId;
+  }
+
+  public void setChangeId(String changeId) {
+    this.changeId = changeId;
+  }
+
+  public String getChecksum() {
+    return checksum;
+  }
+
+  public void setChecksum(String checksum) {
+    this.checksum = checksum;
+  }
+
+  public Long getTimestamp() {
+    return timestamp;
+  }
+
+  public void setTimestamp(Long timestamp) {
+    this.timestamp = timestamp;
+  }
+}
@@ -0,0 +1,35 @@
+package com.github.couchversion.dao;
+
+/**
+ * Fingerprint of the changesets applied by the last successful migration
+ *
+ * @see com.github.couchversion.changeset.MigrationPlan#getFingerprint()
+ */
+public class MigrationFingerprint {
+
+  private String fingerprint;
+  private Long timestamp;
+
+  public MigrationFingerprint() {}
+
+  public MigrationFingerprint(String fingerprint, Long timestamp) {
+    this.fingerprint = fingerprint;
+    this.timestamp = timestamp;
+  }
+
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  public void setFingerprint(String fingerprint) {
+    this.fingerprint = fingerprint;
+  }
+
+  public Long getTimestamp() {
+    return timestamp;
+  }
+
+  public void setTimestamp(Long timestamp) {
+    this.timestamp = timestamp;
+  }
+}
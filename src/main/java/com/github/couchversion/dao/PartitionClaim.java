@@ -0,0 +1,68 @@
+package com.github.couchversion.dao;
+
+/**
+ * State of a partition of a partitioned changeset. A running partition is leased by the instance applying it,
+ * it can be claimed again by any instance once the lease expires.
+ */
+public class PartitionClaim {
+
+  public static final String RUNNING = "RUNNING";
+  public static final String RELEASED = "RELEASED";
+  public static final String DONE = "DONE";
+
+  private String changeId;
+  private Integer partition;
+  private String status;
+  private String owner;
+  private Long expiresAt;
+
+  public PartitionClaim() {}
+
+  public PartitionClaim(String changeId, Integer partition, String status, String owner, Long expiresAt) {
+    this.changeId = changeId;
+    this.partition = partition;
+    this.status = status;
+    this.owner = owner;
+    this.expiresAt = expiresAt;
+  }
+
+  public String getChangeId() {
+    return changeId;
+  }
+
+  public void setChangeId(String changeId) {
+    this.changeId = changeId;
+  }
+
+  public Integer getPartition() {
+    return partition;
+  }
+
+  public void setPartition(Integer partition) {
+    this.partition = partition;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public void setStatus(String status) {
+    this.status = status;
+  }
+
+  public String getOwner() {
+    return owner;
+  }
+
+  public void setOwner(String owner) {
+    this.owner = owner;
+  }
+
+  public Long getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(Long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+}
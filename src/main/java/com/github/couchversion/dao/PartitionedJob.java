@@ -0,0 +1,43 @@
+package com.github.couchversion.dao;
+
+/**
+ * Partitioned changeset being applied by the lock holder, the instances waiting for the lock join it
+ */
+public class PartitionedJob {
+
+  private String changeId;
+  private Integer partitions;
+  private String owner;
+
+  public PartitionedJob() {}
+
+  public PartitionedJob(String changeId, Integer partitions, String owner) {
+    this.changeId = changeId;
+    this.partitions = partitions;
+    this.owner = owner;
+  }
+
+  public String getChangeId() {
+    return changeId;
+  }
+
+  public void setChangeId(String changeId) {
+    this.changeId = changeId;
+  }
+
+  public Integer getPartitions() {
+    return partitions;
+  }
+
+  public void setPartitions(Integer partitions) {
+    this.partitions = partitions;
+  }
+
+  public String getOwner() {
+    return owner;
+  }
+
+  public void setOwner(String owner) {
+    this.owner = owner;
+  }
+}
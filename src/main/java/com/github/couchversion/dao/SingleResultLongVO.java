@@ -1,14 +0,0 @@
-package com.github.couchversion.dao;
-
-public class SingleResultLongVO {
-
-    private Long val;
-
-    public Long getVal() {
-        return val;
-    }
-
-    public void setVal(Long val) {
-        this.val = val;
-    }
-}
@@ -0,0 +1,48 @@
+package com.github.couchversion.invoke;
+
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.Checkpoint;
+import com.github.couchversion.ChangeSetPartition;
+
+/**
+ * State of a single execution of a changeset, available to the {@link ParameterResolver}s
+ */
+public class ChangeSetContext {
+
+  private final String changeId;
+  private final Checkpoint checkpoint;
+  private final ChangeSetPartition partition;
+  private final ChangeSetStatistics statistics;
+
+  public ChangeSetContext(String changeId, Checkpoint checkpoint, ChangeSetPartition partition, ChangeSetStatistics statistics) {
+    this.changeId = changeId;
+    this.checkpoint = checkpoint;
+    this.partition = partition;
+    this.statistics = statistics;
+  }
+
+  public String getChangeId() {
+    return changeId;
+  }
+
+  /**
+   * @return checkpoint of the execution, null if the changeset doesn't declare one
+   */
+  public Checkpoint getCheckpoint() {
+    return checkpoint;
+  }
+
+  /**
+   * @return partition applied by the execution, null if the changeset doesn't declare one
+   */
+  public ChangeSetPartition getPartition() {
+    return partition;
+  }
+
+  /**
+   * @return statistics of the changeset, shared by all the partitions applied by this instance
+   */
+  public ChangeSetStatistics getStatistics() {
+    return statistics;
+  }
+}
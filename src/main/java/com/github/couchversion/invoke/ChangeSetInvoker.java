@@ -0,0 +1,73 @@
+package com.github.couchversion.invoke;
+
+import com.github.couchversion.exception.CouchVersionChangeSetVersionException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Changeset method resolved once: the parameter resolvers are looked up when the invoker is created and the method
+ * is called through a {@link MethodHandle} adapted to a generic (instance, arguments) signature, so an execution
+ * only resolves the argument values.
+ */
+public class ChangeSetInvoker {
+
+  private static final MethodType GENERIC_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+  private final Method method;
+  private final Class<?>[] parameterTypes;
+  private final ParameterResolver[] binders;
+  private final MethodHandle handle;
+
+  public ChangeSetInvoker(Method method, ParameterResolverRegistry registry) throws CouchVersionChangeSetVersionException {
+    this.method = method;
+    this.parameterTypes = method.getParameterTypes();
+    this.binders = new ParameterResolver[parameterTypes.length];
+    for (int i = 0; i < parameterTypes.length; i++) {
+      binders[i] = registry.find(parameterTypes[i]);
+      if (binders[i] == null) {
+        throw new CouchVersionChangeSetVersionException("ChangeSet method " + method.getName() +
+            " has wrong arguments list, no resolver for " + parameterTypes[i].getName() + ". Please see docs for more info!");
+      }
+    }
+
+    try {
+      method.setAccessible(true);
+      this.handle = MethodHandles.lookup().unreflect(method)
+          .asSpreader(Object[].class, parameterTypes.length)
+          .asType(GENERIC_TYPE);
+    } catch (IllegalAccessException | RuntimeException e) {
+      throw new CouchVersionChangeSetVersionException("ChangeSet method " + method.getName() + " can't be invoked: " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return value returned by the changeset, null for void methods
+   * @throws Throwable exception thrown by the changeset
+   */
+  public Object invoke(Object changeLogInstance, ChangeSetContext context) throws Throwable {
+    Object[] args = new Object[binders.length];
+    for (int i = 0; i < binders.length; i++) {
+      args[i] = binders[i].resolve(parameterTypes[i], context);
+    }
+    return (Object) handle.invokeExact(changeLogInstance, args);
+  }
+
+  /**
+   * @return true if the method declares a parameter of this type
+   */
+  public boolean hasParameter(Class<?> type) {
+    for (Class<?> parameterType : parameterTypes) {
+      if (parameterType.equals(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+}
@@ -0,0 +1,39 @@
+package com.github.couchversion.invoke;
+
+import java.util.function.Function;
+
+/**
+ * Provides the value of a changeset method parameter. Resolvers are looked up once per changeset method, by parameter
+ * type, and called for each execution.
+ *
+ * @see ParameterResolverRegistry
+ */
+public interface ParameterResolver {
+
+  /**
+   * @return true if this resolver provides parameters of this type
+   */
+  boolean supports(Class<?> parameterType);
+
+  /**
+   * @return value of the parameter for this execution of the changeset
+   */
+  Object resolve(Class<?> parameterType, ChangeSetContext context);
+
+  /**
+   * @return resolver of the parameters of exactly this type
+   */
+  static <T> ParameterResolver forType(Class<T> type, Function<ChangeSetContext, ? extends T> resolver) {
+    return new ParameterResolver() {
+      @Override
+      public boolean supports(Class<?> parameterType) {
+        return parameterType.equals(type);
+      }
+
+      @Override
+      public Object resolve(Class<?> parameterType, ChangeSetContext context) {
+        return resolver.apply(context);
+      }
+    };
+  }
+}
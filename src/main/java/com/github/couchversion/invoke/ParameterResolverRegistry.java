@@ -0,0 +1,40 @@
+package com.github.couchversion.invoke;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Ordered list of {@link ParameterResolver}s, the first one supporting a parameter type resolves it.
+ * Resolvers added with {@link #addFirst(ParameterResolver)} take precedence over the built-in ones.
+ */
+public class ParameterResolverRegistry {
+
+  private final List<ParameterResolver> resolvers = new CopyOnWriteArrayList<>();
+
+  public ParameterResolverRegistry add(ParameterResolver resolver) {
+    resolvers.add(resolver);
+    return this;
+  }
+
+  public ParameterResolverRegistry addFirst(ParameterResolver resolver) {
+    resolvers.add(0, resolver);
+    return this;
+  }
+
+  /**
+   * @return resolver of the parameter type, or null if no resolver supports it
+   */
+  public ParameterResolver find(Class<?> parameterType) {
+    for (ParameterResolver resolver : resolvers) {
+      if (resolver.supports(parameterType)) {
+        return resolver;
+      }
+    }
+    return null;
+  }
+
+  public List<ParameterResolver> getResolvers() {
+    return new ArrayList<>(resolvers);
+  }
+}
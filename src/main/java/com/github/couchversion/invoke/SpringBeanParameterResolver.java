@@ -0,0 +1,25 @@
+package com.github.couchversion.invoke;
+
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Resolves the parameters whose type matches a single bean of the Spring context
+ */
+public class SpringBeanParameterResolver implements ParameterResolver {
+
+  private final ApplicationContext context;
+
+  public SpringBeanParameterResolver(ApplicationContext context) {
+    this.context = context;
+  }
+
+  @Override
+  public boolean supports(Class<?> parameterType) {
+    return context.getBeanNamesForType(parameterType).length == 1;
+  }
+
+  @Override
+  public Object resolve(Class<?> parameterType, ChangeSetContext context) {
+    return this.context.getBean(parameterType);
+  }
+}
@@ -0,0 +1,109 @@
+package com.github.couchversion.listener;
+
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.MigrationResult;
+import com.github.couchversion.changeset.MigrationPlan;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the migration metrics to Micrometer (optional dependency io.micrometer:micrometer-core):
+ * <ul>
+ * <li>couchversion.scan - changelog scan time</li>
+ * <li>couchversion.state.check - applied state check latency, tag new_changes</li>
+ * <li>couchversion.state.lookups - ChangeEntry lookups (KV operations) done by the state checks</li>
+ * <li>couchversion.lock.wait - time spent waiting for the lock, tag acquired</li>
+ * <li>couchversion.changeset - duration of each changeset, tag outcome</li>
+ * <li>couchversion.changeset.retries - retried changeset executions</li>
+ * <li>couchversion.changeset.retry.backoff - time waited before retrying a changeset</li>
+ * <li>couchversion.changeset.kv.ops - KV operations issued by the changesets</li>
+ * <li>couchversion.changeset.query.ops - N1QL queries issued by the changesets</li>
+ * <li>couchversion.migration - duration of the whole migration, tag outcome</li>
+ * </ul>
+ * The changeset meters can also be tagged with the change_id, see {@link #setChangeIdTag(boolean)}.
+ */
+public class MicrometerMigrationListener implements MigrationListener {
+
+  private final MeterRegistry registry;
+  private final Tags tags;
+  private boolean changeIdTag = false;
+
+  public MicrometerMigrationListener(MeterRegistry registry) {
+    this(registry, Tags.empty());
+  }
+
+  /**
+   * @param tags common tags added to all the meters, e.g. the application name
+   */
+  public MicrometerMigrationListener(MeterRegistry registry, Tags tags) {
+    this.registry = registry;
+    this.tags = tags;
+  }
+
+  /**
+   * Tags the changeset meters with the id of the changeset. Each changeset then creates its own time series, which
+   * grow with the changelog and stay in the registry (and in the monitoring backend) for the life of the application:
+   * only enable it if your backend copes with that cardinality.
+   *
+   * @param changeIdTag default is false
+   * @return MicrometerMigrationListener object for fluent interface
+   */
+  public MicrometerMigrationListener setChangeIdTag(boolean changeIdTag) {
+    this.changeIdTag = changeIdTag;
+    return this;
+  }
+
+  @Override
+  public void onScanComplete(MigrationPlan plan, long durationMillis) {
+    registry.timer("couchversion.scan", tags).record(durationMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onStateQuery(int lookups, long durationMillis, boolean newChanges) {
+    registry.timer("couchversion.state.check", tags.and("new_changes", String.valueOf(newChanges)))
+        .record(durationMillis, TimeUnit.MILLISECONDS);
+    registry.counter("couchversion.state.lookups", tags).increment(lookups);
+  }
+
+  @Override
+  public void onLockWait(long waitMillis, boolean acquired) {
+    registry.timer("couchversion.lock.wait", tags.and("acquired", String.valueOf(acquired)))
+        .record(waitMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onChangeSetOperations(String changeId, ChangeSetStatistics statistics) {
+    registry.counter("couchversion.changeset.kv.ops", changeSetTags(changeId)).increment(statistics.getKvOperations());
+    registry.counter("couchversion.changeset.query.ops", changeSetTags(changeId))
+        .increment(statistics.getQueryOperations());
+  }
+
+  @Override
+  public void onChangeSetEnd(String changeId, long durationMillis, Throwable failure) {
+    registry.timer("couchversion.changeset", changeSetTags(changeId).and("outcome", outcome(failure)))
+        .record(durationMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onRetry(String changeId, int attempt, Throwable cause, long backoffMillis) {
+    registry.counter("couchversion.changeset.retries", changeSetTags(changeId)).increment();
+    registry.timer("couchversion.changeset.retry.backoff", changeSetTags(changeId))
+        .record(backoffMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onMigrationEnd(MigrationResult result, Throwable failure) {
+    registry.timer("couchversion.migration", tags.and("outcome", outcome(failure)))
+        .record(result.getDurationMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  private Tags changeSetTags(String changeId) {
+    return changeIdTag ? tags.and("change_id", changeId) : tags;
+  }
+
+  private static String outcome(Throwable failure) {
+    return failure == null ? "success" : "failure";
+  }
+}
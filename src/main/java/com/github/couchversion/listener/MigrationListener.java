@@ -0,0 +1,60 @@
+package com.github.couchversion.listener;
+
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.MigrationResult;
+import com.github.couchversion.changeset.MigrationPlan;
+
+/**
+ * Callbacks on the steps of a migration, to collect metrics or trace where the startup time goes.
+ * All methods have an empty default implementation; they are called on the migration threads and must be fast.
+ * An exception thrown by a listener is logged and doesn't affect the migration.
+ *
+ * @see com.github.couchversion.CouchVersion#addListener(MigrationListener)
+ */
+public interface MigrationListener {
+
+  /**
+   * The changelogs have been found and sorted
+   */
+  default void onScanComplete(MigrationPlan plan, long durationMillis) {}
+
+  /**
+   * The applied state of the changesets has been fetched
+   *
+   * @param lookups number of entries checked
+   * @param newChanges true if some changesets haven't been applied yet
+   */
+  default void onStateQuery(int lookups, long durationMillis, boolean newChanges) {}
+
+  /**
+   * The lock has been acquired, or the migration has been completed by another instance while waiting for it
+   */
+  default void onLockWait(long waitMillis, boolean acquired) {}
+
+  default void onChangeSetStart(String changeId) {}
+
+  /**
+   * @param failure null if the changeset has been applied
+   */
+  default void onChangeSetEnd(String changeId, long durationMillis, Throwable failure) {}
+
+  /**
+   * Operations issued by the changeset, called before {@link #onChangeSetEnd}. Only the operations done through the
+   * changeset parameters are counted: {@code DocumentMigrator}, {@code BatchedQueryExecutor} and the queries recorded
+   * in the {@code ChangeSetStatistics}.
+   */
+  default void onChangeSetOperations(String changeId, ChangeSetStatistics statistics) {}
+
+  /**
+   * The changeset has failed with a retryable error and is executed again after the backoff
+   *
+   * @param attempt number of the failed attempt, starting at 1
+   * @param backoffMillis delay before the next attempt
+   */
+  default void onRetry(String changeId, int attempt, Throwable cause, long backoffMillis) {}
+
+  /**
+   * @param failure null if the migration has been completed
+   */
+  default void onMigrationEnd(MigrationResult result, Throwable failure) {}
+}
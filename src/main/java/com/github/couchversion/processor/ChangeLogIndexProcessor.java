@@ -0,0 +1,263 @@
+package com.github.couchversion.processor;
+
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+import com.github.couchversion.utils.ChangeLogIndex;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Writes the {@link ChangeLogIndex} of the compiled @{@link ChangeLog} classes, so the runner doesn't need to scan
+ * the classpath at startup. Duplicated changeset ids are reported as compilation errors, inside a changelog like at
+ * runtime, and also across changelogs since the runner would silently skip the second changeset. Ids duplicated across
+ * changelogs are only reported as warnings when their @Profile exclude each other (e.g. {@code dev} and {@code !dev}).
+ * The {@code -Acouchversion.duplicateIds=warning} compiler option reports all of them as warnings.
+ *
+ * @see ChangeLogIndex
+ */
+@SupportedAnnotationTypes({"com.github.couchversion.changeset.ChangeLog", "com.github.couchversion.changeset.ChangeSet"})
+@SupportedOptions(ChangeLogIndexProcessor.DUPLICATE_IDS_OPTION)
+public class ChangeLogIndexProcessor extends AbstractProcessor {
+
+  static final String DUPLICATE_IDS_OPTION = "couchversion.duplicateIds";
+  private static final String PROFILE_ANNOTATION = "org.springframework.context.annotation.Profile";
+
+  /**
+   * Index records grouped by changelog class name, sorted to keep the generated file stable between builds
+   */
+  private final Map<String, List<String>> recordsByClass = new TreeMap<>();
+  private final Map<String, Element> processedClasses = new HashMap<>();
+  private Diagnostic.Kind duplicateIdsKind = Diagnostic.Kind.ERROR;
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    if ("warning".equalsIgnoreCase(processingEnv.getOptions().get(DUPLICATE_IDS_OPTION))) {
+      duplicateIdsKind = Diagnostic.Kind.WARNING;
+    }
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      writeIndex();
+    } else {
+      for (Element element : roundEnv.getElementsAnnotatedWith(ChangeLog.class)) {
+        if (element.getKind() == ElementKind.CLASS) {
+          indexChangeLog((TypeElement) element);
+        }
+      }
+    }
+    return false;
+  }
+
+  private void indexChangeLog(TypeElement changeLog) {
+    String className = processingEnv.getElementUtils().getBinaryName(changeLog).toString();
+    List<String> records = new ArrayList<>();
+    records.add(record(ChangeLogIndex.CHANGELOG_RECORD, className, profiles(changeLog)));
+
+    Map<String, Element> ids = new HashMap<>();
+    for (Element enclosed : changeLog.getEnclosedElements()) {
+      ChangeSet changeSet = enclosed.getAnnotation(ChangeSet.class);
+      if (changeSet == null || enclosed.getKind() != ElementKind.METHOD) {
+        continue;
+      }
+      if (ids.put(changeSet.id(), enclosed) != null) {
+        processingEnv.getMessager().printMessage(duplicateIdsKind,
+            String.format("Duplicated changeset id found: '%s'", changeSet.id()), enclosed);
+      }
+      records.add(record(ChangeLogIndex.CHANGESET_RECORD, className,
+          ((ExecutableElement) enclosed).getSimpleName().toString(), changeSet.id(), profiles(enclosed)));
+    }
+
+    recordsByClass.put(className, records);
+    processedClasses.put(className, changeLog);
+  }
+
+  /**
+   * Merges the changelogs compiled in this run with the ones of the previous index, incremental builds only
+   * compile the modified sources
+   */
+  private void writeIndex() {
+    Filer filer = processingEnv.getFiler();
+    readPreviousIndex(filer);
+    if (recordsByClass.isEmpty()) {
+      return;
+    }
+    checkDuplicatedIdsAcrossClasses();
+
+    try {
+      FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", ChangeLogIndex.INDEX_LOCATION);
+      try (Writer writer = file.openWriter()) {
+        writer.write("# Generated by " + getClass().getName() + ", do not edit\n");
+        for (List<String> records : recordsByClass.values()) {
+          for (String record : records) {
+            writer.write(record);
+            writer.write('\n');
+          }
+        }
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Unable to write " + ChangeLogIndex.INDEX_LOCATION + ": " + e.getMessage());
+    }
+  }
+
+  private void readPreviousIndex(Filer filer) {
+    Map<String, List<String>> previous = new HashMap<>();
+    try {
+      FileObject file = filer.getResource(StandardLocation.CLASS_OUTPUT, "", ChangeLogIndex.INDEX_LOCATION);
+      try (Reader reader = file.openReader(true); BufferedReader lines = new BufferedReader(reader)) {
+        String line;
+        while ((line = lines.readLine()) != null) {
+          if (!line.isEmpty() && !line.startsWith("#")) {
+            previous.computeIfAbsent(line.split(ChangeLogIndex.SEPARATOR, -1)[1], k -> new ArrayList<>()).add(line);
+          }
+        }
+      }
+    } catch (IOException e) {
+      // no previous index, this is a full build
+      return;
+    }
+
+    for (Map.Entry<String, List<String>> entry : previous.entrySet()) {
+      String className = entry.getKey();
+      boolean stillExists = processingEnv.getElementUtils().getTypeElement(className.replace('$', '.')) != null;
+      if (!processedClasses.containsKey(className) && stillExists) {
+        recordsByClass.put(className, entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Changeset declaration read from an index record, the profiles are the last field of the records
+   */
+  private static class Declaration {
+    private final String className;
+    private final String classProfiles;
+    private final String profiles;
+
+    private Declaration(String className, String classProfiles, String profiles) {
+      this.className = className;
+      this.classProfiles = classProfiles;
+      this.profiles = profiles;
+    }
+
+    /**
+     * Distinct profiles like {@code dev} and {@code prod} can be active together, the changesets only exclude each
+     * other when one of them requires a profile the other one excludes
+     */
+    private boolean excludes(Declaration other) {
+      for (String first : new String[]{classProfiles, profiles}) {
+        for (String second : new String[]{other.classProfiles, other.profiles}) {
+          if (contradict(first, second)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    private static boolean contradict(String first, String second) {
+      if (first.isEmpty() || second.isEmpty()) {
+        return false;
+      }
+      for (String x : first.split(",")) {
+        for (String y : second.split(",")) {
+          if (!x.trim().equals("!" + y.trim()) && !y.trim().equals("!" + x.trim())) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+  }
+
+  private void checkDuplicatedIdsAcrossClasses() {
+    Map<String, List<Declaration>> declarationsById = new HashMap<>();
+    for (Map.Entry<String, List<String>> entry : recordsByClass.entrySet()) {
+      String classProfiles = "";
+      for (String record : entry.getValue()) {
+        String[] fields = record.split(ChangeLogIndex.SEPARATOR, -1);
+        if (ChangeLogIndex.CHANGELOG_RECORD.equals(fields[0])) {
+          classProfiles = fields[fields.length - 1];
+          continue;
+        }
+        Declaration declaration = new Declaration(entry.getKey(), classProfiles, fields[fields.length - 1]);
+        List<Declaration> declarations = declarationsById.computeIfAbsent(fields[3], id -> new ArrayList<>());
+        for (Declaration other : declarations) {
+          if (other.className.equals(declaration.className)) {
+            continue;
+          }
+          boolean exclusive = declaration.excludes(other);
+          processingEnv.getMessager().printMessage(exclusive ? Diagnostic.Kind.WARNING : duplicateIdsKind,
+              String.format("Duplicated changeset id found: '%s' is declared in %s and %s%s", fields[3], other.className,
+                  declaration.className, exclusive ? ", their profiles exclude each other" : ""),
+              processedClasses.get(declaration.className));
+        }
+        declarations.add(declaration);
+      }
+    }
+  }
+
+  private static String profiles(Element element) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      if (!mirror.getAnnotationType().toString().equals(PROFILE_ANNOTATION)) {
+        continue;
+      }
+      StringBuilder profiles = new StringBuilder();
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : mirror.getElementValues().entrySet()) {
+        if (!value.getKey().getSimpleName().contentEquals("value")) {
+          continue;
+        }
+        Object values = value.getValue().getValue();
+        if (values instanceof List) {
+          for (Object profile : (List<?>) values) {
+            if (profiles.length() > 0) {
+              profiles.append(',');
+            }
+            profiles.append(((AnnotationValue) profile).getValue());
+          }
+        } else {
+          profiles.append(values);
+        }
+      }
+      return profiles.toString();
+    }
+    return "";
+  }
+
+  private static String record(String... fields) {
+    return String.join(ChangeLogIndex.SEPARATOR, fields);
+  }
+}
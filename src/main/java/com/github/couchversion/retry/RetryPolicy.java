@@ -0,0 +1,130 @@
+package com.github.couchversion.retry;
+
+import com.couchbase.client.core.error.DocumentLockedException;
+import com.couchbase.client.core.error.DurableWriteInProgressException;
+import com.couchbase.client.core.error.DurableWriteReCommitInProgressException;
+import com.couchbase.client.core.error.IndexesNotReadyException;
+import com.couchbase.client.core.error.JobQueueFullException;
+import com.couchbase.client.core.error.RequestCanceledException;
+import com.couchbase.client.core.error.ServerOutOfMemoryException;
+import com.couchbase.client.core.error.ServiceNotAvailableException;
+import com.couchbase.client.core.error.TemporaryFailureException;
+import com.couchbase.client.core.error.TimeoutException;
+import com.couchbase.client.core.msg.CancellationReason;
+import com.github.couchversion.changeset.ChangeSet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries of a failed changeset, read from its {@link ChangeSet} annotation:
+ * <ul>
+ * <li>only the failures caused by a transient Couchbase error are retried, unless retryOn is set</li>
+ * <li>the delay between two attempts grows exponentially, from retryBackoffMillis up to retryMaxBackoffMillis,
+ * with a random jitter so several instances don't retry at the same time</li>
+ * <li>no more attempts are made once retryMaxElapsedMillis has elapsed since the first one</li>
+ * </ul>
+ */
+public class RetryPolicy {
+
+  /**
+   * Timeouts, temporary failures and the errors returned while the cluster is rebalancing or overloaded
+   */
+  private static final List<Class<? extends Throwable>> TRANSIENT_ERRORS = Collections.unmodifiableList(Arrays.asList(
+      TimeoutException.class,
+      TemporaryFailureException.class,
+      ServerOutOfMemoryException.class,
+      ServiceNotAvailableException.class,
+      DocumentLockedException.class,
+      DurableWriteInProgressException.class,
+      DurableWriteReCommitInProgressException.class,
+      IndexesNotReadyException.class,
+      JobQueueFullException.class));
+
+  private final int maxAttempts;
+  private final long backoffMillis;
+  private final long maxBackoffMillis;
+  private final long maxElapsedMillis;
+  private final List<Class<? extends Throwable>> retryOn;
+
+  /**
+   * @param maxAttempts max number of executions, 1 or less disables the retries
+   * @param backoffMillis delay before the first retry
+   * @param maxBackoffMillis max delay between two attempts
+   * @param maxElapsedMillis time after which the changeset isn't retried anymore, 0 for no limit
+   * @param retryOn retried failures, empty for the transient Couchbase errors
+   */
+  public RetryPolicy(int maxAttempts, long backoffMillis, long maxBackoffMillis, long maxElapsedMillis,
+      List<Class<? extends Throwable>> retryOn) {
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.backoffMillis = Math.max(0, backoffMillis);
+    this.maxBackoffMillis = Math.max(this.backoffMillis, maxBackoffMillis);
+    this.maxElapsedMillis = maxElapsedMillis;
+    this.retryOn = retryOn.isEmpty() ? TRANSIENT_ERRORS : retryOn;
+  }
+
+  public static RetryPolicy of(ChangeSet changeSet) {
+    return new RetryPolicy(changeSet.retries(), changeSet.retryBackoffMillis(), changeSet.retryMaxBackoffMillis(),
+        changeSet.retryMaxElapsedMillis(), Arrays.asList(changeSet.retryOn()));
+  }
+
+  /**
+   * @return true if the failure, or one of its causes, is retried by this policy
+   */
+  public boolean isRetryable(Throwable failure) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+      if (cause instanceof RequestCanceledException) {
+        // the SDK gave up retrying: overloaded or rebalancing cluster, not a shutdown or a cancellation
+        CancellationReason reason = ((RequestCanceledException) cause).reason();
+        if (reason == CancellationReason.TOO_MANY_REQUESTS_IN_RETRY || reason == CancellationReason.TARGET_NODE_REMOVED) {
+          return retryOn == TRANSIENT_ERRORS || matches(cause);
+        }
+      }
+      if (matches(cause)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean matches(Throwable cause) {
+    for (Class<? extends Throwable> type : retryOn) {
+      if (type.isInstance(cause)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Exponential backoff with equal jitter: half of the delay is fixed, the other half is random
+   *
+   * @param attempt number of the failed attempt, starting at 1
+   * @return delay before the next attempt
+   */
+  public long backoffMillis(int attempt) {
+    long delay = backoffMillis << Math.min(attempt - 1, 30);
+    delay = delay < 0 || delay > maxBackoffMillis ? maxBackoffMillis : delay;
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+
+  /**
+   * @param attempt number of the failed attempt, starting at 1
+   * @param elapsedMillis time elapsed since the first attempt
+   * @param nextBackoffMillis delay before the next attempt
+   * @return true if another attempt can be made
+   */
+  public boolean canRetry(int attempt, long elapsedMillis, long nextBackoffMillis) {
+    return attempt < maxAttempts && (maxElapsedMillis <= 0 || elapsedMillis + nextBackoffMillis <= maxElapsedMillis);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public long getMaxElapsedMillis() {
+    return maxElapsedMillis;
+  }
+}
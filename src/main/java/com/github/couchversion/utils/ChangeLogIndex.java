@@ -0,0 +1,84 @@
+package com.github.couchversion.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Changelog index written at compile time by {@link com.github.couchversion.processor.ChangeLogIndexProcessor}.
+ * Each line of the index is a tab separated record:
+ * <pre>
+ * changelog  className  profiles
+ * changeset  className  methodName  id  profiles
+ * </pre>
+ * where profiles is a comma separated list of the values of the class or method @Profile annotation. The runner only
+ * reads the class names, the changesets and their profiles let the processor check the duplicated ids of incremental
+ * builds.
+ */
+public class ChangeLogIndex {
+
+  public static final String INDEX_LOCATION = "META-INF/couchversion/changelogs.idx";
+  public static final String CHANGELOG_RECORD = "changelog";
+  public static final String CHANGESET_RECORD = "changeset";
+  public static final String SEPARATOR = "\t";
+
+  private final Set<String> classNames = new LinkedHashSet<>();
+
+  /**
+   * Loads and merges every index found in the classpath
+   *
+   * @param classLoader class loader used to look up the index resources
+   * @return the index or null if no index is present in the classpath
+   * @throws IOException if an index can't be read
+   */
+  public static ChangeLogIndex load(ClassLoader classLoader) throws IOException {
+    Enumeration<URL> resources = classLoader.getResources(INDEX_LOCATION);
+    if (!resources.hasMoreElements()) {
+      return null;
+    }
+
+    ChangeLogIndex index = new ChangeLogIndex();
+    while (resources.hasMoreElements()) {
+      try (Reader reader = new InputStreamReader(resources.nextElement().openStream(), StandardCharsets.UTF_8)) {
+        index.read(reader);
+      }
+    }
+    return index;
+  }
+
+  public void read(Reader reader) throws IOException {
+    BufferedReader lines = new BufferedReader(reader);
+    String line;
+    while ((line = lines.readLine()) != null) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] record = line.split(SEPARATOR, -1);
+      if (CHANGELOG_RECORD.equals(record[0]) || CHANGESET_RECORD.equals(record[0])) {
+        classNames.add(record[1]);
+      }
+    }
+  }
+
+  /**
+   * @param basePackage package scanned for changelogs, sub packages included
+   * @return names of the indexed changelog classes inside the package
+   */
+  public List<String> getChangeLogClassNames(String basePackage) {
+    List<String> packageClassNames = new ArrayList<>();
+    for (String className : classNames) {
+      if (className.startsWith(basePackage + ".")) {
+        packageClassNames.add(className);
+      }
+    }
+    return packageClassNames;
+  }
+}
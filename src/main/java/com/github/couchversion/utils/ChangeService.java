@@ -3,25 +3,35 @@ package com.github.couchversion.utils;
 import com.github.couchversion.changeset.ChangeEntry;
 import com.github.couchversion.changeset.ChangeLog;
 import com.github.couchversion.changeset.ChangeSet;
+import com.github.couchversion.changeset.MigrationPlan;
+import com.github.couchversion.changeset.PlannedChangeSet;
 import com.github.couchversion.exception.CouchVersionChangeSetVersionException;
 import org.reflections.Reflections;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
 
+import java.io.IOException;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Method;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import static java.util.Arrays.asList;
+import static org.springframework.util.StringUtils.hasText;
 
 
 public class ChangeService {
+  private static final Logger logger = LoggerFactory.getLogger(ChangeService.class);
   private static final String DEFAULT_PROFILE = "default";
 
   private final String changeLogsBasePackage;
@@ -42,22 +52,59 @@ public class ChangeService {
   }
 
   public List<Class<?>> fetchChangeLogs(){
-    Reflections reflections = new Reflections(changeLogsBasePackage);
-    Set<Class<?>> changeLogs = reflections.getTypesAnnotatedWith(ChangeLog.class); // TODO remove dependency, do own method
+    Set<Class<?>> changeLogs = fetchIndexedChangeLogs();
+    if (changeLogs == null) {
+      logger.debug("No changelog index found for package {}, scanning the classpath", changeLogsBasePackage);
+      Reflections reflections = new Reflections(changeLogsBasePackage);
+      changeLogs = reflections.getTypesAnnotatedWith(ChangeLog.class);
+    }
     List<Class<?>> filteredChangeLogs = (List<Class<?>>) filterByActiveProfiles(changeLogs);
 
-    Collections.sort(filteredChangeLogs, new ChangeLogComparator());
-
-    return filteredChangeLogs;
+    return sortChangeLogs(filteredChangeLogs);
   }
 
   public List<Method> fetchChangeSets(final Class<?> type) throws CouchVersionChangeSetVersionException {
     final List<Method> changeSets = filterChangeSetAnnotation(asList(type.getDeclaredMethods()));
     final List<Method> filteredChangeSets = (List<Method>) filterByActiveProfiles(changeSets);
 
-    Collections.sort(filteredChangeSets, new ChangeSetComparator());
+    return sortChangeSets(filteredChangeSets);
+  }
+
+  /**
+   * @param changeLogs @{@link ChangeLog} classes
+   * @return the changelogs sorted by their order, or by their name when they have none
+   */
+  public List<Class<?>> sortChangeLogs(List<Class<?>> changeLogs) {
+    return sortByKey(changeLogs, changeLogSortKeys(changeLogs));
+  }
+
+  /**
+   * @param changeSets @{@link ChangeSet} methods
+   * @return the changesets sorted by their order
+   */
+  public List<Method> sortChangeSets(List<Method> changeSets) {
+    List<String> keys = new ArrayList<>(changeSets.size());
+    for (Method changeSet : changeSets) {
+      keys.add(changeSet.getAnnotation(ChangeSet.class).order());
+    }
+    return sortByKey(changeSets, keys);
+  }
 
-    return filteredChangeSets;
+  /**
+   * Scans the changelogs package once and reads every changeset annotation, producing the sorted list of
+   * changesets that are active for the current profiles.
+   *
+   * @return plan shared by all the steps of a single execution
+   * @throws CouchVersionChangeSetVersionException if a changelog has duplicated changeset ids
+   */
+  public MigrationPlan createMigrationPlan() throws CouchVersionChangeSetVersionException {
+    List<PlannedChangeSet> changeSets = new ArrayList<>();
+    for (Class<?> changeLogClass : fetchChangeLogs()) {
+      for (Method method : fetchChangeSets(changeLogClass)) {
+        changeSets.add(new PlannedChangeSet(changeLogClass, method));
+      }
+    }
+    return new MigrationPlan(changeSets);
   }
 
   public boolean isRestartInterrupted(Method changesetMethod){
@@ -94,6 +141,124 @@ public class ChangeService {
     }
   }
 
+  /**
+   * Loads the changelogs listed in the compile time index, see {@link ChangeLogIndex}
+   *
+   * @return the changelogs or null if there is no index for the scan package
+   */
+  private Set<Class<?>> fetchIndexedChangeLogs() {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    if (classLoader == null) {
+      classLoader = ChangeService.class.getClassLoader();
+    }
+
+    ChangeLogIndex index;
+    try {
+      index = ChangeLogIndex.load(classLoader);
+    } catch (IOException e) {
+      logger.warn("Unable to read the changelog index, scanning the classpath instead", e);
+      return null;
+    }
+    if (index == null) {
+      return null;
+    }
+
+    List<String> classNames = index.getChangeLogClassNames(changeLogsBasePackage);
+    if (classNames.isEmpty()) {
+      return null;
+    }
+    try {
+      if (!isIndexComplete(classLoader)) {
+        return null;
+      }
+    } catch (IOException e) {
+      logger.warn("Unable to list the classpath locations of package " + changeLogsBasePackage + ", scanning the classpath", e);
+      return null;
+    }
+
+    Set<Class<?>> changeLogs = new LinkedHashSet<>();
+    for (String className : classNames) {
+      try {
+        Class<?> changeLog = Class.forName(className, false, classLoader);
+        if (changeLog.isAnnotationPresent(ChangeLog.class)) {
+          changeLogs.add(changeLog);
+        }
+      } catch (ClassNotFoundException e) {
+        logger.warn("Changelog {} is listed in the changelog index but is not in the classpath", className);
+      }
+    }
+    return changeLogs;
+  }
+
+  /**
+   * The index is partial when a classpath location holds the scan package without an index of its own, e.g. a module
+   * or a stale build compiled without the annotation processor
+   *
+   * @return true if every classpath location of the scan package has a changelog index
+   */
+  private boolean isIndexComplete(ClassLoader classLoader) throws IOException {
+    Set<String> indexedRoots = classpathRoots(classLoader.getResources(ChangeLogIndex.INDEX_LOCATION), ChangeLogIndex.INDEX_LOCATION);
+    String packagePath = changeLogsBasePackage.replace('.', '/');
+    for (String root : classpathRoots(classLoader.getResources(packagePath), packagePath)) {
+      if (!indexedRoots.contains(root)) {
+        logger.info("Package {} is also found in {} which has no changelog index, scanning the classpath",
+            changeLogsBasePackage, root);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Set<String> classpathRoots(Enumeration<URL> resources, String path) {
+    Set<String> roots = new HashSet<>();
+    while (resources.hasMoreElements()) {
+      String url = resources.nextElement().toExternalForm();
+      if (url.endsWith("/")) {
+        url = url.substring(0, url.length() - 1);
+      }
+      if (url.endsWith(path)) {
+        roots.add(url.substring(0, url.length() - path.length()));
+      }
+    }
+    return roots;
+  }
+
+  /**
+   * Same ordering as {@link ChangeLogComparator}, but the annotation is read only once per class
+   */
+  private List<String> changeLogSortKeys(List<Class<?>> changeLogs) {
+    List<String> keys = new ArrayList<>(changeLogs.size());
+    for (Class<?> changeLog : changeLogs) {
+      String order = changeLog.getAnnotation(ChangeLog.class).order();
+      keys.add(hasText(order) ? order : changeLog.getCanonicalName());
+    }
+    return keys;
+  }
+
+  /**
+   * Stable sort of the elements by their precomputed keys, nulls first
+   */
+  private static <T> List<T> sortByKey(List<T> elements, List<String> keys) {
+    List<Integer> indexes = new ArrayList<>(elements.size());
+    for (int i = 0; i < elements.size(); i++) {
+      indexes.add(i);
+    }
+    Collections.sort(indexes, (i1, i2) -> {
+      String k1 = keys.get(i1);
+      String k2 = keys.get(i2);
+      if (k1 == null || k2 == null) {
+        return k1 == k2 ? 0 : (k1 == null ? -1 : 1);
+      }
+      return k1.compareTo(k2);
+    });
+
+    List<T> sorted = new ArrayList<>(elements.size());
+    for (Integer index : indexes) {
+      sorted.add(elements.get(index));
+    }
+    return sorted;
+  }
+
   private boolean matchesActiveSpringProfile(AnnotatedElement element) {
     if (!ClassUtils.isPresent("org.springframework.context.annotation.Profile", null)) {
       return true;
@@ -0,0 +1,234 @@
+package com.github.couchversion.utils;
+
+import com.github.couchversion.changeset.PlannedChangeSet;
+import com.github.couchversion.exception.CouchVersionChangeSetVersionException;
+import com.github.couchversion.exception.CouchVersionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dependency graph of the changesets of a migration plan.
+ * <ul>
+ * <li>a changeset without dependsOn and parallelGroup depends on everything which precedes it in the order</li>
+ * <li>consecutive changesets of the same parallelGroup depend on what precedes the group, but not on each other</li>
+ * <li>a changeset with dependsOn depends only on the listed changesets</li>
+ * </ul>
+ * Without any dependsOn or parallelGroup the graph is a chain, and the changesets are executed in their order.
+ */
+public class ChangeSetGraph {
+  private static final Logger logger = LoggerFactory.getLogger(ChangeSetGraph.class);
+
+  /**
+   * Applies a single changeset
+   */
+  public interface ChangeSetTask {
+    /**
+     * @return false if the changeset has been skipped because of a wrong definition
+     */
+    boolean apply(PlannedChangeSet changeSet) throws CouchVersionException;
+  }
+
+  private final List<PlannedChangeSet> changeSets;
+  private final List<Set<Integer>> predecessors = new ArrayList<>();
+  private final List<Set<Integer>> successors = new ArrayList<>();
+
+  public ChangeSetGraph(List<PlannedChangeSet> changeSets) throws CouchVersionChangeSetVersionException {
+    this.changeSets = changeSets;
+
+    Map<String, Integer> indexById = new HashMap<>();
+    for (int i = 0; i < changeSets.size(); i++) {
+      indexById.put(changeSets.get(i).getChangeId(), i);
+      predecessors.add(new LinkedHashSet<>());
+      successors.add(new LinkedHashSet<>());
+    }
+
+    Set<Integer> barrier = new LinkedHashSet<>();
+    Set<Integer> open = new LinkedHashSet<>();
+    String currentGroup = null;
+
+    for (int i = 0; i < changeSets.size(); i++) {
+      PlannedChangeSet changeSet = changeSets.get(i);
+
+      if (!changeSet.getDependsOn().isEmpty()) {
+        for (String dependency : changeSet.getDependsOn()) {
+          Integer index = indexById.get(dependency);
+          if (index == null) {
+            logger.warn("ChangeSet " + changeSet.getChangeId() + " depends on " + dependency +
+                " which is not active, the dependency is ignored");
+          } else {
+            addEdge(index, i);
+          }
+        }
+        open.add(i);
+
+      } else if (!changeSet.getParallelGroup().isEmpty()) {
+        if (!changeSet.getParallelGroup().equals(currentGroup)) {
+          barrier.addAll(open);
+          open.clear();
+          currentGroup = changeSet.getParallelGroup();
+        }
+        for (Integer index : barrier) {
+          addEdge(index, i);
+        }
+        open.add(i);
+
+      } else {
+        barrier.addAll(open);
+        for (Integer index : barrier) {
+          addEdge(index, i);
+        }
+        barrier.clear();
+        barrier.add(i);
+        open.clear();
+        currentGroup = null;
+      }
+    }
+
+    topologicalOrder();
+  }
+
+  private void addEdge(int from, int to) throws CouchVersionChangeSetVersionException {
+    if (from == to) {
+      throw new CouchVersionChangeSetVersionException("ChangeSet " + changeSets.get(to).getChangeId() + " depends on itself");
+    }
+    predecessors.get(to).add(from);
+    successors.get(from).add(to);
+  }
+
+  /**
+   * @return changesets sorted by dependencies, ties are broken by the changeset order
+   * @throws CouchVersionChangeSetVersionException if the dependencies contain a cycle
+   */
+  public List<PlannedChangeSet> topologicalOrder() throws CouchVersionChangeSetVersionException {
+    int[] remaining = new int[changeSets.size()];
+    PriorityQueue<Integer> ready = new PriorityQueue<>();
+    for (int i = 0; i < changeSets.size(); i++) {
+      remaining[i] = predecessors.get(i).size();
+      if (remaining[i] == 0) {
+        ready.add(i);
+      }
+    }
+
+    List<PlannedChangeSet> sorted = new ArrayList<>(changeSets.size());
+    while (!ready.isEmpty()) {
+      int index = ready.poll();
+      sorted.add(changeSets.get(index));
+      for (Integer successor : successors.get(index)) {
+        if (--remaining[successor] == 0) {
+          ready.add(successor);
+        }
+      }
+    }
+
+    if (sorted.size() < changeSets.size()) {
+      List<String> cycle = new ArrayList<>();
+      for (int i = 0; i < changeSets.size(); i++) {
+        if (remaining[i] > 0) {
+          cycle.add(changeSets.get(i).getChangeId());
+        }
+      }
+      throw new CouchVersionChangeSetVersionException("Cyclic dependency between changesets " + cycle +
+          ", please check their dependsOn, parallelGroup and order");
+    }
+    return sorted;
+  }
+
+  /**
+   * Applies all changesets, a changeset is submitted as soon as all the changesets it depends on have been applied.
+   * After the first failure no more changesets are submitted, the running ones are awaited and the failure is thrown.
+   *
+   * @param parallelism max number of changesets applied at the same time, 1 applies them one by one
+   * @param task applies a changeset
+   * @return true if no changeset has been skipped
+   * @throws CouchVersionException the first failure
+   */
+  public boolean execute(int parallelism, ChangeSetTask task) throws CouchVersionException {
+    if (parallelism <= 1) {
+      boolean complete = true;
+      for (PlannedChangeSet changeSet : topologicalOrder()) {
+        complete &= task.apply(changeSet);
+      }
+      return complete;
+    }
+
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "couchversion-changeset-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    try {
+      CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+      Map<Future<Integer>, Integer> running = new HashMap<>();
+      int[] remaining = new int[changeSets.size()];
+      PriorityQueue<Integer> ready = new PriorityQueue<>();
+      for (int i = 0; i < changeSets.size(); i++) {
+        remaining[i] = predecessors.get(i).size();
+        if (remaining[i] == 0) {
+          ready.add(i);
+        }
+      }
+
+      boolean complete = true;
+      Throwable failure = null;
+      while (true) {
+        while (failure == null && !ready.isEmpty()) {
+          int index = ready.poll();
+          running.put(completion.submit(() -> task.apply(changeSets.get(index)) ? 1 : 0), index);
+        }
+        if (running.isEmpty()) {
+          break;
+        }
+
+        Future<Integer> done = completion.take();
+        int index = running.remove(done);
+        try {
+          complete &= done.get() == 1;
+          for (Integer successor : successors.get(index)) {
+            if (--remaining[successor] == 0) {
+              ready.add(successor);
+            }
+          }
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+            logger.error("ChangeSet " + changeSets.get(index).getChangeId() + " has failed, waiting for the running changesets");
+          }
+        }
+      }
+
+      if (failure instanceof CouchVersionException) {
+        throw (CouchVersionException) failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure instanceof Error) {
+        throw (Error) failure;
+      } else if (failure != null) {
+        throw new CouchVersionException(failure.getMessage(), failure);
+      }
+      return complete;
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CouchVersionException("Interrupted while applying the changesets", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -3,17 +3,62 @@ package com.github.couchversion;
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.Cluster;
 import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCluster;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.Scope;
+import com.couchbase.client.java.query.QueryMetaData;
+import com.couchbase.client.java.query.QueryMetrics;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.query.QueryOptions;
+import com.couchbase.client.java.query.QueryResult;
+import com.couchbase.client.java.query.ReactiveQueryResult;
 import com.github.couchversion.changeset.ChangeEntry;
+import com.github.couchversion.changeset.MigrationPlan;
+import com.github.couchversion.dao.ChangeCheckpoint;
 import com.github.couchversion.dao.CouchVersionDAO;
+import com.github.couchversion.dao.DeferredIndexBuild;
+import com.github.couchversion.dao.InMemoryCouchVersionDAO;
+import com.github.couchversion.dao.PartitionedJob;
+import com.github.couchversion.exception.CouchVersionException;
+import com.github.couchversion.listener.MigrationListener;
 import com.github.couchversion.resources.EnvironmentMock;
+import com.github.couchversion.test.batched.BatchedQueryTestResource;
 import com.github.couchversion.test.changelogs.test1.EnvironmentDependentTestResource;
+import com.github.couchversion.test.checkpoint.CheckpointTestResource;
+import com.github.couchversion.test.lazy.AppliedChangeLog;
+import com.github.couchversion.test.lazy.PendingChangeLog;
+import com.github.couchversion.test.lease.LeaseTestResource;
+import com.github.couchversion.test.parallel.ParallelTestResource;
+import com.github.couchversion.test.partition.PartitionedTestResource;
+import com.github.couchversion.test.reactive.ReactiveTestResource;
+import com.github.couchversion.test.statistics.StatisticsTestResource;
+import com.github.couchversion.utils.ChangeService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import static org.mockito.Mockito.*;
 
@@ -78,4 +123,424 @@ public class CouchVersionEnvTest {
     // then
     verify(dao, times(1)).save(new ChangeEntry("Envtest1"));
   }
+
+  @Test
+  public void shouldSkipStateCheckWhenFingerprintMatches() throws Exception {
+    // given
+    String scanPackage = EnvironmentDependentTestResource.class.getPackage().getName();
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(scanPackage);
+    when(dao.getFingerprint()).thenReturn(new ChangeService(scanPackage).createMigrationPlan().getFingerprint());
+
+    // when
+    runner.execute();
+
+    // then
+    verify(dao, never()).hasNewChanges(anyList());
+    verify(dao, never()).save(any());
+    verify(dao, never()).getDeferredIndexBuild();
+  }
+
+  @Test
+  public void shouldSaveFingerprintAfterMigration() throws Exception {
+    // given
+    String scanPackage = EnvironmentDependentTestResource.class.getPackage().getName();
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(scanPackage);
+
+    // when
+    runner.execute();
+
+    // then
+    verify(dao, times(1)).saveFingerprint(new ChangeService(scanPackage).createMigrationPlan().getFingerprint());
+  }
+
+  @Test
+  public void shouldResumeWhenLockIsReleasedByAnotherInstance() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(EnvironmentDependentTestResource.class.getPackage().getName());
+    runner.setLockPollInterval(Duration.ofMillis(10));
+    when(dao.hasNewChanges(anyList())).thenReturn(true, false);
+    when(dao.isLocked()).thenReturn(true, true, true, false);
+
+    // when
+    runner.execute();
+
+    // then
+    verify(dao, never()).getLock(anyLong());
+    verify(dao, never()).save(any());
+  }
+
+  @Test
+  public void shouldExecuteAsync() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(EnvironmentDependentTestResource.class.getPackage().getName());
+
+    // when
+    MigrationResult result = runner.executeAsync().get(10, TimeUnit.SECONDS);
+
+    // then
+    assertEquals(Collections.singletonList("Envtest1"), result.getAppliedChangeSets());
+    assertTrue(new CouchVersionReadiness(runner).isReady());
+    verify(dao, times(1)).save(new ChangeEntry("Envtest1"));
+  }
+
+  @Test
+  public void shouldWaitForReactiveChangeSet() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(ReactiveTestResource.class.getPackage().getName());
+    ReactiveTestResource.processed.set(0);
+
+    // when
+    runner.execute();
+
+    // then
+    assertEquals(10, ReactiveTestResource.processed.get());
+    verify(dao, times(1)).save(new ChangeEntry("Reactivetest1"));
+  }
+
+  @Test
+  public void shouldResumeFromCheckpoint() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(CheckpointTestResource.class.getPackage().getName());
+    runner.setCheckpointInterval(Duration.ofHours(1));
+    CheckpointTestResource.fail = true;
+    ArgumentCaptor<ChangeCheckpoint> saved = ArgumentCaptor.forClass(ChangeCheckpoint.class);
+
+    // when
+    assertThrows(CouchVersionException.class, () -> runner.execute());
+
+    // then the progress is saved on failure
+    verify(dao).saveCheckpoint(saved.capture());
+    assertEquals("5", saved.getValue().getLastKey());
+    assertEquals(5L, saved.getValue().getProcessed());
+
+    // when
+    CheckpointTestResource.fail = false;
+    when(dao.getCheckpoint("Checkpointtest1")).thenReturn(saved.getValue());
+    runner.execute();
+
+    // then
+    verify(dao).removeCheckpoint("Checkpointtest1");
+    verify(dao, times(1)).saveCheckpoint(any());
+  }
+
+  @Test
+  public void shouldApplyAllPartitionsBeforeSavingTheEntry() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(PartitionedTestResource.class.getPackage().getName());
+    PartitionedTestResource.appliedPartitions.clear();
+    when(dao.claimPartition(eq("Partitiontest1"), anyInt())).thenReturn(1L);
+    when(dao.completePartition(eq("Partitiontest1"), anyInt(), anyLong())).thenReturn(true);
+    when(dao.isPartitionDone(eq("Partitiontest1"), anyInt())).thenReturn(true);
+
+    // when
+    runner.execute();
+
+    // then
+    assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3)), PartitionedTestResource.appliedPartitions);
+    verify(dao).publishPartitionedJob("Partitiontest1", 4);
+    verify(dao, times(1)).save(new ChangeEntry("Partitiontest1"));
+    verify(dao).removePartitions("Partitiontest1", 4);
+  }
+
+  @Test
+  public void shouldApplyPartitionsWhileWaitingForTheLock() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(PartitionedTestResource.class.getPackage().getName());
+    runner.setLockPollInterval(Duration.ofMillis(10));
+    PartitionedTestResource.appliedPartitions.clear();
+    when(dao.hasNewChanges(anyList())).thenReturn(true, false);
+    when(dao.getLock(anyLong())).thenReturn(false);
+    when(dao.isLocked()).thenReturn(false, true, false);
+    when(dao.getPartitionedJob()).thenReturn(new PartitionedJob("Partitiontest1", 4, "other"));
+    when(dao.claimPartition(eq("Partitiontest1"), anyInt())).thenReturn(1L, null, 1L, null);
+    when(dao.completePartition(eq("Partitiontest1"), anyInt(), anyLong())).thenReturn(true);
+
+    // when
+    runner.execute();
+
+    // then
+    assertEquals(2, PartitionedTestResource.appliedPartitions.size());
+    verify(dao, times(2)).completePartition(eq("Partitiontest1"), anyInt(), anyLong());
+    verify(dao, never()).save(any());
+  }
+
+  @Test
+  public void shouldNotifyListeners() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(EnvironmentDependentTestResource.class.getPackage().getName());
+    List<String> events = new ArrayList<>();
+    runner.addListener(new MigrationListener() {
+      @Override
+      public void onScanComplete(MigrationPlan plan, long durationMillis) {
+        events.add("scan");
+      }
+
+      @Override
+      public void onStateQuery(int lookups, long durationMillis, boolean newChanges) {
+        events.add("state:" + lookups);
+      }
+
+      @Override
+      public void onLockWait(long waitMillis, boolean acquired) {
+        events.add("lock:" + acquired);
+      }
+
+      @Override
+      public void onChangeSetEnd(String changeId, long durationMillis, Throwable failure) {
+        events.add("changeset:" + changeId);
+      }
+
+      @Override
+      public void onMigrationEnd(MigrationResult result, Throwable failure) {
+        events.add("end:" + (failure == null));
+      }
+    });
+
+    // when
+    runner.execute();
+
+    // then
+    assertEquals(Arrays.asList("scan", "state:1", "lock:true", "state:1", "changeset:Envtest1", "end:true"), events);
+  }
+
+  @Test
+  public void shouldStoreExecutionStatisticsInTheEntry() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(StatisticsTestResource.class.getPackage().getName());
+    StatisticsTestResource.invocations.set(0);
+    when(dao.getInstanceId()).thenReturn("1234@test-host");
+    ArgumentCaptor<ChangeEntry> saved = ArgumentCaptor.forClass(ChangeEntry.class);
+
+    // when
+    runner.execute();
+
+    // then
+    verify(dao).save(saved.capture());
+    ChangeEntry entry = saved.getValue();
+    assertEquals(Integer.valueOf(2), entry.getAttempts());
+    assertEquals("1234@test-host", entry.getExecutedBy());
+    assertEquals(Long.valueOf(7), entry.getMutationCount());
+    assertEquals(Long.valueOf(9), entry.getResultCount());
+    assertEquals(entry.getFinishedAt() - entry.getStartedAt(), (long) entry.getDurationMillis());
+  }
+
+  @Test
+  public void shouldOnlyInstantiateChangeLogsWithPendingChangeSets() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(AppliedChangeLog.class.getPackage().getName());
+    AppliedChangeLog.instances.set(0);
+    when(dao.isNewChange(argThat(entry -> "Lazytest1".equals(entry.getChangeId())))).thenReturn(false);
+
+    // when
+    runner.execute();
+
+    // then
+    MigrationResult result = runner.getMigrationFuture().get();
+    assertEquals(Collections.singletonList("Lazytest2"), result.getAppliedChangeSets());
+    assertEquals(Collections.singletonList(PendingChangeLog.class.getName()), result.getInstantiatedChangeLogs());
+    assertEquals(0, AppliedChangeLog.instances.get());
+  }
+
+  @Test
+  public void shouldCheckAllChangeSetsInOneStateQuery() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(AppliedChangeLog.class.getPackage().getName());
+    runner.setStateFetchConcurrency(8);
+
+    // when
+    runner.execute();
+
+    // then
+    verify(dao, times(2)).hasNewChanges(Arrays.asList("ChangeEntry::Lazytest1", "ChangeEntry::Lazytest2"));
+  }
+
+  @Test
+  public void shouldCheckStateAgainAfterAcquiringTheLock() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(EnvironmentDependentTestResource.class.getPackage().getName());
+    when(dao.hasNewChanges(anyList())).thenReturn(true, false);
+
+    // when
+    runner.execute();
+
+    // then
+    verify(dao).getLock(anyLong());
+    verify(dao, times(2)).hasNewChanges(anyList());
+    verify(dao, never()).save(any(ChangeEntry.class));
+    verify(dao).releaseLock(anyLong());
+  }
+
+  @Test
+  public void shouldRenewTheLeaseWhileMigrating() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(LeaseTestResource.class.getPackage().getName());
+    runner.setLockLeaseTime(Duration.ofMillis(60));
+    when(dao.renewLock()).thenReturn(true);
+
+    // when
+    runner.execute();
+
+    // then
+    verify(dao, atLeastOnce()).renewLock();
+    verify(dao, times(2)).save(any(ChangeEntry.class));
+    verify(dao).releaseLock(anyLong());
+  }
+
+  @Test
+  public void shouldStopWhenTheLockLeaseIsLost() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(LeaseTestResource.class.getPackage().getName());
+    runner.setLockLeaseTime(Duration.ofMillis(60));
+    when(dao.renewLock()).thenReturn(false);
+
+    // when
+    CouchVersionException e = assertThrows(CouchVersionException.class, runner::execute);
+
+    // then
+    assertTrue(e.getMessage().contains("Leasetest2"));
+    verify(dao, never()).save(argThat(entry -> "Leasetest2".equals(entry.getChangeId())));
+    verify(dao, never()).saveFingerprint(anyString());
+    verify(dao).releaseLock(anyLong());
+  }
+
+  @Test
+  public void shouldCopyLegacyMetadataUnderTheLock() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(EnvironmentDependentTestResource.class.getPackage().getName());
+
+    // when
+    runner.execute();
+
+    // then
+    InOrder inOrder = inOrder(dao);
+    inOrder.verify(dao).getLock(anyLong());
+    inOrder.verify(dao).migrateMetadata(Collections.singletonList("ChangeEntry::Envtest1"));
+    inOrder.verify(dao).hasNewChanges(anyList());
+    inOrder.verify(dao).releaseLock(anyLong());
+  }
+
+  @Test
+  public void shouldRunTheBatchedQueryOnTheConfiguredCollection() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(BatchedQueryTestResource.class.getPackage().getName());
+    Scope scope = mock(Scope.class);
+    Collection orders = mock(Collection.class);
+    ReactiveCollection reactiveOrders = mock(ReactiveCollection.class);
+    ReactiveCluster reactiveCluster = mock(ReactiveCluster.class);
+    when(bucket.scope("inventory")).thenReturn(scope);
+    when(scope.collection("orders")).thenReturn(orders);
+    when(orders.reactive()).thenReturn(reactiveOrders);
+    when(reactiveOrders.bucketName()).thenReturn("test");
+    when(reactiveOrders.scopeName()).thenReturn("inventory");
+    when(reactiveOrders.name()).thenReturn("orders");
+    when(cluster.reactive()).thenReturn(reactiveCluster);
+    QueryMetrics metrics = mock(QueryMetrics.class);
+    QueryMetaData metaData = mock(QueryMetaData.class);
+    when(metaData.metrics()).thenReturn(Optional.of(metrics));
+    ReactiveQueryResult result = mock(ReactiveQueryResult.class);
+    when(result.rowsAsObject()).thenReturn(Flux.empty());
+    when(result.metaData()).thenReturn(Mono.just(metaData));
+    when(reactiveCluster.query(anyString(), any(QueryOptions.class))).thenReturn(Mono.just(result));
+
+    // when
+    runner.execute();
+
+    // then
+    verify(reactiveCluster).query(eq("UPDATE `test`.`inventory`.`orders` SET archived = true WHERE archived IS MISSING " +
+        "LIMIT 10"), any(QueryOptions.class));
+    verify(dao).save(any(ChangeEntry.class));
+  }
+
+  @Test
+  public void shouldApplyIndependentChangeLogsConcurrently() {
+    // given
+    InMemoryCouchVersionDAO store = new InMemoryCouchVersionDAO();
+    runner.setDAO(store);
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(ParallelTestResource.class.getPackage().getName());
+    runner.setParallelism(2);
+
+    // when
+    assertTimeoutPreemptively(Duration.ofSeconds(20), runner::execute);
+
+    // then
+    MigrationResult result = runner.getMigrationFuture().join();
+    assertEquals(new HashSet<>(Arrays.asList("Paralleltest1", "Paralleltest2")),
+        new HashSet<>(result.getAppliedChangeSets()));
+    assertFalse(store.isNewChange(new ChangeEntry("Paralleltest1")));
+    assertFalse(store.isNewChange(new ChangeEntry("Paralleltest2")));
+  }
+
+  @Test
+  public void shouldBuildTheLeftoverIndexesUnderTheLock() throws Exception {
+    // given
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(EnvironmentDependentTestResource.class.getPackage().getName());
+    when(dao.hasNewChanges(anyList())).thenReturn(false);
+    when(dao.getDeferredIndexBuild()).thenReturn(new DeferredIndexBuild(new ArrayList<>(Collections.singletonList(
+        new DeferredIndexBuild.Keyspace("_default", "_default", new ArrayList<>(Collections.singletonList("user_email")))))));
+    ReactiveCollection reactiveCollection = mock(ReactiveCollection.class);
+    when(collection.reactive()).thenReturn(reactiveCollection);
+    when(collection.bucketName()).thenReturn("test");
+    when(collection.scopeName()).thenReturn("_default");
+    when(collection.name()).thenReturn("_default");
+    when(reactiveCollection.bucketName()).thenReturn("test");
+    when(reactiveCollection.scopeName()).thenReturn("_default");
+    when(reactiveCollection.name()).thenReturn("_default");
+    QueryResult deferred = indexState("deferred");
+    QueryResult online = indexState("online");
+    when(cluster.query(startsWith("SELECT name, state FROM system:indexes"), any(QueryOptions.class)))
+        .thenReturn(deferred, online);
+
+    // when
+    runner.execute();
+
+    // then
+    InOrder inOrder = inOrder(dao, cluster);
+    inOrder.verify(dao).getLock(anyLong());
+    inOrder.verify(cluster).query("BUILD INDEX ON `test`(`user_email`)");
+    inOrder.verify(dao).removeDeferredIndexes(any(DeferredIndexBuild.Keyspace.class));
+    inOrder.verify(dao).saveFingerprint(anyString());
+    inOrder.verify(dao).releaseLock(anyLong());
+    verify(dao, never()).save(any());
+  }
+
+  private static QueryResult indexState(String state) {
+    QueryResult result = mock(QueryResult.class);
+    when(result.rowsAsObject()).thenReturn(Collections.singletonList(
+        JsonObject.create().put("name", "user_email").put("state", state)));
+    return result;
+  }
+
+  @Test
+  public void shouldApplyTheRunnerSettingsToTheProvidedStateStore() throws Exception {
+    // given
+    InMemoryCouchVersionDAO store = new InMemoryCouchVersionDAO();
+    runner.setLockLeaseTime(Duration.ofMillis(50));
+
+    // when
+    runner.setDAO(store);
+    store.getLock(System.currentTimeMillis());
+    Thread.sleep(100);
+
+    // then
+    assertFalse(store.forInstance("other").isLocked());
+  }
 }
@@ -0,0 +1,46 @@
+package com.github.couchversion;
+
+import com.github.couchversion.dao.CouchVersionDAO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PartitionCoordinatorTest {
+
+  @Mock
+  private CouchVersionDAO dao;
+
+  @Test
+  public void shouldKeepRenewingTheLeaseAfterAFailedRenewal() throws Exception {
+    // given
+    when(dao.claimPartition("backfill", 0)).thenReturn(1L);
+    when(dao.renewPartition("backfill", 0, 1L)).thenThrow(new RuntimeException("timeout")).thenReturn(2L);
+    when(dao.renewPartition("backfill", 0, 2L)).thenReturn(2L);
+    when(dao.completePartition("backfill", 0, 2L)).thenReturn(true);
+    PartitionCoordinator coordinator = new PartitionCoordinator(dao, Duration.ofMillis(30), Duration.ofMillis(10));
+
+    // when
+    int applied = coordinator.applyAvailable("backfill", 1, partition -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    // then
+    assertEquals(1, applied);
+    verify(dao, atLeast(3)).renewPartition(eq("backfill"), eq(0), anyLong());
+    verify(dao).completePartition("backfill", 0, 2L);
+  }
+}
@@ -0,0 +1,151 @@
+package com.github.couchversion.bulk;
+
+import com.couchbase.client.java.ReactiveCluster;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.query.QueryMetaData;
+import com.couchbase.client.java.query.QueryMetrics;
+import com.couchbase.client.java.query.QueryOptions;
+import com.couchbase.client.java.query.QueryScanConsistency;
+import com.couchbase.client.java.query.ReactiveQueryResult;
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.exception.CouchVersionConfigurationVersionException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author deniswsrosa
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class BatchedQueryExecutorTest {
+
+  @Mock
+  private ReactiveCluster cluster;
+
+  @Mock
+  private ReactiveCollection collection;
+
+  @BeforeEach
+  public void init() {
+    when(collection.bucketName()).thenReturn("test");
+    when(collection.scopeName()).thenReturn("_default");
+    when(collection.name()).thenReturn("_default");
+  }
+
+  private static Mono<ReactiveQueryResult> batch(long mutations) {
+    QueryMetrics metrics = mock(QueryMetrics.class);
+    when(metrics.mutationCount()).thenReturn(mutations);
+    QueryMetaData metaData = mock(QueryMetaData.class);
+    when(metaData.metrics()).thenReturn(Optional.of(metrics));
+    ReactiveQueryResult result = mock(ReactiveQueryResult.class);
+    when(result.rowsAsObject()).thenReturn(Flux.empty());
+    when(result.metaData()).thenReturn(Mono.just(metaData));
+    return Mono.just(result);
+  }
+
+  @Test
+  public void shouldExecuteBatchesUntilNothingIsMutated() throws Exception {
+    // given
+    Mono<ReactiveQueryResult> full = batch(100);
+    Mono<ReactiveQueryResult> last = batch(40);
+    Mono<ReactiveQueryResult> empty = batch(0);
+    when(cluster.query(anyString(), any(QueryOptions.class))).thenReturn(full, full, last, empty);
+    ChangeSetStatistics statistics = new ChangeSetStatistics();
+    BatchedQueryExecutor executor = new BatchedQueryExecutor(cluster, collection).setStatistics(statistics);
+
+    // when
+    long mutations = executor.execute("UPDATE ${keyspace} SET status = 'active' WHERE status IS MISSING", 100,
+        Duration.ofSeconds(30), 1, QueryScanConsistency.REQUEST_PLUS);
+
+    // then
+    assertEquals(240, mutations);
+    assertEquals(240, statistics.getMutationCount());
+    verify(cluster, times(4)).query(eq("UPDATE `test` SET status = 'active' WHERE status IS MISSING LIMIT 100"),
+        any(QueryOptions.class));
+  }
+
+  @Test
+  public void shouldRunOneLoopPerLane() throws Exception {
+    // given
+    String statement = "UPDATE `test` SET v = 2 WHERE v = 1 AND MOD(n, 2) = %d LIMIT 10";
+    Mono<ReactiveQueryResult> full = batch(10);
+    Mono<ReactiveQueryResult> last = batch(5);
+    Mono<ReactiveQueryResult> empty = batch(0);
+    when(cluster.query(eq(String.format(statement, 0)), any(QueryOptions.class))).thenReturn(full, empty);
+    when(cluster.query(eq(String.format(statement, 1)), any(QueryOptions.class))).thenReturn(last, empty);
+    BatchedQueryExecutor executor = new BatchedQueryExecutor(cluster, collection);
+
+    // when
+    long mutations = executor.execute("UPDATE ${keyspace} SET v = 2 WHERE v = 1 AND MOD(n, ${lanes}) = ${lane} " +
+        "LIMIT ${batchSize}", 10, null, 2, QueryScanConsistency.NOT_BOUNDED);
+
+    // then
+    assertEquals(15, mutations);
+  }
+
+  @Test
+  public void shouldRejectLanesWithoutLanePlaceholder() {
+    BatchedQueryExecutor executor = new BatchedQueryExecutor(cluster, collection);
+    assertThrows(CouchVersionConfigurationVersionException.class, () -> executor.execute(
+        "UPDATE ${keyspace} SET v = 2 WHERE v = 1", 10, null, 4, QueryScanConsistency.REQUEST_PLUS));
+  }
+
+  @Test
+  public void shouldRejectReturningWithoutBatchSizePlaceholder() {
+    BatchedQueryExecutor executor = new BatchedQueryExecutor(cluster, collection);
+    assertThrows(CouchVersionConfigurationVersionException.class, () -> executor.execute(
+        "UPDATE ${keyspace} SET v = 2 WHERE v = 1 RETURNING META().id", 10, null, 1, QueryScanConsistency.REQUEST_PLUS));
+  }
+
+  @Test
+  public void shouldFailWhenTheMutationCountIsMissing() {
+    // given
+    QueryMetaData metaData = mock(QueryMetaData.class);
+    when(metaData.metrics()).thenReturn(Optional.empty());
+    ReactiveQueryResult result = mock(ReactiveQueryResult.class);
+    when(result.rowsAsObject()).thenReturn(Flux.empty());
+    when(result.metaData()).thenReturn(Mono.just(metaData));
+    when(cluster.query(anyString(), any(QueryOptions.class))).thenReturn(Mono.just(result));
+    BatchedQueryExecutor executor = new BatchedQueryExecutor(cluster, collection);
+
+    // when / then
+    assertThrows(IllegalStateException.class, () -> executor.execute(
+        "UPDATE ${keyspace} SET v = 2 WHERE v = 1;", 10, null, 1, QueryScanConsistency.REQUEST_PLUS));
+    verify(cluster).query(eq("UPDATE `test` SET v = 2 WHERE v = 1 LIMIT 10"), any(QueryOptions.class));
+  }
+
+  @Test
+  public void shouldFailWhenTheBatchesNeverEnd() {
+    // given
+    Mono<ReactiveQueryResult> full = batch(10);
+    when(cluster.query(anyString(), any(QueryOptions.class))).thenReturn(full);
+    BatchedQueryExecutor executor = new BatchedQueryExecutor(cluster, collection).setMaxBatches(3);
+
+    // when / then
+    IllegalStateException e = assertThrows(IllegalStateException.class, () -> executor.execute(
+        "UPDATE ${keyspace} SET v = v + 1", 10, null, 1, QueryScanConsistency.REQUEST_PLUS));
+    assertTrue(e.getMessage().contains("3 batches"));
+    verify(cluster, times(3)).query(eq("UPDATE `test` SET v = v + 1 LIMIT 10"), any(QueryOptions.class));
+  }
+}
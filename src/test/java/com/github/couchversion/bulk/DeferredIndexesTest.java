@@ -0,0 +1,215 @@
+package com.github.couchversion.bulk;
+
+import com.couchbase.client.core.error.IndexExistsException;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.query.QueryOptions;
+import com.couchbase.client.java.query.QueryResult;
+import com.github.couchversion.dao.DeferredIndexBuild;
+import com.github.couchversion.dao.InMemoryCouchVersionDAO;
+import com.github.couchversion.exception.CouchVersionException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author deniswsrosa
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class DeferredIndexesTest {
+
+  @Mock
+  private Cluster cluster;
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private Collection collection;
+
+  @Mock
+  private ReactiveCollection reactiveCollection;
+
+  @BeforeEach
+  public void init() {
+    when(bucket.defaultCollection()).thenReturn(collection);
+    when(collection.reactive()).thenReturn(reactiveCollection);
+    when(collection.bucketName()).thenReturn("test");
+    when(collection.scopeName()).thenReturn("_default");
+    when(collection.name()).thenReturn("_default");
+    when(reactiveCollection.bucketName()).thenReturn("test");
+    when(reactiveCollection.scopeName()).thenReturn("_default");
+    when(reactiveCollection.name()).thenReturn("_default");
+  }
+
+  private static QueryResult states(String... nameAndState) {
+    QueryResult result = mock(QueryResult.class);
+    JsonObject[] rows = new JsonObject[nameAndState.length / 2];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = JsonObject.create().put("name", nameAndState[2 * i]).put("state", nameAndState[2 * i + 1]);
+    }
+    when(result.rowsAsObject()).thenReturn(Arrays.asList(rows));
+    return result;
+  }
+
+  @Test
+  public void shouldBuildAllIndexesOfKeyspaceTogether() throws Exception {
+    // given
+    QueryResult deferred = states("user_email", "deferred", "user_name", "deferred");
+    QueryResult building = states("user_email", "online", "user_name", "building");
+    QueryResult online = states("user_email", "online", "user_name", "online");
+    when(cluster.query(startsWith("SELECT name, state FROM system:indexes"), any(QueryOptions.class)))
+        .thenReturn(deferred, building, online);
+    DeferredIndexes indexes = new DeferredIndexes(cluster, bucket).setPollInterval(Duration.ofMillis(1));
+
+    // when
+    indexes.createIndex("user_email", Collections.singletonList("email"), "type = 'user'")
+        .createIndex("user_name", Arrays.asList("lastName", "firstName"));
+    indexes.build();
+
+    // then
+    verify(cluster).query("CREATE INDEX `user_email` ON `test`(email) WHERE type = 'user' WITH {\"defer_build\": true}");
+    verify(cluster).query("CREATE INDEX `user_name` ON `test`(lastName, firstName) WITH {\"defer_build\": true}");
+    verify(cluster, times(1)).query(startsWith("BUILD INDEX"));
+    verify(cluster).query("BUILD INDEX ON `test`(`user_email`, `user_name`)");
+    verify(cluster, times(3)).query(startsWith("SELECT name, state FROM system:indexes"), any(QueryOptions.class));
+    assertEquals(0, indexes.getPendingCount());
+  }
+
+  @Test
+  public void shouldOnlyAwaitIndexesAlreadyBuilt() throws Exception {
+    // given
+    when(cluster.query(startsWith("CREATE PRIMARY INDEX"))).thenThrow(mock(IndexExistsException.class));
+    QueryResult online = states("#primary", "online");
+    when(cluster.query(startsWith("SELECT name, state FROM system:indexes"), any(QueryOptions.class))).thenReturn(online);
+    DeferredIndexes indexes = new DeferredIndexes(cluster, bucket);
+
+    // when
+    indexes.createPrimaryIndex().build();
+
+    // then
+    verify(cluster, never()).query(startsWith("BUILD INDEX"));
+  }
+
+  @Test
+  public void shouldFailWhenIndexesAreNotOnlineInTime() {
+    // given
+    QueryResult building = states("user_email", "building");
+    when(cluster.query(anyString(), any(QueryOptions.class))).thenReturn(building);
+    DeferredIndexes indexes = new DeferredIndexes(cluster, bucket)
+        .setBuildTimeout(Duration.ofMillis(20))
+        .setPollInterval(Duration.ofMillis(5));
+    indexes.createIndex("user_email", Collections.singletonList("email"));
+
+    // when / then
+    assertThrows(CouchVersionException.class, indexes::build);
+    verify(cluster, never()).query(eq("BUILD INDEX ON `test`(`user_email`)"));
+  }
+
+  @Test
+  public void shouldRecordTheIndexesUntilTheyAreOnline() throws Exception {
+    // given
+    QueryResult deferred = states("user_email", "deferred");
+    QueryResult online = states("user_email", "online");
+    when(cluster.query(startsWith("SELECT name, state FROM system:indexes"), any(QueryOptions.class)))
+        .thenReturn(deferred, online);
+    InMemoryCouchVersionDAO dao = new InMemoryCouchVersionDAO();
+    DeferredIndexes indexes = new DeferredIndexes(cluster, bucket).setDAO(dao).setPollInterval(Duration.ofMillis(1));
+
+    // when
+    indexes.createIndex("user_email", Collections.singletonList("email"));
+
+    // then
+    DeferredIndexBuild recorded = dao.getDeferredIndexBuild();
+    assertEquals(1, recorded.getKeyspaces().size());
+    assertEquals("_default", recorded.getKeyspaces().get(0).getCollection());
+    assertEquals(Collections.singletonList("user_email"), recorded.getKeyspaces().get(0).getNames());
+
+    // when
+    indexes.build();
+
+    // then
+    assertNull(dao.getDeferredIndexBuild());
+  }
+
+  @Test
+  public void shouldBuildTheIndexesLeftByAPreviousMigration() throws Exception {
+    // given
+    InMemoryCouchVersionDAO dao = new InMemoryCouchVersionDAO();
+    dao.addDeferredIndexes(new DeferredIndexBuild.Keyspace("_default", "_default", Arrays.asList("user_email", "user_name")));
+    QueryResult deferred = states("user_email", "deferred", "user_name", "deferred");
+    QueryResult online = states("user_email", "online", "user_name", "online");
+    when(cluster.query(startsWith("SELECT name, state FROM system:indexes"), any(QueryOptions.class)))
+        .thenReturn(deferred, online);
+    DeferredIndexes indexes = new DeferredIndexes(cluster, bucket).setDAO(dao).setPollInterval(Duration.ofMillis(1));
+
+    // when
+    indexes.restorePending().build();
+
+    // then
+    verify(cluster).query("BUILD INDEX ON `test`(`user_email`, `user_name`)");
+    assertNull(dao.getDeferredIndexBuild());
+  }
+
+  @Test
+  public void shouldKeepTheIndexesRecordedWhenTheyAreNotOnlineInTime() {
+    // given
+    QueryResult building = states("user_email", "building");
+    when(cluster.query(anyString(), any(QueryOptions.class))).thenReturn(building);
+    InMemoryCouchVersionDAO dao = new InMemoryCouchVersionDAO();
+    DeferredIndexes indexes = new DeferredIndexes(cluster, bucket)
+        .setDAO(dao)
+        .setBuildTimeout(Duration.ofMillis(20))
+        .setPollInterval(Duration.ofMillis(5));
+    indexes.createIndex("user_email", Collections.singletonList("email"));
+
+    // when
+    assertThrows(CouchVersionException.class, indexes::build);
+
+    // then
+    assertEquals(Collections.singletonList("user_email"), dao.getDeferredIndexBuild().getKeyspaces().get(0).getNames());
+  }
+
+  @Test
+  public void shouldKeepTheIndexesRecordedByAnotherInstance() throws Exception {
+    // given
+    QueryResult online = states("user_name", "online");
+    when(cluster.query(startsWith("SELECT name, state FROM system:indexes"), any(QueryOptions.class))).thenReturn(online);
+    InMemoryCouchVersionDAO store = new InMemoryCouchVersionDAO();
+    DeferredIndexes leader = new DeferredIndexes(cluster, bucket).setDAO(store.forInstance("pod-1"));
+    DeferredIndexes follower = new DeferredIndexes(cluster, bucket).setDAO(store.forInstance("pod-2"));
+    leader.createIndex("user_email", Collections.singletonList("email"));
+    follower.createIndex("user_name", Collections.singletonList("lastName"));
+
+    // when
+    follower.build();
+
+    // then
+    assertEquals(Collections.singletonList("user_email"), store.getDeferredIndexBuild().getKeyspaces().get(0).getNames());
+  }
+}
@@ -0,0 +1,175 @@
+package com.github.couchversion.bulk;
+
+import com.couchbase.client.core.error.CasMismatchException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.java.ReactiveCluster;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.GetResult;
+import com.couchbase.client.java.kv.MutationResult;
+import com.couchbase.client.java.kv.ReplaceOptions;
+import com.couchbase.client.java.query.QueryOptions;
+import com.couchbase.client.java.query.ReactiveQueryResult;
+import com.github.couchversion.ChangeSetPartition;
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.Checkpoint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author deniswsrosa
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class DocumentMigratorTest {
+
+  @Mock
+  private ReactiveCluster cluster;
+
+  @Mock
+  private ReactiveCollection collection;
+
+  @Mock
+  private ReactiveQueryResult firstPage;
+
+  @Mock
+  private ReactiveQueryResult lastPage;
+
+  @BeforeEach
+  public void init() {
+    when(collection.bucketName()).thenReturn("test");
+    when(collection.scopeName()).thenReturn("_default");
+    when(collection.name()).thenReturn("_default");
+
+    when(firstPage.rowsAs(String.class)).thenReturn(Flux.just("user::1", "user::2"));
+    when(lastPage.rowsAs(String.class)).thenReturn(Flux.just("user::3"));
+    when(cluster.query(anyString(), any(QueryOptions.class))).thenReturn(Mono.just(firstPage), Mono.just(lastPage));
+
+    stubDocument("user::1", JsonObject.create().put("type", "user"));
+    stubDocument("user::2", JsonObject.create().put("type", "user").put("status", "active"));
+    stubDocument("user::3", JsonObject.create().put("type", "user"));
+    when(collection.replace(anyString(), any(), any(ReplaceOptions.class))).thenReturn(Mono.just(mock(MutationResult.class)));
+  }
+
+  private void stubDocument(String key, JsonObject content) {
+    GetResult document = mock(GetResult.class);
+    when(document.contentAsObject()).thenReturn(content);
+    when(document.cas()).thenReturn(1L);
+    when(collection.get(key)).thenReturn(Mono.just(document));
+  }
+
+  @Test
+  public void shouldTransformAllPages() {
+    // given
+    DocumentMigrator migrator = new DocumentMigrator(cluster, collection).setPageSize(2);
+
+    // when
+    BulkMigrationStats stats = migrator.migrate("type = 'user'",
+        user -> user.containsKey("status") ? null : user.put("status", "active"));
+
+    // then
+    assertEquals(3, stats.getProcessed());
+    assertEquals(2, stats.getUpdated());
+    assertEquals(1, stats.getSkipped());
+    verify(cluster, times(2)).query(eq("SELECT RAW META().id FROM `test` WHERE META().id > $lastKey AND (type = 'user') " +
+        "ORDER BY META().id LIMIT 2"), any(QueryOptions.class));
+  }
+
+  @Test
+  public void shouldRetryOnCasMismatch() {
+    // given
+    when(collection.replace(eq("user::3"), any(), any(ReplaceOptions.class)))
+        .thenReturn(Mono.error(mock(CasMismatchException.class)), Mono.just(mock(MutationResult.class)));
+    DocumentMigrator migrator = new DocumentMigrator(cluster, collection).setPageSize(2);
+
+    // when
+    BulkMigrationStats stats = migrator.migrate(null, user -> user.put("status", "active"));
+
+    // then
+    assertEquals(3, stats.getUpdated());
+    assertEquals(1, stats.getCasRetries());
+    verify(collection, times(2)).get("user::3");
+  }
+
+  @Test
+  public void shouldRecordProgressInCheckpoint() {
+    // given
+    Checkpoint checkpoint = mock(Checkpoint.class);
+    DocumentMigrator migrator = new DocumentMigrator(cluster, collection).setPageSize(2).setCheckpoint(checkpoint);
+
+    // when
+    migrator.migrate(null, user -> user.put("status", "active"));
+
+    // then
+    InOrder inOrder = inOrder(checkpoint);
+    inOrder.verify(checkpoint).update("user::2", 2);
+    inOrder.verify(checkpoint).update("user::3", 1);
+  }
+
+  @Test
+  public void shouldOnlyCountProcessedDocumentsInCheckpoint() {
+    // given
+    when(collection.get("user::1")).thenReturn(Mono.error(mock(DocumentNotFoundException.class)));
+    Checkpoint checkpoint = mock(Checkpoint.class);
+    DocumentMigrator migrator = new DocumentMigrator(cluster, collection).setPageSize(2).setCheckpoint(checkpoint);
+
+    // when
+    BulkMigrationStats stats = migrator.migrate(null, user -> user.put("status", "active"));
+
+    // then
+    assertEquals(2, stats.getProcessed());
+    InOrder inOrder = inOrder(checkpoint);
+    inOrder.verify(checkpoint).update("user::2", 1);
+    inOrder.verify(checkpoint).update("user::3", 1);
+  }
+
+  @Test
+  public void shouldOnlyQueryTheKeysOfThePartition() {
+    // given
+    DocumentMigrator migrator = new DocumentMigrator(cluster, collection).setPageSize(2)
+        .setPartition(new ChangeSetPartition("backfill", 3, 8));
+
+    // when
+    BulkMigrationStats stats = migrator.migrate("type = 'user'", user -> user.put("status", "active"));
+
+    // then
+    assertEquals(3, stats.getProcessed());
+    verify(cluster, times(2)).query(eq("SELECT RAW META().id FROM `test` WHERE META().id > $lastKey AND " +
+        "FLOOR(HASHBYTES(META().id, {\"algorithm\": \"crc32\"}) / 65536) % 32768 % 1024 % 8 = 3 AND (type = 'user') " +
+        "ORDER BY META().id LIMIT 2"), any(QueryOptions.class));
+  }
+
+  @Test
+  public void shouldCountTheOperationsInTheStatistics() {
+    // given
+    ChangeSetStatistics statistics = new ChangeSetStatistics();
+    DocumentMigrator migrator = new DocumentMigrator(cluster, collection).setPageSize(2).setStatistics(statistics);
+
+    // when
+    migrator.migrate("type = 'user'", user -> user.containsKey("status") ? null : user.put("status", "active"));
+
+    // then
+    assertEquals(2, statistics.getMutationCount());
+    assertEquals(3, statistics.getResultCount());
+    assertEquals(5, statistics.getKvOperations());
+    assertEquals(2, statistics.getQueryOperations());
+  }
+}
@@ -0,0 +1,130 @@
+package com.github.couchversion.bulk;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author deniswsrosa
+ */
+public class MigrationThrottleTest {
+
+  private final AtomicLong clock = new AtomicLong();
+
+  private void advance(long millis) {
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  @Test
+  public void shouldPaceOperations() {
+    // given 100 ops/s, one operation every 10ms
+    MigrationThrottle throttle = new MigrationThrottle(100, 0, clock::get);
+
+    // when
+    long waitNanos = 0;
+    for (int i = 0; i < 20; i++) {
+      waitNanos = throttle.reserve(1, 0);
+    }
+
+    // then
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(190), waitNanos);
+  }
+
+  @Test
+  public void shouldAllowShortBurstAfterIdle() {
+    // given
+    MigrationThrottle throttle = new MigrationThrottle(100, 0, clock::get);
+    advance(5000);
+
+    // when 100ms of unused budget are sent right away
+    for (int i = 0; i < 11; i++) {
+      assertEquals(0, throttle.reserve(1, 0));
+    }
+
+    // then
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(10), throttle.reserve(1, 0));
+  }
+
+  @Test
+  public void shouldPaceBytes() {
+    // given
+    MigrationThrottle throttle = new MigrationThrottle(0, 1000, clock::get);
+
+    // when
+    throttle.reserve(1, 1100);
+
+    // then
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1100), throttle.reserve(1, 100));
+  }
+
+  @Test
+  public void shouldNeverWaitWhenUnlimited() {
+    MigrationThrottle throttle = MigrationThrottle.unlimited();
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(0, throttle.reserve(1, 1_000_000));
+    }
+  }
+
+  @Test
+  public void shouldBackOffOnHighLatencyAndRampUpWhenItRecovers() {
+    // given
+    MigrationThrottle throttle = new MigrationThrottle(1000, 0, clock::get)
+        .setKvLatencyThreshold(Duration.ofMillis(20));
+
+    // when the KV latency is above the threshold during two intervals
+    for (int interval = 0; interval < 2; interval++) {
+      advance(1000);
+      throttle.recordKvLatency(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    // then
+    assertEquals(250, throttle.getOpsPerSecond(), 0.001);
+
+    // when the latency recovers
+    for (int interval = 0; interval < 20; interval++) {
+      advance(1000);
+      throttle.recordKvLatency(TimeUnit.MILLISECONDS.toNanos(5));
+    }
+
+    // then
+    assertEquals(1000, throttle.getOpsPerSecond(), 0.001);
+  }
+
+  @Test
+  public void shouldIgnoreFewSlowOperations() {
+    // given
+    MigrationThrottle throttle = new MigrationThrottle(1000, 0, clock::get)
+        .setQueryLatencyThreshold(Duration.ofMillis(100));
+
+    // when 1 query out of 20 is slow
+    for (int i = 0; i < 19; i++) {
+      throttle.recordQueryLatency(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    advance(1000);
+    throttle.recordQueryLatency(TimeUnit.MILLISECONDS.toNanos(500));
+
+    // then
+    assertEquals(1, throttle.getRateFactor(), 0.001);
+  }
+
+  @Test
+  public void shouldNotBackOffBelowMinRate() {
+    // given
+    MigrationThrottle throttle = new MigrationThrottle(1000, 0, clock::get).setMinRateFactor(0.1);
+
+    // when
+    for (int interval = 0; interval < 10; interval++) {
+      advance(1000);
+      throttle.recordKvLatency(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    // then
+    assertEquals(0.1, throttle.getRateFactor(), 0.001);
+    assertTrue(throttle.reserve(1, 0) >= 0);
+  }
+}
@@ -0,0 +1,200 @@
+package com.github.couchversion.dao;
+
+import com.couchbase.client.core.error.CasMismatchException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.ExistsResult;
+import com.couchbase.client.java.kv.GetResult;
+import com.couchbase.client.java.kv.MutateInResult;
+import com.couchbase.client.java.kv.MutationResult;
+import com.couchbase.client.java.query.QueryOptions;
+import com.couchbase.client.java.query.QueryResult;
+import com.github.couchversion.changeset.ChangeEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class CouchbaseCouchVersionDAOManifestTest {
+
+  private static final String MANIFEST_ID = "couchversion_manifest";
+
+  @Mock
+  private Cluster cluster;
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private Collection collection;
+
+  @Mock
+  private ReactiveCollection reactiveCollection;
+
+  private CouchbaseCouchVersionDAO dao;
+
+  @BeforeEach
+  public void init() {
+    when(bucket.defaultCollection()).thenReturn(collection);
+    when(collection.reactive()).thenReturn(reactiveCollection);
+    when(collection.bucketName()).thenReturn("test");
+    when(collection.scopeName()).thenReturn("_default");
+    when(collection.name()).thenReturn("_default");
+
+    ExistsResult missing = mock(ExistsResult.class);
+    when(collection.exists(anyString())).thenReturn(missing);
+    when(reactiveCollection.exists(anyString())).thenReturn(Mono.just(missing));
+    when(reactiveCollection.get(anyString())).thenReturn(Mono.error(mock(DocumentNotFoundException.class)));
+
+    dao = new CouchbaseCouchVersionDAO(cluster, bucket);
+    dao.setManifestStorage(true);
+  }
+
+  @Test
+  public void shouldSeedTheManifestWithAllExistingEntries() {
+    // given
+    when(collection.get(MANIFEST_ID)).thenThrow(mock(DocumentNotFoundException.class));
+    QueryResult entryIds = mock(QueryResult.class);
+    when(entryIds.rowsAs(String.class)).thenReturn(Arrays.asList("ChangeEntry::test1", "ChangeEntry::otherProfile"));
+    when(cluster.query(anyString(), any(QueryOptions.class))).thenReturn(entryIds);
+    GetResult test1 = entry("test1", 1L);
+    GetResult otherProfile = entry("otherProfile", 2L);
+    when(reactiveCollection.get("ChangeEntry::test1")).thenReturn(Mono.just(test1));
+    when(reactiveCollection.get("ChangeEntry::otherProfile")).thenReturn(Mono.just(otherProfile));
+    MutationResult inserted = mock(MutationResult.class);
+    when(collection.insert(eq(MANIFEST_ID), any())).thenReturn(inserted);
+    ArgumentCaptor<ChangeManifest> manifest = ArgumentCaptor.forClass(ChangeManifest.class);
+
+    // when
+    boolean newChanges = dao.hasNewChanges(Arrays.asList("ChangeEntry::test1", "ChangeEntry::test2"));
+
+    // then
+    assertTrue(newChanges);
+    verify(cluster).query(eq("SELECT RAW META().id FROM `test` WHERE META().id LIKE 'ChangeEntry::%'"),
+        any(QueryOptions.class));
+    verify(collection).insert(eq(MANIFEST_ID), manifest.capture());
+    assertEquals(Arrays.asList("test1", "otherProfile"), changeIds(manifest.getValue()));
+    assertFalse(dao.isNewChange(new ChangeEntry("test1")));
+    assertTrue(dao.isNewChange(new ChangeEntry("test2")));
+  }
+
+  @Test
+  public void shouldFallBackToTheEntryDocumentWhenMissingFromTheManifest() {
+    // given
+    givenManifest(10L, "test1");
+    ExistsResult exists = mock(ExistsResult.class);
+    when(exists.exists()).thenReturn(true);
+    when(reactiveCollection.exists("ChangeEntry::test2")).thenReturn(Mono.just(exists));
+    when(collection.exists("ChangeEntry::otherProfile")).thenReturn(exists);
+
+    // when
+    boolean newChanges = dao.hasNewChanges(Arrays.asList("ChangeEntry::test1", "ChangeEntry::test2"));
+
+    // then
+    assertFalse(newChanges);
+    assertFalse(dao.isNewChange(new ChangeEntry("test2")));
+    assertFalse(dao.isNewChange(new ChangeEntry("otherProfile")));
+    assertTrue(dao.isNewChange(new ChangeEntry("test3")));
+    verify(cluster, never()).query(anyString(), any(QueryOptions.class));
+  }
+
+  @Test
+  public void shouldRetryTheAppendWhenAnotherInstanceUpdatedTheManifest() {
+    // given
+    givenManifest(10L, "test1");
+    dao.hasNewChanges(Collections.singletonList("ChangeEntry::test1"));
+    GetResult updated = manifest(11L, "test1", "other");
+    when(collection.get(MANIFEST_ID)).thenReturn(updated);
+    MutateInResult appended = mock(MutateInResult.class);
+    when(collection.mutateIn(eq(MANIFEST_ID), anyList(), any()))
+        .thenThrow(mock(CasMismatchException.class))
+        .thenReturn(appended);
+
+    // when
+    dao.save(newEntry("test2"));
+
+    // then
+    verify(collection, times(2)).mutateIn(eq(MANIFEST_ID), anyList(), any());
+    assertFalse(dao.isNewChange(new ChangeEntry("test2")));
+  }
+
+  @Test
+  public void shouldNotAppendTwiceWhenAnotherInstanceAppendedTheSameChangeSet() {
+    // given
+    givenManifest(10L, "test1");
+    dao.hasNewChanges(Collections.singletonList("ChangeEntry::test1"));
+    GetResult updated = manifest(11L, "test1", "test2");
+    when(collection.get(MANIFEST_ID)).thenReturn(updated);
+    when(collection.mutateIn(eq(MANIFEST_ID), anyList(), any())).thenThrow(mock(CasMismatchException.class));
+
+    // when
+    dao.save(newEntry("test2"));
+
+    // then
+    verify(collection, times(1)).mutateIn(eq(MANIFEST_ID), anyList(), any());
+  }
+
+  private void givenManifest(long cas, String... changeIds) {
+    GetResult manifest = manifest(cas, changeIds);
+    when(collection.get(MANIFEST_ID)).thenReturn(manifest);
+  }
+
+  private static GetResult manifest(long cas, String... changeIds) {
+    List<ManifestEntry> entries = new ArrayList<>();
+    for (String changeId : changeIds) {
+      entries.add(new ManifestEntry(changeId, null, null));
+    }
+    GetResult result = mock(GetResult.class);
+    when(result.contentAs(ChangeManifest.class)).thenReturn(new ChangeManifest(entries));
+    when(result.cas()).thenReturn(cas);
+    return result;
+  }
+
+  private static GetResult entry(String changeId, long timestamp) {
+    GetResult result = mock(GetResult.class);
+    when(result.contentAsObject()).thenReturn(JsonObject.create()
+        .put("changeId", changeId)
+        .put("author", "testuser")
+        .put("timestamp", timestamp));
+    return result;
+  }
+
+  private static ChangeEntry newEntry(String changeId) {
+    return new ChangeEntry(changeId, "testuser", new Date(), 0, "TestChangeLog", "method");
+  }
+
+  private static List<String> changeIds(ChangeManifest manifest) {
+    return manifest.getEntries().stream().map(ManifestEntry::getChangeId).collect(Collectors.toList());
+  }
+}
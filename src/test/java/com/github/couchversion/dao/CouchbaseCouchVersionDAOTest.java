@@ -0,0 +1,173 @@
+package com.github.couchversion.dao;
+
+import com.couchbase.client.core.error.CollectionExistsException;
+import com.couchbase.client.core.error.DocumentExistsException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.Scope;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.ExistsResult;
+import com.couchbase.client.java.kv.GetResult;
+import com.couchbase.client.java.kv.InsertOptions;
+import com.couchbase.client.java.kv.MutationResult;
+import com.couchbase.client.java.kv.RemoveOptions;
+import com.couchbase.client.java.manager.collection.CollectionManager;
+import com.couchbase.client.java.manager.collection.CollectionSpec;
+import com.couchbase.client.java.query.QueryOptions;
+import com.couchbase.client.java.query.QueryResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author deniswsrosa
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class CouchbaseCouchVersionDAOTest {
+
+  @Mock
+  private Cluster cluster;
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private CollectionManager collectionManager;
+
+  @Mock
+  private Scope scope;
+
+  @Mock
+  private Collection defaultCollection;
+
+  @Mock
+  private ReactiveCollection reactiveDefaultCollection;
+
+  @Mock
+  private Collection metadataCollection;
+
+  @Mock
+  private ReactiveCollection reactiveMetadataCollection;
+
+  private CouchbaseCouchVersionDAO dao;
+
+  @BeforeEach
+  public void init() {
+    when(bucket.collections()).thenReturn(collectionManager);
+    when(bucket.scope("couchversion")).thenReturn(scope);
+    when(scope.collection("metadata")).thenReturn(metadataCollection);
+    when(bucket.defaultCollection()).thenReturn(defaultCollection);
+    when(defaultCollection.reactive()).thenReturn(reactiveDefaultCollection);
+    when(metadataCollection.reactive()).thenReturn(reactiveMetadataCollection);
+
+    ExistsResult missing = mock(ExistsResult.class);
+    when(metadataCollection.exists(anyString())).thenReturn(missing);
+    when(reactiveMetadataCollection.exists(anyString())).thenReturn(Mono.just(missing));
+    when(reactiveDefaultCollection.get(anyString())).thenReturn(Mono.error(mock(DocumentNotFoundException.class)));
+    when(metadataCollection.get(anyString())).thenThrow(mock(DocumentNotFoundException.class));
+    when(defaultCollection.get(anyString())).thenThrow(mock(DocumentNotFoundException.class));
+    when(defaultCollection.bucketName()).thenReturn("test");
+    when(defaultCollection.scopeName()).thenReturn("_default");
+    when(defaultCollection.name()).thenReturn("_default");
+
+    dao = new CouchbaseCouchVersionDAO(cluster, bucket);
+    dao.setMetadataCollection("couchversion", "metadata");
+  }
+
+  @Test
+  public void shouldCopyTheDocumentsOfTheDefaultCollection() {
+    // given
+    givenLegacyDocuments("ChangeEntry::test1", "ChangeEntry::otherProfile", "ChangeCheckpoint::backfill");
+    doThrow(mock(CollectionExistsException.class)).when(collectionManager).createCollection(any(CollectionSpec.class));
+
+    // when
+    dao.migrateMetadata(Arrays.asList("ChangeEntry::test1", "ChangeEntry::test2"));
+
+    // then
+    verify(collectionManager).createScope("couchversion");
+    verify(cluster).query(eq("SELECT RAW META().id FROM `test` WHERE META().id LIKE 'ChangeEntry::%' OR " +
+        "META().id LIKE 'ChangeCheckpoint::%' OR META().id LIKE 'ChangePartition::%'"), any(QueryOptions.class));
+    verify(reactiveMetadataCollection).insert(eq("ChangeEntry::test1"), any());
+    verify(reactiveMetadataCollection).insert(eq("ChangeEntry::otherProfile"), any());
+    verify(reactiveMetadataCollection).insert(eq("ChangeCheckpoint::backfill"), any());
+    verify(reactiveMetadataCollection, never()).insert(eq("ChangeEntry::test2"), any());
+    verify(reactiveDefaultCollection, never()).remove(anyString());
+    verify(metadataCollection).upsert(eq("couchversion_metadata_migrated"), any());
+  }
+
+  @Test
+  public void shouldRemoveTheCopiedDocumentsWithTheCleanup() {
+    // given
+    givenLegacyDocuments("ChangeEntry::test1", "ChangeEntry::otherProfile");
+    when(reactiveDefaultCollection.remove(anyString())).thenReturn(Mono.just(mock(MutationResult.class)));
+    dao.setLegacyMetadataCleanup(true);
+    ArgumentCaptor<JsonObject> marker = ArgumentCaptor.forClass(JsonObject.class);
+
+    // when
+    dao.migrateMetadata(Collections.singletonList("ChangeEntry::test1"));
+
+    // then
+    verify(reactiveDefaultCollection).remove("ChangeEntry::test1");
+    verify(reactiveDefaultCollection).remove("ChangeEntry::otherProfile");
+    verify(metadataCollection).upsert(eq("couchversion_metadata_migrated"), marker.capture());
+    assertTrue(marker.getValue().getBoolean("legacyRemoved"));
+  }
+
+  @Test
+  public void shouldNotTakeTheLockWhileAPreviousVersionHoldsIt() {
+    // given
+    MutationResult inserted = mock(MutationResult.class);
+    when(metadataCollection.insert(eq("couchversion_lock"), any(), any(InsertOptions.class))).thenReturn(inserted);
+    when(defaultCollection.insert(eq("couchversion_lock"), any(), any(InsertOptions.class)))
+        .thenThrow(mock(DocumentExistsException.class));
+    GetResult legacyLock = mock(GetResult.class);
+    when(legacyLock.contentAs(CouchVersionLock.class)).thenReturn(new CouchVersionLock(System.currentTimeMillis()));
+    doReturn(legacyLock).when(defaultCollection).get("couchversion_lock");
+
+    // when
+    boolean locked = dao.isLocked();
+    boolean acquired = dao.getLock(System.currentTimeMillis());
+
+    // then
+    assertTrue(locked);
+    assertFalse(acquired);
+    verify(metadataCollection).remove(eq("couchversion_lock"), any(RemoveOptions.class));
+  }
+
+  private void givenLegacyDocuments(String... ids) {
+    QueryResult legacyIds = mock(QueryResult.class);
+    when(legacyIds.rowsAs(String.class)).thenReturn(Arrays.asList(ids));
+    when(cluster.query(anyString(), any(QueryOptions.class))).thenReturn(legacyIds);
+    for (String id : ids) {
+      GetResult document = mock(GetResult.class);
+      when(document.contentAsObject()).thenReturn(JsonObject.create().put("id", id));
+      when(reactiveDefaultCollection.get(id)).thenReturn(Mono.just(document));
+    }
+    when(reactiveMetadataCollection.insert(anyString(), any())).thenReturn(Mono.just(mock(MutationResult.class)));
+  }
+}
@@ -0,0 +1,110 @@
+package com.github.couchversion.dao;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.github.couchversion.CouchVersion;
+import com.github.couchversion.changeset.ChangeEntry;
+import com.github.couchversion.resources.EnvironmentMock;
+import com.github.couchversion.test.changelogs.test1.EnvironmentDependentTestResource;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author deniswsrosa
+ */
+public class InMemoryCouchVersionDAOTest {
+
+  @Test
+  public void shouldGrantTheLockToASingleInstanceUntilItExpires() throws Exception {
+    // given
+    InMemoryCouchVersionDAO first = new InMemoryCouchVersionDAO();
+    InMemoryCouchVersionDAO second = first.forInstance("second");
+    first.setLockLeaseTime(Duration.ofMillis(50));
+
+    // when / then
+    assertTrue(first.getLock(System.currentTimeMillis()));
+    assertFalse(second.getLock(System.currentTimeMillis()));
+    assertTrue(second.isLocked());
+
+    Thread.sleep(100);
+    assertFalse(second.isLocked());
+    assertTrue(second.getLock(System.currentTimeMillis()));
+    assertFalse(first.renewLock());
+  }
+
+  @Test
+  public void shouldTrackEntriesAndCheckpoints() {
+    // given
+    InMemoryCouchVersionDAO dao = new InMemoryCouchVersionDAO();
+    ChangeEntry entry = new ChangeEntry("test1", "testuser", new Date(), 0, "TestChangeLog", "test");
+    dao.save(entry);
+    dao.saveCheckpoint(new ChangeCheckpoint("test2", null, "key10", 10L, null, null));
+
+    // when
+    boolean newChanges = dao.hasNewChanges(Arrays.asList("ChangeEntry::test1", "ChangeEntry::test2"));
+
+    // then
+    assertTrue(newChanges);
+    assertFalse(dao.isNewChange(new ChangeEntry("test1")));
+    assertTrue(dao.isNewChange(new ChangeEntry("test2")));
+    assertEquals("key10", dao.getCheckpoint("test2").getLastKey());
+    dao.removeCheckpoint("test2");
+    assertNull(dao.getCheckpoint("test2"));
+  }
+
+  @Test
+  public void shouldApplyChangeSetsOnceWithConcurrentInstances() throws Exception {
+    // given
+    InMemoryCouchVersionDAO store = new InMemoryCouchVersionDAO().setLatency(Duration.ofMillis(1));
+    List<CouchVersion> runners = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      CouchVersion runner = new CouchVersion(mock(Cluster.class), mock(Bucket.class));
+      runner.setDAO(store.forInstance("instance-" + i));
+      runner.setSpringEnvironment(new EnvironmentMock());
+      runner.setChangeLogsScanPackage(EnvironmentDependentTestResource.class.getPackage().getName());
+      runner.setLockPollInterval(Duration.ofMillis(5));
+      runners.add(runner);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(runners.size());
+    CountDownLatch start = new CountDownLatch(1);
+
+    // when
+    List<Future<List<String>>> applied = new ArrayList<>();
+    for (CouchVersion runner : runners) {
+      applied.add(executor.submit(() -> {
+        start.await();
+        runner.execute();
+        return runner.getMigrationFuture().get().getAppliedChangeSets();
+      }));
+    }
+    start.countDown();
+
+    // then
+    List<String> all = new ArrayList<>();
+    for (Future<List<String>> result : applied) {
+      all.addAll(result.get(10, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+    assertEquals(Collections.singletonList("Envtest1"), all);
+    assertNotNull(store.getChangeEntry("Envtest1").getExecutedBy());
+    assertFalse(store.isLocked());
+  }
+}
@@ -0,0 +1,61 @@
+package com.github.couchversion.invoke;
+
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.exception.CouchVersionChangeSetVersionException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author deniswsrosa
+ */
+public class ChangeSetInvokerTest {
+
+  public static class TestChangeLog {
+    public String join(Integer number, String text) {
+      return text + number;
+    }
+
+    public void noResult(String text) {
+    }
+
+    public void unknownParameter(StringBuilder builder) {
+    }
+  }
+
+  private final ParameterResolverRegistry registry = new ParameterResolverRegistry()
+      .add(ParameterResolver.forType(String.class, context -> context.getChangeId()))
+      .add(ParameterResolver.forType(Integer.class, context -> 42));
+
+  @Test
+  public void shouldResolveParametersByType() throws Throwable {
+    ChangeSetInvoker invoker = new ChangeSetInvoker(TestChangeLog.class.getMethod("join", Integer.class, String.class), registry);
+
+    assertEquals("test42", invoker.invoke(new TestChangeLog(), new ChangeSetContext("test", null, null, new ChangeSetStatistics())));
+    assertTrue(invoker.hasParameter(Integer.class));
+  }
+
+  @Test
+  public void shouldPreferCustomResolvers() throws Throwable {
+    registry.addFirst(ParameterResolver.forType(Integer.class, context -> 7));
+    ChangeSetInvoker invoker = new ChangeSetInvoker(TestChangeLog.class.getMethod("join", Integer.class, String.class), registry);
+
+    assertEquals("test7", invoker.invoke(new TestChangeLog(), new ChangeSetContext("test", null, null, new ChangeSetStatistics())));
+  }
+
+  @Test
+  public void shouldReturnNullForVoidMethods() throws Throwable {
+    ChangeSetInvoker invoker = new ChangeSetInvoker(TestChangeLog.class.getMethod("noResult", String.class), registry);
+
+    assertNull(invoker.invoke(new TestChangeLog(), new ChangeSetContext("test", null, null, new ChangeSetStatistics())));
+  }
+
+  @Test
+  public void shouldFailOnUnknownParameter() {
+    assertThrows(CouchVersionChangeSetVersionException.class, () ->
+        new ChangeSetInvoker(TestChangeLog.class.getMethod("unknownParameter", StringBuilder.class), registry));
+  }
+}
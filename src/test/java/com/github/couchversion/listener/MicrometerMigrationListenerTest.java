@@ -0,0 +1,94 @@
+package com.github.couchversion.listener;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.github.couchversion.CouchVersion;
+import com.github.couchversion.dao.CouchVersionDAO;
+import com.github.couchversion.resources.EnvironmentMock;
+import com.github.couchversion.test.metrics.MetricsTestResource;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class MicrometerMigrationListenerTest {
+
+  @Mock
+  private Bucket bucket;
+
+  @Mock
+  private Cluster cluster;
+
+  @Mock
+  private CouchVersionDAO dao;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private CouchVersion runner;
+
+  @BeforeEach
+  public void init() {
+    runner = new CouchVersion(cluster, bucket);
+    runner.setDAO(dao);
+    runner.setEnabled(true);
+    runner.setSpringEnvironment(new EnvironmentMock());
+    runner.setChangeLogsScanPackage(MetricsTestResource.class.getPackage().getName());
+    MetricsTestResource.invocations.set(0);
+
+    when(dao.hasNewChanges(anyList())).thenReturn(true);
+    when(dao.getLock(anyLong())).thenReturn(true);
+    when(dao.isNewChange(any())).thenReturn(true);
+  }
+
+  @Test
+  public void shouldPublishTheMigrationMeters() throws Exception {
+    // given
+    runner.addListener(new MicrometerMigrationListener(registry, Tags.of("application", "orders")));
+
+    // when
+    runner.execute();
+
+    // then
+    assertEquals(1, registry.get("couchversion.scan").tag("application", "orders").timer().count());
+    assertEquals(2, registry.get("couchversion.state.check").tag("new_changes", "true").timer().count());
+    assertEquals(2, registry.get("couchversion.state.lookups").counter().count());
+    assertEquals(1, registry.get("couchversion.lock.wait").tag("acquired", "true").timer().count());
+    assertEquals(1, registry.get("couchversion.changeset").tag("outcome", "success").timer().count());
+    assertEquals(1, registry.get("couchversion.changeset.retries").counter().count());
+    assertEquals(1, registry.get("couchversion.changeset.retry.backoff").timer().count());
+    assertEquals(6, registry.get("couchversion.changeset.kv.ops").counter().count());
+    assertEquals(1, registry.get("couchversion.changeset.query.ops").counter().count());
+    assertEquals(1, registry.get("couchversion.migration").tag("outcome", "success").timer().count());
+    assertNull(registry.find("couchversion.changeset").tagKeys("change_id").timer());
+  }
+
+  @Test
+  public void shouldTagTheChangeSetMetersWithTheChangeIdWhenEnabled() throws Exception {
+    // given
+    runner.addListener(new MicrometerMigrationListener(registry).setChangeIdTag(true));
+
+    // when
+    runner.execute();
+
+    // then
+    assertNotNull(registry.find("couchversion.changeset").tags("change_id", "Metricstest1", "outcome", "success").timer());
+    assertEquals(1, registry.get("couchversion.changeset.retries").tag("change_id", "Metricstest1").counter().count());
+    assertEquals(6, registry.get("couchversion.changeset.kv.ops").tag("change_id", "Metricstest1").counter().count());
+    assertNull(registry.find("couchversion.migration").tagKeys("change_id").timer());
+  }
+}
@@ -0,0 +1,170 @@
+package com.github.couchversion.processor;
+
+import com.github.couchversion.utils.ChangeLogIndex;
+import com.github.couchversion.utils.ChangeService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author deniswsrosa
+ */
+public class ChangeLogIndexProcessorTest {
+
+  @TempDir
+  Path temp;
+
+  private static String changeLog(String className, String... ids) {
+    return profiledChangeLog(className, null, ids);
+  }
+
+  private static String profiledChangeLog(String className, String profile, String... ids) {
+    StringBuilder source = new StringBuilder("package lib.changelogs;\n" +
+        "import com.github.couchversion.changeset.*;\n" +
+        (profile == null ? "" : "@org.springframework.context.annotation.Profile(\"" + profile + "\")\n") +
+        "@ChangeLog(order = \"1\")\n" +
+        "public class " + className + " {\n");
+    for (int i = 0; i < ids.length; i++) {
+      source.append("  @ChangeSet(author = \"testuser\", id = \"").append(ids[i]).append("\", order = \"0").append(i)
+          .append("\")\n  public void changeSet").append(i).append("() {}\n");
+    }
+    return source.append("}\n").toString();
+  }
+
+  /**
+   * @return diagnostics of the compilation, the classes are written to the output directory
+   */
+  private List<Diagnostic<? extends JavaFileObject>> compile(Path output, boolean processor, String option,
+      String... sources) throws IOException {
+    Path sourceDir = Files.createTempDirectory(temp, "src");
+    List<File> files = new ArrayList<>();
+    for (String source : sources) {
+      String className = source.substring(source.indexOf("public class ") + 13, source.indexOf(" {"));
+      Path file = sourceDir.resolve(className + ".java");
+      Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+      files.add(file.toFile());
+    }
+
+    List<String> options = new ArrayList<>(Arrays.asList("-d", output.toString(),
+        "-classpath", System.getProperty("java.class.path")));
+    options.addAll(processor ? Arrays.asList("-processor", ChangeLogIndexProcessor.class.getName()) :
+        Arrays.asList("-proc:none"));
+    if (option != null) {
+      options.add("-A" + ChangeLogIndexProcessor.DUPLICATE_IDS_OPTION + "=" + option);
+    }
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+      compiler.getTask(null, fileManager, diagnostics, options, null, fileManager.getJavaFileObjectsFromFiles(files)).call();
+    }
+    return diagnostics.getDiagnostics();
+  }
+
+  private static List<Diagnostic.Kind> duplicateIdReports(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+    return diagnostics.stream()
+        .filter(diagnostic -> diagnostic.getMessage(null).contains("Duplicated changeset id"))
+        .map(Diagnostic::getKind)
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void shouldWriteIndexOfChangeLogs() throws Exception {
+    // given
+    Path output = Files.createTempDirectory(temp, "classes");
+
+    // when
+    compile(output, true, null, changeLog("FirstChangeLog", "first1", "first2"), changeLog("SecondChangeLog", "second1"));
+
+    // then
+    ChangeLogIndex index = new ChangeLogIndex();
+    index.read(Files.newBufferedReader(output.resolve(ChangeLogIndex.INDEX_LOCATION)));
+    assertEquals(Arrays.asList("lib.changelogs.FirstChangeLog", "lib.changelogs.SecondChangeLog"),
+        index.getChangeLogClassNames("lib.changelogs"));
+    List<String> records = Files.readAllLines(output.resolve(ChangeLogIndex.INDEX_LOCATION));
+    assertTrue(records.contains("changeset\tlib.changelogs.FirstChangeLog\tchangeSet1\tfirst2\t"));
+  }
+
+  @Test
+  public void shouldFailOnDuplicatedIdInsideChangeLog() throws Exception {
+    List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(Files.createTempDirectory(temp, "classes"), true, null,
+        changeLog("FirstChangeLog", "same", "same"));
+    assertEquals(Arrays.asList(Diagnostic.Kind.ERROR), duplicateIdReports(diagnostics));
+  }
+
+  @Test
+  public void shouldFailOnDuplicatedIdAcrossChangeLogs() throws Exception {
+    List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(Files.createTempDirectory(temp, "classes"), true, null,
+        changeLog("FirstChangeLog", "same"), changeLog("SecondChangeLog", "same"));
+    assertEquals(Arrays.asList(Diagnostic.Kind.ERROR), duplicateIdReports(diagnostics));
+  }
+
+  @Test
+  public void shouldFailOnDuplicatedIdAcrossChangeLogsOfDistinctProfiles() throws Exception {
+    List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(Files.createTempDirectory(temp, "classes"), true, null,
+        profiledChangeLog("FirstChangeLog", "dev", "same"), profiledChangeLog("SecondChangeLog", "prod", "same"));
+    assertEquals(Arrays.asList(Diagnostic.Kind.ERROR), duplicateIdReports(diagnostics));
+  }
+
+  @Test
+  public void shouldOnlyWarnOnDuplicatedIdAcrossChangeLogsOfExclusiveProfiles() throws Exception {
+    List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(Files.createTempDirectory(temp, "classes"), true, null,
+        profiledChangeLog("FirstChangeLog", "dev", "same"), profiledChangeLog("SecondChangeLog", "!dev", "same"));
+    assertEquals(Arrays.asList(Diagnostic.Kind.WARNING), duplicateIdReports(diagnostics));
+  }
+
+  @Test
+  public void shouldOnlyWarnOnDuplicatedIdAcrossChangeLogsWithOption() throws Exception {
+    List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(Files.createTempDirectory(temp, "classes"), true, "warning",
+        changeLog("FirstChangeLog", "same"), changeLog("SecondChangeLog", "same"));
+    assertEquals(Arrays.asList(Diagnostic.Kind.WARNING), duplicateIdReports(diagnostics));
+  }
+
+  @Test
+  public void shouldScanTheClasspathWhenTheIndexIsPartial() throws Exception {
+    // given a module compiled with the processor and another one compiled without it
+    Path indexed = Files.createTempDirectory(temp, "indexed");
+    Path notIndexed = Files.createTempDirectory(temp, "notIndexed");
+    compile(indexed, true, null, changeLog("FirstChangeLog", "first1"));
+    compile(notIndexed, false, null, changeLog("SecondChangeLog", "second1"));
+    assertFalse(Files.exists(notIndexed.resolve(ChangeLogIndex.INDEX_LOCATION)));
+
+    ClassLoader previous = Thread.currentThread().getContextClassLoader();
+    try (URLClassLoader classLoader = new URLClassLoader(
+        new URL[]{indexed.toUri().toURL(), notIndexed.toUri().toURL()}, getClass().getClassLoader())) {
+      Thread.currentThread().setContextClassLoader(classLoader);
+
+      // when
+      List<String> changeLogs = new ChangeService("lib.changelogs").fetchChangeLogs().stream()
+          .map(Class::getName)
+          .collect(Collectors.toList());
+
+      // then
+      assertTrue(changeLogs.contains("lib.changelogs.FirstChangeLog"));
+      assertTrue(changeLogs.contains("lib.changelogs.SecondChangeLog"));
+    } finally {
+      Thread.currentThread().setContextClassLoader(previous);
+    }
+  }
+}
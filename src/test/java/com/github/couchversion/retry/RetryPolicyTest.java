@@ -0,0 +1,59 @@
+package com.github.couchversion.retry;
+
+import com.couchbase.client.core.error.AmbiguousTimeoutException;
+import com.couchbase.client.core.error.RequestCanceledException;
+import com.couchbase.client.core.error.TemporaryFailureException;
+import com.couchbase.client.core.msg.CancellationReason;
+import com.github.couchversion.exception.CouchVersionException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author deniswsrosa
+ */
+public class RetryPolicyTest {
+
+  private final RetryPolicy transientErrors = new RetryPolicy(5, 100, 1000, 0, Collections.emptyList());
+
+  @Test
+  public void shouldRetryTransientCouchbaseErrorsOnly() {
+    assertTrue(transientErrors.isRetryable(new CouchVersionException("failure", new TemporaryFailureException(null))));
+    assertTrue(transientErrors.isRetryable(new AmbiguousTimeoutException("timeout", null)));
+    assertTrue(transientErrors.isRetryable(
+        new RequestCanceledException("canceled", CancellationReason.TARGET_NODE_REMOVED, null)));
+
+    assertFalse(transientErrors.isRetryable(
+        new RequestCanceledException("canceled", CancellationReason.SHUTDOWN, null)));
+    assertFalse(transientErrors.isRetryable(new CouchVersionException("failure", new NullPointerException())));
+  }
+
+  @Test
+  public void shouldRetryConfiguredErrors() {
+    RetryPolicy policy = new RetryPolicy(5, 100, 1000, 0, Collections.singletonList(IllegalStateException.class));
+
+    assertTrue(policy.isRetryable(new CouchVersionException("failure", new IllegalStateException())));
+    assertFalse(policy.isRetryable(new TemporaryFailureException(null)));
+  }
+
+  @Test
+  public void shouldGrowBackoffUpToTheMax() {
+    for (int attempt = 1; attempt <= 10; attempt++) {
+      long expected = Math.min(100L << (attempt - 1), 1000);
+      long backoff = transientErrors.backoffMillis(attempt);
+      assertTrue(backoff >= expected / 2 && backoff <= expected, "attempt " + attempt + ": " + backoff);
+    }
+  }
+
+  @Test
+  public void shouldStopAfterMaxAttemptsOrMaxElapsedTime() {
+    RetryPolicy policy = new RetryPolicy(3, 100, 1000, 500, Collections.emptyList());
+
+    assertTrue(policy.canRetry(1, 0, 100));
+    assertFalse(policy.canRetry(3, 0, 100));
+    assertFalse(policy.canRetry(2, 450, 100));
+  }
+}
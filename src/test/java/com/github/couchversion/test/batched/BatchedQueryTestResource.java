@@ -0,0 +1,15 @@
+package com.github.couchversion.test.batched;
+
+import com.github.couchversion.changeset.BatchedQuery;
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+@ChangeLog(order = "1")
+public class BatchedQueryTestResource {
+
+  @ChangeSet(author = "testuser", id = "Batchedtest1", order = "01")
+  @BatchedQuery(scope = "inventory", collection = "orders", batchSize = 10,
+      statement = "UPDATE ${keyspace} SET archived = true WHERE archived IS MISSING")
+  public void archiveOrders() {
+  }
+}
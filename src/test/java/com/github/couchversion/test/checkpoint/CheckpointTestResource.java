@@ -0,0 +1,23 @@
+package com.github.couchversion.test.checkpoint;
+
+import com.github.couchversion.Checkpoint;
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+@ChangeLog(order = "1")
+public class CheckpointTestResource {
+
+  public static volatile boolean fail;
+
+  @ChangeSet(author = "testuser", id = "Checkpointtest1", order = "01")
+  public void testChangeSetWithCheckpoint(Checkpoint checkpoint) {
+    System.out.println("invoked Checkpointtest1 with " + checkpoint);
+    int start = checkpoint.getLastKey() == null ? 0 : Integer.parseInt(checkpoint.getLastKey());
+    for (int i = start + 1; i <= 10; i++) {
+      if (fail && i == 6) {
+        throw new IllegalStateException("interrupted at " + i);
+      }
+      checkpoint.update(String.valueOf(i), 1);
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package com.github.couchversion.test.lazy;
+
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ChangeLog(order = "1")
+public class AppliedChangeLog {
+
+  public static final AtomicInteger instances = new AtomicInteger();
+
+  public AppliedChangeLog() {
+    instances.incrementAndGet();
+  }
+
+  @ChangeSet(author = "testuser", id = "Lazytest1", order = "01")
+  public void alreadyApplied() {
+  }
+}
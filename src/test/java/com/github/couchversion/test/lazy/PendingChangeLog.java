@@ -0,0 +1,12 @@
+package com.github.couchversion.test.lazy;
+
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+@ChangeLog(order = "2")
+public class PendingChangeLog {
+
+  @ChangeSet(author = "testuser", id = "Lazytest2", order = "01")
+  public void pending() {
+  }
+}
@@ -0,0 +1,17 @@
+package com.github.couchversion.test.lease;
+
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+@ChangeLog(order = "1")
+public class LeaseTestResource {
+
+  @ChangeSet(author = "testuser", id = "Leasetest1", order = "01")
+  public void slowChangeSet() throws InterruptedException {
+    Thread.sleep(200);
+  }
+
+  @ChangeSet(author = "testuser", id = "Leasetest2", order = "02")
+  public void nextChangeSet() {
+  }
+}
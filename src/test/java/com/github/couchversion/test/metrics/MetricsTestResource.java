@@ -0,0 +1,23 @@
+package com.github.couchversion.test.metrics;
+
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ChangeLog(order = "1")
+public class MetricsTestResource {
+
+  public static final AtomicInteger invocations = new AtomicInteger();
+
+  @ChangeSet(author = "testuser", id = "Metricstest1", order = "01", retries = 2,
+      retryOn = IllegalStateException.class, retryBackoffMillis = 1)
+  public void testChangeSetWithOperations(ChangeSetStatistics statistics) {
+    statistics.addKvOperations(3);
+    if (invocations.incrementAndGet() == 1) {
+      throw new IllegalStateException("first attempt fails");
+    }
+    statistics.addQueryOperations(1);
+  }
+}
@@ -0,0 +1,13 @@
+package com.github.couchversion.test.parallel;
+
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+@ChangeLog(order = "2", parallelGroup = "independent")
+public class OtherParallelTestResource {
+
+  @ChangeSet(author = "testuser", id = "Paralleltest2", order = "01")
+  public void secondChangeSet() throws InterruptedException {
+    ParallelTestResource.awaitOther();
+  }
+}
@@ -0,0 +1,28 @@
+package com.github.couchversion.test.parallel;
+
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Both changesets wait for each other, they only complete when they are applied concurrently
+ */
+@ChangeLog(order = "1", parallelGroup = "independent")
+public class ParallelTestResource {
+
+  public static final CountDownLatch STARTED = new CountDownLatch(2);
+
+  @ChangeSet(author = "testuser", id = "Paralleltest1", order = "01")
+  public void firstChangeSet() throws InterruptedException {
+    awaitOther();
+  }
+
+  static void awaitOther() throws InterruptedException {
+    STARTED.countDown();
+    if (!STARTED.await(5, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("The other changeset was not applied concurrently");
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package com.github.couchversion.test.partition;
+
+import com.github.couchversion.ChangeSetPartition;
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@ChangeLog(order = "1")
+public class PartitionedTestResource {
+
+  public static final Set<Integer> appliedPartitions = ConcurrentHashMap.newKeySet();
+
+  @ChangeSet(author = "testuser", id = "Partitiontest1", order = "01", partitions = 4)
+  public void testPartitionedChangeSet(ChangeSetPartition partition) {
+    System.out.println("invoked Partitiontest1 with " + partition);
+    appliedPartitions.add(partition.getIndex());
+  }
+}
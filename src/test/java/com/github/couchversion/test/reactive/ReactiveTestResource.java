@@ -0,0 +1,24 @@
+package com.github.couchversion.test.reactive;
+
+import com.couchbase.client.java.ReactiveBucket;
+import com.couchbase.client.java.ReactiveCluster;
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ChangeLog(order = "1")
+public class ReactiveTestResource {
+
+  public static final AtomicInteger processed = new AtomicInteger();
+
+  @ChangeSet(author = "testuser", id = "Reactivetest1", order = "01")
+  public Flux<Mono<Integer>> testChangeSetWithReactiveParams(ReactiveCluster cluster, ReactiveBucket bucket) {
+    System.out.println("invoked Reactivetest1 with cluster=" + cluster + " bucket=" + bucket);
+    return Flux.range(0, 10)
+        .map(i -> Mono.delay(Duration.ofMillis(10)).map(tick -> processed.incrementAndGet()));
+  }
+}
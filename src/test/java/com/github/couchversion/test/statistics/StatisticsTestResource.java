@@ -0,0 +1,22 @@
+package com.github.couchversion.test.statistics;
+
+import com.github.couchversion.ChangeSetStatistics;
+import com.github.couchversion.changeset.ChangeLog;
+import com.github.couchversion.changeset.ChangeSet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ChangeLog(order = "1")
+public class StatisticsTestResource {
+
+  public static final AtomicInteger invocations = new AtomicInteger();
+
+  @ChangeSet(author = "testuser", id = "Statisticstest1", order = "01", retries = 3,
+      retryOn = IllegalStateException.class, retryBackoffMillis = 1)
+  public void testChangeSetWithStatistics(ChangeSetStatistics statistics) {
+    if (invocations.incrementAndGet() == 1) {
+      throw new IllegalStateException("first attempt fails");
+    }
+    statistics.add(7, 9);
+  }
+}
@@ -0,0 +1,38 @@
+package com.github.couchversion.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author deniswsrosa
+ */
+public class ChangeLogIndexTest {
+
+  private static final String INDEX =
+      "# Generated by com.github.couchversion.processor.ChangeLogIndexProcessor, do not edit\n" +
+      "changelog\tcom.example.changelogs.Migration1\t\n" +
+      "changeset\tcom.example.changelogs.Migration1\tmethod1\tsomeChangeId1\t\n" +
+      "changeset\tcom.example.changelogs.Migration1\tmethod2\tsomeChangeId2\tdev\n" +
+      "changelog\tcom.example.changelogs.v2.Migration2\ttest\n" +
+      "changelog\tcom.example.other.Migration3\t\n";
+
+  @Test
+  public void shouldFindChangeLogsOfPackageAndSubPackages() throws IOException {
+    // given
+    ChangeLogIndex index = new ChangeLogIndex();
+
+    // when
+    index.read(new StringReader(INDEX));
+
+    // then
+    assertEquals(Arrays.asList("com.example.changelogs.Migration1", "com.example.changelogs.v2.Migration2"),
+        index.getChangeLogClassNames("com.example.changelogs"));
+    assertEquals(Collections.emptyList(), index.getChangeLogClassNames("com.example.change"));
+  }
+}
@@ -1,11 +1,14 @@
 package com.github.couchversion.utils;
 
 import com.github.couchversion.changeset.ChangeEntry;
+import com.github.couchversion.changeset.MigrationPlan;
+import com.github.couchversion.changeset.PlannedChangeSet;
 import com.github.couchversion.exception.CouchVersionChangeSetVersionException;
 import com.github.couchversion.test.changelogs.*;
 import org.junit.jupiter.api.Test;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -115,6 +118,29 @@ public class ChangeServiceTest {
     }
   }
 
+  @Test
+  public void shouldCreateSortedMigrationPlan() throws CouchVersionChangeSetVersionException {
+    // given
+    String scanPackage = CouchVersionChange2TestResource.class.getPackage().getName();
+    ChangeService service = new ChangeService(scanPackage);
+
+    // when
+    MigrationPlan plan = service.createMigrationPlan();
+
+    // then
+    assertEquals(CouchVersionTestResource.class, plan.getChangeLogClasses().get(0));
+    assertEquals(CouchVersionChange2TestResource.class, plan.getChangeLogClasses().get(1));
+    assertEquals(SpringDataChangelog.class, plan.getChangeLogClasses().get(3));
+
+    PlannedChangeSet first = plan.getChangeSets().get(0);
+    assertEquals("test1", first.getChangeId());
+    assertEquals("ChangeEntry::test1", first.getEntryId());
+
+    assertTrue(plan.hasRunAlwaysChangeSets());
+    assertFalse(plan.getChangeEntryIds().contains("ChangeEntry::Btest4"));
+    assertTrue(plan.getChangeEntryIds().containsAll(Arrays.asList("ChangeEntry::test1", "ChangeEntry::Btest5", "ChangeEntry::Envtest1")));
+  }
+
   @Test
   public void shouldFailOnDuplicatedChangeSets() throws CouchVersionChangeSetVersionException {
     String scanPackage = ChangeLogWithDuplicate.class.getPackage().getName();
@@ -0,0 +1,113 @@
+package com.github.couchversion.utils;
+
+import com.github.couchversion.changeset.ChangeSet;
+import com.github.couchversion.changeset.PlannedChangeSet;
+import com.github.couchversion.exception.CouchVersionChangeSetVersionException;
+import com.github.couchversion.exception.CouchVersionException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author deniswsrosa
+ */
+public class ChangeSetGraphTest {
+
+  public static class IndexChangeLog {
+    @ChangeSet(author = "testuser", id = "graph1", order = "01")
+    public void createCollections() {}
+
+    @ChangeSet(author = "testuser", id = "graph2", order = "02", parallelGroup = "indexes")
+    public void createIndexA() {}
+
+    @ChangeSet(author = "testuser", id = "graph3", order = "03", parallelGroup = "indexes")
+    public void createIndexB() {}
+
+    @ChangeSet(author = "testuser", id = "graph4", order = "04")
+    public void buildIndexes() {}
+  }
+
+  public static class CyclicChangeLog {
+    @ChangeSet(author = "testuser", id = "cycle1", order = "01", dependsOn = "cycle2")
+    public void first() {}
+
+    @ChangeSet(author = "testuser", id = "cycle2", order = "02", dependsOn = "cycle1")
+    public void second() {}
+  }
+
+  private static List<PlannedChangeSet> plan(Class<?> changeLogClass, String... methods) throws NoSuchMethodException {
+    List<PlannedChangeSet> changeSets = new ArrayList<>();
+    for (String method : methods) {
+      changeSets.add(new PlannedChangeSet(changeLogClass, changeLogClass.getMethod(method)));
+    }
+    return changeSets;
+  }
+
+  @Test
+  public void shouldKeepOrderWithoutDependencies() throws Exception {
+    ChangeSetGraph graph = new ChangeSetGraph(plan(IndexChangeLog.class,
+        "createCollections", "createIndexA", "createIndexB", "buildIndexes"));
+
+    List<String> ids = graph.topologicalOrder().stream().map(PlannedChangeSet::getChangeId).collect(Collectors.toList());
+    assertEquals(Arrays.asList("graph1", "graph2", "graph3", "graph4"), ids);
+  }
+
+  @Test
+  public void shouldRunParallelGroupConcurrently() throws Exception {
+    ChangeSetGraph graph = new ChangeSetGraph(plan(IndexChangeLog.class,
+        "createCollections", "createIndexA", "createIndexB", "buildIndexes"));
+    CountDownLatch group = new CountDownLatch(2);
+    List<String> applied = Collections.synchronizedList(new ArrayList<>());
+
+    boolean complete = graph.execute(4, changeSet -> {
+      if (!changeSet.getParallelGroup().isEmpty()) {
+        // both members of the group must be running at the same time to get past the latch
+        group.countDown();
+        try {
+          assertTrue(group.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+          throw new CouchVersionException(e.getMessage(), e);
+        }
+      }
+      applied.add(changeSet.getChangeId());
+      return true;
+    });
+
+    assertTrue(complete);
+    assertEquals("graph1", applied.get(0));
+    assertEquals("graph4", applied.get(3));
+  }
+
+  @Test
+  public void shouldStopOnFirstFailure() throws Exception {
+    ChangeSetGraph graph = new ChangeSetGraph(plan(IndexChangeLog.class,
+        "createCollections", "createIndexA", "createIndexB", "buildIndexes"));
+    List<String> applied = Collections.synchronizedList(new ArrayList<>());
+
+    assertThrows(CouchVersionException.class, () -> graph.execute(4, changeSet -> {
+      if (changeSet.getChangeId().equals("graph2")) {
+        throw new CouchVersionException("failure");
+      }
+      applied.add(changeSet.getChangeId());
+      return true;
+    }));
+    assertFalse(applied.contains("graph4"));
+  }
+
+  @Test
+  public void shouldFailOnCyclicDependencies() throws Exception {
+    List<PlannedChangeSet> changeSets = plan(CyclicChangeLog.class, "first", "second");
+    assertThrows(CouchVersionChangeSetVersionException.class, () -> new ChangeSetGraph(changeSets));
+  }
+}